@@ -0,0 +1,55 @@
+package ballsimulation.benchmarks;
+
+import ballsimulation.EulerIntegrator;
+import ballsimulation.Integrator;
+import ballsimulation.PrecisionState;
+import ballsimulation.SimulationEngine;
+import ballsimulation.VerletIntegrator;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ *  Cost of one tick of the Euler and Verlet schemes with float, Kahan
+ *  compensated and double precision state, on a single thread. Float Euler
+ *  runs the scalar loop so that all variants are plain Java.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrecisionBenchmark {
+
+    @Param({"1", "1000", "100000"})
+    public int ballCount;
+
+    @Param({"euler", "verlet"})
+    public String integrator;
+
+    @Param({"float", "kahan", "double"})
+    public String precision;
+
+    private SimulationEngine mEngine;
+
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mEngine = new SimulationEngine(752, 752);
+        mEngine.setStepKernel(null);
+        mEngine.spawnRandomBalls(ballCount, 24.0f, new Random(1));
+
+        int mode = PrecisionState.parse(precision);
+        Integrator scheme = integrator.equals("verlet") ? new VerletIntegrator(mode) : new EulerIntegrator(mode);
+        mEngine.setIntegrator(scheme);
+    }
+
+    @Benchmark
+    public long makeTick() {
+        mEngine.makeTick();
+        return mEngine.getTickCount();
+    }
+}
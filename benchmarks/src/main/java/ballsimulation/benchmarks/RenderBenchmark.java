@@ -0,0 +1,99 @@
+package ballsimulation.benchmarks;
+
+import ballsimulation.SimulationEngine;
+import ballsimulation.SimulationRenderer;
+import ballsimulation.StateSnapshot;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ *  Cost of drawing a frame into an offscreen image, the same kind of image
+ *  SimulationWindow renders into before showing it through the BufferStrategy
+ *  of its canvas, and of the tail bookkeeping done once per frame. Runs
+ *  without a display.
+ *
+ *  Run with -prof gc to see gc.alloc.rate.norm, bytes allocated per frame.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+public class RenderBenchmark {
+
+    @Param({"1", "1000", "100000", "1000000"})
+    public int ballCount;
+
+    @Param({"quality", "sprite", "heatmap"})
+    public String mode;
+
+    /* Same geometry as SimulationWindow */
+    private final int mWindowWidth = 1200;
+    private final int mWindowHeight = 800;
+    private final int mUIWidth = 400;
+    private final int mRectangleSize = 752;
+
+    private SimulationRenderer mRenderer;
+    private StateSnapshot mSnapshot;
+    private BufferedImage mImage;
+    private Graphics2D mGraphics;
+
+
+    @Setup(Level.Trial)
+    public void setup() {
+        SimulationEngine engine = new SimulationEngine(mRectangleSize, mRectangleSize);
+        engine.spawnRandomBalls(ballCount, 24.0f, new Random(1));
+
+        mSnapshot = new StateSnapshot();
+        mSnapshot.copyFrom(engine);
+
+        mRenderer = new SimulationRenderer(mWindowWidth, mWindowHeight, mUIWidth);
+        mRenderer.setRectangle( mUIWidth + (mWindowWidth - mUIWidth - mRectangleSize) / 2,
+                                (mWindowHeight - mRectangleSize) / 2,
+                                mRectangleSize,
+                                mRectangleSize );
+        mRenderer.setShowArrows(true);
+        mRenderer.setShowTail(true);
+        switch (mode) {
+            case "quality": mRenderer.setRenderMode(SimulationRenderer.MODE_QUALITY); break;
+            case "sprite":  mRenderer.setRenderMode(SimulationRenderer.MODE_SPRITE); break;
+            case "heatmap": mRenderer.setRenderMode(SimulationRenderer.MODE_HEATMAP); break;
+            default:        throw new IllegalArgumentException("Unknown render mode " + mode);
+        }
+
+        mImage = new BufferedImage(mWindowWidth, mWindowHeight, BufferedImage.TYPE_INT_ARGB);
+        mGraphics = mImage.createGraphics();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mGraphics.dispose();
+        mRenderer.shutdown();
+    }
+
+    @Benchmark
+    public BufferedImage drawSimulation() {
+        mRenderer.drawSimulation(mGraphics, mImage, mSnapshot);
+        return mImage;
+    }
+
+    @Benchmark
+    public BufferedImage renderFrame() {
+        mRenderer.renderFrame(mGraphics, mImage, mSnapshot);
+        return mImage;
+    }
+
+    @Benchmark
+    public void recordTail() {
+        /* Every call crosses a tail interval, so a point is always added */
+        mSnapshot.tickCount += 100;
+        mRenderer.recordTail(mSnapshot);
+    }
+}
@@ -0,0 +1,61 @@
+package ballsimulation.benchmarks;
+
+import ballsimulation.SimulationEngine;
+import ballsimulation.StepKernel;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ *  Cost of one simulation tick and of a full acceleration update on a single
+ *  thread, with the scalar loop and with the Vector API kernel.
+ *
+ *  Run with -prof gc to see gc.alloc.rate.norm, bytes allocated per tick.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class TickBenchmark {
+
+    @Param({"1", "1000", "100000", "1000000"})
+    public int ballCount;
+
+    @Param({"scalar", "vector"})
+    public String kernel;
+
+    private SimulationEngine mEngine;
+
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mEngine = new SimulationEngine(752, 752);
+        mEngine.spawnRandomBalls(ballCount, 24.0f, new Random(1));
+
+        if (kernel.equals("vector")) {
+            StepKernel vectorKernel = SimulationEngine.getVectorKernel();
+            if (vectorKernel == null) {
+                throw new IllegalStateException("Vector kernel is not available, run with --add-modules jdk.incubator.vector");
+            }
+            mEngine.setStepKernel(vectorKernel);
+        }
+        else {
+            mEngine.setStepKernel(null);
+        }
+    }
+
+    @Benchmark
+    public long makeTick() {
+        mEngine.makeTick();
+        return mEngine.getTickCount();
+    }
+
+    @Benchmark
+    public void updateAcceleration() {
+        mEngine.updateAcceleration();
+    }
+}
@@ -0,0 +1,268 @@
+package ballsimulation;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ *  Adaptive Dormand-Prince 5(4) Runge-Kutta scheme.
+ *
+ *  Every ball keeps its own step size between ticks. Each tick is covered by
+ *  as many substeps as the local error estimate requires, so balls take one
+ *  large step per tick in the flat middle of the box and many small ones near
+ *  the walls where the force grows without bound. Force at the end of a step
+ *  is reused as the first stage of the next one (FSAL), so an accepted step
+ *  costs six force evaluations.
+ *
+ *  Substeps which would leave the open box (0, 1), where the force is
+ *  singular, are rejected and retried with a smaller step. So are substeps
+ *  which overshoot the border of the wall zone, so that the reflection happens
+ *  where the ball touches the wall. Internally the state is integrated in
+ *  double precision.
+ */
+public class AdaptiveRK45Integrator implements Integrator {
+
+    public static final double DEFAULT_TOLERANCE = 1e-6;
+
+    /* Dormand-Prince coefficients */
+    private static final double A21 = 1.0 / 5.0;
+    private static final double A31 = 3.0 / 40.0, A32 = 9.0 / 40.0;
+    private static final double A41 = 44.0 / 45.0, A42 = -56.0 / 15.0, A43 = 32.0 / 9.0;
+    private static final double A51 = 19372.0 / 6561.0, A52 = -25360.0 / 2187.0, A53 = 64448.0 / 6561.0, A54 = -212.0 / 729.0;
+    private static final double A61 = 9017.0 / 3168.0, A62 = -355.0 / 33.0, A63 = 46732.0 / 5247.0, A64 = 49.0 / 176.0, A65 = -5103.0 / 18656.0;
+    private static final double B1 = 35.0 / 384.0, B3 = 500.0 / 1113.0, B4 = 125.0 / 192.0, B5 = -2187.0 / 6784.0, B6 = 11.0 / 84.0;
+    private static final double E1 = 71.0 / 57600.0, E3 = -71.0 / 16695.0, E4 = 71.0 / 1920.0, E5 = -17253.0 / 339200.0, E6 = 22.0 / 525.0, E7 = -1.0 / 40.0;
+
+    private static final double mSafetyFactor = 0.9;
+    private static final double mMinScale = 0.2;
+    private static final double mMaxScale = 5.0;
+
+    /* Below this step error control gives up and accepts the step to guarantee progress */
+    private static final double mMinStep = 1e-12;
+
+    private final double mTolerance;
+    private final LongAdder mForceEvaluations = new LongAdder();
+    private final LongAdder mAcceptedSteps = new LongAdder();
+    private final LongAdder mRejectedSteps = new LongAdder();
+
+    /* Step size suggested for the next substep of every ball, 0 for balls not stepped yet */
+    private double[] mStepSize = new double[0];
+
+
+    public AdaptiveRK45Integrator() {
+        this(DEFAULT_TOLERANCE);
+    }
+
+    public AdaptiveRK45Integrator(double tolerance) {
+        if (!(tolerance > 0)) {
+            throw new IllegalArgumentException("Tolerance must be positive");
+        }
+        mTolerance = tolerance;
+    }
+
+    @Override
+    public String getName() {
+        return "rk45";
+    }
+
+    public double getTolerance() {
+        return mTolerance;
+    }
+
+    public long getAcceptedSteps() {
+        return mAcceptedSteps.sum();
+    }
+
+    public long getRejectedSteps() {
+        return mRejectedSteps.sum();
+    }
+
+    @Override
+    public void prepare(SimulationEngine engine) {
+        int count = engine.getBalls().size();
+        if (mStepSize.length < count) {
+            mStepSize = Arrays.copyOf(mStepSize, Math.max(count, mStepSize.length * 2));
+        }
+    }
+
+    @Override
+    public void stepRange(SimulationEngine engine, int from, int to) {
+        final BallStore balls = engine.getBalls();
+        final double dt = engine.getTimeTickValue();
+        final double alpha = engine.getAlpha();
+        final ForceField field = engine.getForceField();
+        final double width = engine.getRectangleWidth();
+        final double height = engine.getRectangleHeight();
+        final double[] stepSize = mStepSize;
+
+        long evaluations = 0;
+        long accepted = 0;
+        long rejected = 0;
+
+        for (int i = from; i < to; i++) {
+            double x = balls.positionX[i];
+            double y = balls.positionY[i];
+            double u = balls.velocityX[i];
+            double w = balls.velocityY[i];
+            double fx1 = balls.accelerationX[i];
+            double fy1 = balls.accelerationY[i];
+            double rx = balls.diameter[i] / width / 2.0;
+            double ry = balls.diameter[i] / height / 2.0;
+
+            double h = stepSize[i] > 0 ? stepSize[i] : dt;
+            double t = 0;
+
+            while (t < dt) {
+                double step = Math.min(h, dt - t);
+
+                /* Stages, position derivative is velocity and velocity derivative is force */
+                double x2 = x + step * (A21 * u);
+                double y2 = y + step * (A21 * w);
+                double u2 = u + step * (A21 * fx1);
+                double w2 = w + step * (A21 * fy1);
+                double fx2 = SimulationEngine.forceX(field, alpha, x2, y2);
+                double fy2 = SimulationEngine.forceY(field, alpha, x2, y2);
+
+                double x3 = x + step * (A31 * u + A32 * u2);
+                double y3 = y + step * (A31 * w + A32 * w2);
+                double u3 = u + step * (A31 * fx1 + A32 * fx2);
+                double w3 = w + step * (A31 * fy1 + A32 * fy2);
+                double fx3 = SimulationEngine.forceX(field, alpha, x3, y3);
+                double fy3 = SimulationEngine.forceY(field, alpha, x3, y3);
+
+                double x4 = x + step * (A41 * u + A42 * u2 + A43 * u3);
+                double y4 = y + step * (A41 * w + A42 * w2 + A43 * w3);
+                double u4 = u + step * (A41 * fx1 + A42 * fx2 + A43 * fx3);
+                double w4 = w + step * (A41 * fy1 + A42 * fy2 + A43 * fy3);
+                double fx4 = SimulationEngine.forceX(field, alpha, x4, y4);
+                double fy4 = SimulationEngine.forceY(field, alpha, x4, y4);
+
+                double x5 = x + step * (A51 * u + A52 * u2 + A53 * u3 + A54 * u4);
+                double y5 = y + step * (A51 * w + A52 * w2 + A53 * w3 + A54 * w4);
+                double u5 = u + step * (A51 * fx1 + A52 * fx2 + A53 * fx3 + A54 * fx4);
+                double w5 = w + step * (A51 * fy1 + A52 * fy2 + A53 * fy3 + A54 * fy4);
+                double fx5 = SimulationEngine.forceX(field, alpha, x5, y5);
+                double fy5 = SimulationEngine.forceY(field, alpha, x5, y5);
+
+                double x6 = x + step * (A61 * u + A62 * u2 + A63 * u3 + A64 * u4 + A65 * u5);
+                double y6 = y + step * (A61 * w + A62 * w2 + A63 * w3 + A64 * w4 + A65 * w5);
+                double u6 = u + step * (A61 * fx1 + A62 * fx2 + A63 * fx3 + A64 * fx4 + A65 * fx5);
+                double w6 = w + step * (A61 * fy1 + A62 * fy2 + A63 * fy3 + A64 * fy4 + A65 * fy5);
+                double fx6 = SimulationEngine.forceX(field, alpha, x6, y6);
+                double fy6 = SimulationEngine.forceY(field, alpha, x6, y6);
+
+                double newX = x + step * (B1 * u + B3 * u3 + B4 * u4 + B5 * u5 + B6 * u6);
+                double newY = y + step * (B1 * w + B3 * w3 + B4 * w4 + B5 * w5 + B6 * w6);
+                double newU = u + step * (B1 * fx1 + B3 * fx3 + B4 * fx4 + B5 * fx5 + B6 * fx6);
+                double newW = w + step * (B1 * fy1 + B3 * fy3 + B4 * fy4 + B5 * fy5 + B6 * fy6);
+                double fx7 = SimulationEngine.forceX(field, alpha, newX, newY);
+                double fy7 = SimulationEngine.forceY(field, alpha, newX, newY);
+                evaluations += 6;
+
+                /* Difference between 5th and embedded 4th order solutions */
+                double errX = step * (E1 * u + E3 * u3 + E4 * u4 + E5 * u5 + E6 * u6 + E7 * newU);
+                double errY = step * (E1 * w + E3 * w3 + E4 * w4 + E5 * w5 + E6 * w6 + E7 * newW);
+                double errU = step * (E1 * fx1 + E3 * fx3 + E4 * fx4 + E5 * fx5 + E6 * fx6 + E7 * fx7);
+                double errW = step * (E1 * fy1 + E3 * fy3 + E4 * fy4 + E5 * fy5 + E6 * fy6 + E7 * fy7);
+
+                double error = Math.sqrt(0.25 * (square(errX / scale(x, newX)) + square(errY / scale(y, newY))
+                                                 + square(errU / scale(u, newU)) + square(errW / scale(w, newW))));
+
+                boolean insideBox = insideBox(x2) && insideBox(x3) && insideBox(x4) && insideBox(x5) && insideBox(x6) && insideBox(newX)
+                                 && insideBox(y2) && insideBox(y3) && insideBox(y4) && insideBox(y5) && insideBox(y6) && insideBox(newY);
+
+                if (!insideBox || !(error <= 1.0)) {
+                    if (step > mMinStep) {
+                        rejected++;
+                        h = step * (insideBox && error == error ? Math.max(mMinScale, mSafetyFactor * Math.pow(error, -0.2)) : mMinScale);
+                        continue;
+                    }
+                    if (!insideBox) {
+                        /* Can not make progress without leaving the box, stop at the current state */
+                        break;
+                    }
+                }
+
+                /* Step into the wall zone is shortened until the ball lands close to its border, where it reflects */
+                double fraction = Math.min(wallFraction(x, newX, rx), wallFraction(y, newY, ry));
+                if (fraction < 1.0 && step > mMinStep) {
+                    rejected++;
+                    h = step * fraction;
+                    continue;
+                }
+
+                accepted++;
+                t += step;
+                x = newX;
+                y = newY;
+                u = newU;
+                w = newW;
+                fx1 = fx7;
+                fy1 = fy7;
+
+                if ((x <= rx && u < 0) || (x >= 1 - rx && u > 0)) {
+                    u = -u;
+                }
+
+                if ((y <= ry && w < 0) || (y >= 1 - ry && w > 0)) {
+                    w = -w;
+                }
+
+                double grow = error > 0 ? mSafetyFactor * Math.pow(error, -0.2) : mMaxScale;
+                double next = step * Math.min(mMaxScale, Math.max(mMinScale, grow));
+
+                /* Step clipped by the end of tick says nothing about the step ball could take */
+                h = step < h ? Math.max(h, next) : next;
+            }
+
+            stepSize[i] = h;
+            balls.positionX[i] = (float)x;
+            balls.positionY[i] = (float)y;
+            balls.velocityX[i] = (float)u;
+            balls.velocityY[i] = (float)w;
+            balls.accelerationX[i] = (float)fx1;
+            balls.accelerationY[i] = (float)fy1;
+        }
+
+        mForceEvaluations.add(evaluations);
+        mAcceptedSteps.add(accepted);
+        mRejectedSteps.add(rejected);
+    }
+
+    @Override
+    public long getForceEvaluations() {
+        return mForceEvaluations.sum();
+    }
+
+    /*
+     *  Part of the step after which coordinate enters wall zone [0, r] or [1 - r, 1],
+     *  or 1 if it does not overshoot zone border by more than tolerance
+     */
+    private double wallFraction(double before, double after, double r) {
+        double border;
+        if (before > r && after < r - mTolerance) {
+            border = r;
+        }
+        else if (before < 1 - r && after > 1 - r + mTolerance) {
+            border = 1 - r;
+        }
+        else {
+            return 1.0;
+        }
+
+        /* Aim slightly behind the border so the next attempt does land in the zone */
+        double fraction = (border - before) / (after - before);
+        return Math.min(1.0, Math.max(0.01, fraction + 0.5 * mTolerance / Math.abs(after - before)));
+    }
+
+    private double scale(double before, double after) {
+        return mTolerance * (1.0 + Math.max(Math.abs(before), Math.abs(after)));
+    }
+
+    private static double square(double value) {
+        return value * value;
+    }
+
+    private static boolean insideBox(double value) {
+        return value > 0.0 && value < 1.0;
+    }
+}
@@ -0,0 +1,448 @@
+package ballsimulation;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ *  Long range force between all pairs of balls, attractive like gravity or
+ *  repulsive like charges.
+ *
+ *  Ball i feels strength / N * sum over j of (r_i - r_j) / (|r_i - r_j|^2 +
+ *  softening^2)^(3/2) in normalized coordinates, so positive strength repels
+ *  and the total force does not grow with the ball count. Summing all pairs
+ *  costs O(N^2), so a Barnes-Hut quadtree over [0, 1] x [0, 1] replaces
+ *  groups of balls which look smaller than the opening angle theta from a
+ *  ball by their center of mass, for O(N log N). Exact mode sums all pairs
+ *  for reference.
+ *
+ *  The tree is rebuilt every tick without allocating: balls are sorted by
+ *  the Morton code of their position, so every node is a contiguous range of
+ *  sorted balls, and nodes live in flat arrays which only grow. Forces are
+ *  summed in sorted order, so neighbouring balls walk the same part of the
+ *  tree, in parallel chunks above the threshold.
+ *
+ *  The engine applies the interaction as half a tick of velocity change
+ *  before and after every tick, around the integrator moving balls in the
+ *  force field alone. This splitting is second order, keeps the reflections
+ *  of every integrator as they are and needs the new forces only once all
+ *  balls have moved.
+ */
+public class BallInteraction {
+
+    public static final int MODE_TREE = 0;
+    public static final int MODE_EXACT = 1;
+
+    public static final float DEFAULT_THETA = 0.5f;
+    public static final float DEFAULT_SOFTENING = 0.02f;
+    public static final int DEFAULT_THRESHOLD = 4096;
+
+    /* Nodes with at most this many balls are not split */
+    private static final int mLeafSize = 8;
+
+    /* Bits of Morton codes per axis, also the deepest level of the tree */
+    private static final int mLevels = 16;
+
+    /* Sorted balls per parallel chunk */
+    private static final int mChunkSize = 1024;
+
+    private final float mStrength;
+    private final float mSoftening;
+    private final float mTheta;
+    private final int mMode;
+    private final ForkJoinPool mPool;
+    private final int mThreshold;
+
+    /* Balls sorted by Morton code, as code << 32 | ball index, and their positions in that order */
+    private long[] mKeys = new long[0];
+    private int[] mOrder = new int[0];
+    private double[] mSortedX = new double[0];
+    private double[] mSortedY = new double[0];
+    private int mCount;
+
+    /* Tree nodes: first of 4 children or -1 for leaves, range of sorted balls, cell side and center of mass */
+    private int[] mChild = new int[0];
+    private int[] mStart = new int[0];
+    private int[] mEnd = new int[0];
+    private double[] mSize = new double[0];
+    private double[] mCenterX = new double[0];
+    private double[] mCenterY = new double[0];
+    private int mNodeCount;
+
+    /* Accelerations of sorted balls */
+    private double[] mForceX = new double[0];
+    private double[] mForceY = new double[0];
+
+    /* Accelerations of the last update by ball index, for the kicks */
+    private float[] mAccelerationX = new float[0];
+    private float[] mAccelerationY = new float[0];
+    private int mUpdatedCount = -1;
+
+    private long mInteractions = 0;
+
+
+    public BallInteraction(float strength) {
+        this(strength, DEFAULT_SOFTENING, DEFAULT_THETA, MODE_TREE, Runtime.getRuntime().availableProcessors(), DEFAULT_THRESHOLD);
+    }
+
+    public BallInteraction(float strength, float softening, float theta, int mode, int workerCount, int threshold) {
+        if (!(softening > 0) || !(theta >= 0) || (mode != MODE_TREE && mode != MODE_EXACT) || workerCount < 1 || threshold < 0) {
+            throw new IllegalArgumentException("Softening must be positive, theta and threshold non-negative, worker count positive");
+        }
+        mStrength = strength;
+        mSoftening = softening;
+        mTheta = theta;
+        mMode = mode;
+        mPool = new ForkJoinPool(workerCount);
+        mThreshold = threshold;
+    }
+
+    public static String getModeName(int mode) {
+        return mode == MODE_EXACT ? "exact" : "tree";
+    }
+
+    /*
+     *  Mode of the given name, throws IllegalArgumentException for unknown names
+     */
+    public static int parseMode(String name) {
+        switch (name) {
+            case "tree":  return MODE_TREE;
+            case "exact": return MODE_EXACT;
+            default:      throw new IllegalArgumentException("Unknown interaction mode " + name);
+        }
+    }
+
+    public float getStrength() {
+        return mStrength;
+    }
+
+    public float getSoftening() {
+        return mSoftening;
+    }
+
+    public float getTheta() {
+        return mTheta;
+    }
+
+    public int getMode() {
+        return mMode;
+    }
+
+    /*
+     *  Nodes of the last tree built
+     */
+    public int getNodeCount() {
+        return mNodeCount;
+    }
+
+    /*
+     *  Total number of ball-ball and ball-node terms summed
+     */
+    public long getInteractions() {
+        return mInteractions;
+    }
+
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    /*
+     *  Computes the interaction at current positions for the following kicks
+     */
+    public void update(BallStore balls) {
+        compute(balls);
+        if (mAccelerationX.length < mCount) {
+            mAccelerationX = new float[mKeys.length];
+            mAccelerationY = new float[mKeys.length];
+        }
+        for (int s = 0; s < mCount; s++) {
+            mAccelerationX[mOrder[s]] = (float)mForceX[s];
+            mAccelerationY[mOrder[s]] = (float)mForceY[s];
+        }
+        mUpdatedCount = mCount;
+    }
+
+    /*
+     *  Changes velocities of all balls by time times the interaction of the
+     *  last update, updates first if balls were added or removed since
+     */
+    public void kick(BallStore balls, float time) {
+        if (mUpdatedCount != balls.size()) {
+            update(balls);
+        }
+        final float[] vx = balls.velocityX;
+        final float[] vy = balls.velocityY;
+        final float[] ax = mAccelerationX;
+        final float[] ay = mAccelerationY;
+        for (int i = 0; i < mUpdatedCount; i++) {
+            vx[i] += ax[i] * time;
+            vy[i] += ay[i] * time;
+        }
+    }
+
+    /*
+     *  Accelerations of the interaction alone at current positions, by ball index
+     */
+    public void getAccelerations(BallStore balls, double[] accelerationX, double[] accelerationY) {
+        compute(balls);
+        for (int s = 0; s < mCount; s++) {
+            accelerationX[mOrder[s]] = mForceX[s];
+            accelerationY[mOrder[s]] = mForceY[s];
+        }
+    }
+
+    /*
+     *  Potential energy of all pairs, summed exactly, with balls of unit mass
+     *  like the energies of SimulationEngine
+     */
+    public double getPotentialEnergy(BallStore balls) {
+        int count = balls.size();
+        double softening2 = (double)mSoftening * mSoftening;
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            double x = balls.positionX[i];
+            double y = balls.positionY[i];
+            for (int j = i + 1; j < count; j++) {
+                double dx = x - balls.positionX[j];
+                double dy = y - balls.positionY[j];
+                sum += 1.0 / Math.sqrt(dx * dx + dy * dy + softening2);
+            }
+        }
+        return mStrength * sum / count;
+    }
+
+    private void compute(BallStore balls) {
+        sort(balls);
+        if (mMode == MODE_TREE) {
+            build();
+        }
+
+        if (mCount >= mThreshold && mPool.getParallelism() > 1) {
+            mPool.invoke(new ForceTask(0, mCount));
+        }
+        else {
+            computeRange(0, mCount);
+        }
+    }
+
+    /*
+     *  Sorts balls by Morton code of their position clamped into the box
+     */
+    private void sort(BallStore balls) {
+        mCount = balls.size();
+        if (mKeys.length < mCount) {
+            int capacity = Math.max(mCount, 2 * mKeys.length);
+            mKeys = new long[capacity];
+            mOrder = new int[capacity];
+            mSortedX = new double[capacity];
+            mSortedY = new double[capacity];
+            mForceX = new double[capacity];
+            mForceY = new double[capacity];
+        }
+
+        int scale = (1 << mLevels) - 1;
+        for (int i = 0; i < mCount; i++) {
+            int qx = (int)(Math.min(Math.max(balls.positionX[i], 0.0f), 1.0f) * scale);
+            int qy = (int)(Math.min(Math.max(balls.positionY[i], 0.0f), 1.0f) * scale);
+            mKeys[i] = (long)interleave(qx, qy) << 32 | i;
+        }
+        /* Codes are unsigned, with the sign bit flipped they sort right as signed longs */
+        for (int i = 0; i < mCount; i++) {
+            mKeys[i] ^= Long.MIN_VALUE;
+        }
+        Arrays.sort(mKeys, 0, mCount);
+        for (int s = 0; s < mCount; s++) {
+            mKeys[s] ^= Long.MIN_VALUE;
+            int i = (int)mKeys[s];
+            mOrder[s] = i;
+            mSortedX[s] = balls.positionX[i];
+            mSortedY[s] = balls.positionY[i];
+        }
+    }
+
+    /*
+     *  Bits of x at even and bits of y at odd positions, y above x
+     */
+    private static int interleave(int x, int y) {
+        return spread(x) | spread(y) << 1;
+    }
+
+    private static int spread(int v) {
+        v = (v | v << 8) & 0x00ff00ff;
+        v = (v | v << 4) & 0x0f0f0f0f;
+        v = (v | v << 2) & 0x33333333;
+        v = (v | v << 1) & 0x55555555;
+        return v;
+    }
+
+    private void build() {
+        mNodeCount = 0;
+        int root = allocate(1);
+        buildNode(root, 0, mCount, 0, 1.0);
+    }
+
+    /*
+     *  Reserves count consecutive nodes, arrays grow and are kept for later ticks
+     */
+    private int allocate(int count) {
+        if (mNodeCount + count > mChild.length) {
+            int capacity = Math.max(mNodeCount + count, 2 * mChild.length);
+            mChild = Arrays.copyOf(mChild, capacity);
+            mStart = Arrays.copyOf(mStart, capacity);
+            mEnd = Arrays.copyOf(mEnd, capacity);
+            mSize = Arrays.copyOf(mSize, capacity);
+            mCenterX = Arrays.copyOf(mCenterX, capacity);
+            mCenterY = Arrays.copyOf(mCenterY, capacity);
+        }
+        int first = mNodeCount;
+        mNodeCount += count;
+        return first;
+    }
+
+    /*
+     *  Fills node for sorted balls [start, end), which share the quadrants of
+     *  all levels above level, and its subtree
+     */
+    private void buildNode(int node, int start, int end, int level, double size) {
+        mStart[node] = start;
+        mEnd[node] = end;
+        mSize[node] = size;
+        mChild[node] = -1;
+
+        if (end - start <= mLeafSize || level == mLevels) {
+            double sumX = 0;
+            double sumY = 0;
+            for (int s = start; s < end; s++) {
+                sumX += mSortedX[s];
+                sumY += mSortedY[s];
+            }
+            mCenterX[node] = end > start ? sumX / (end - start) : 0;
+            mCenterY[node] = end > start ? sumY / (end - start) : 0;
+            return;
+        }
+
+        /* Quadrant of a ball at this level is the pair of code bits below the shared prefix */
+        int shift = 32 + 2 * (mLevels - 1 - level);
+        int first = allocate(4);
+        mChild[node] = first;
+        double sumX = 0;
+        double sumY = 0;
+        int from = start;
+        for (int quadrant = 0; quadrant < 4; quadrant++) {
+            int to = from;
+            while (to < end && (int)(mKeys[to] >>> shift & 3) == quadrant) {
+                to++;
+            }
+            buildNode(first + quadrant, from, to, level + 1, 0.5 * size);
+            sumX += mCenterX[first + quadrant] * (to - from);
+            sumY += mCenterY[first + quadrant] * (to - from);
+            from = to;
+        }
+        mCenterX[node] = sumX / (end - start);
+        mCenterY[node] = sumY / (end - start);
+    }
+
+    /*
+     *  Accelerations of sorted balls [from, to)
+     */
+    private void computeRange(int from, int to) {
+        double softening2 = (double)mSoftening * mSoftening;
+        double theta2 = (double)mTheta * mTheta;
+        double factor = (double)mStrength / mCount;
+        int[] stack = new int[3 * mLevels + 4];
+        long interactions = 0;
+
+        for (int s = from; s < to; s++) {
+            double x = mSortedX[s];
+            double y = mSortedY[s];
+            double fx = 0;
+            double fy = 0;
+
+            if (mMode == MODE_EXACT) {
+                for (int t = 0; t < mCount; t++) {
+                    double dx = x - mSortedX[t];
+                    double dy = y - mSortedY[t];
+                    double d2 = dx * dx + dy * dy + softening2;
+                    double w = 1.0 / (d2 * Math.sqrt(d2));
+                    fx += dx * w;
+                    fy += dy * w;
+                }
+                /* The ball itself contributes dx = dy = 0 */
+                interactions += mCount - 1;
+            }
+            else {
+                int top = 0;
+                stack[top++] = 0;
+                while (top > 0) {
+                    int node = stack[--top];
+                    int start = mStart[node];
+                    int end = mEnd[node];
+                    if (start == end) {
+                        continue;
+                    }
+                    boolean inside = s >= start && s < end;
+                    if (!inside) {
+                        double dx = x - mCenterX[node];
+                        double dy = y - mCenterY[node];
+                        double d2 = dx * dx + dy * dy;
+                        if (mSize[node] * mSize[node] < theta2 * d2) {
+                            d2 += softening2;
+                            double w = (end - start) / (d2 * Math.sqrt(d2));
+                            fx += dx * w;
+                            fy += dy * w;
+                            interactions++;
+                            continue;
+                        }
+                    }
+                    int child = mChild[node];
+                    if (child < 0) {
+                        for (int t = start; t < end; t++) {
+                            double dx = x - mSortedX[t];
+                            double dy = y - mSortedY[t];
+                            double d2 = dx * dx + dy * dy + softening2;
+                            double w = 1.0 / (d2 * Math.sqrt(d2));
+                            fx += dx * w;
+                            fy += dy * w;
+                        }
+                        interactions += inside ? end - start - 1 : end - start;
+                    }
+                    else {
+                        stack[top++] = child;
+                        stack[top++] = child + 1;
+                        stack[top++] = child + 2;
+                        stack[top++] = child + 3;
+                    }
+                }
+            }
+
+            mForceX[s] = factor * fx;
+            mForceY[s] = factor * fy;
+        }
+
+        synchronized (this) {
+            mInteractions += interactions;
+        }
+    }
+
+
+    private class ForceTask extends RecursiveAction {
+        private final int mFrom;
+        private final int mTo;
+
+        ForceTask(int from, int to) {
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= mChunkSize) {
+                computeRange(mFrom, mTo);
+                return;
+            }
+
+            int middle = (mFrom + mTo) >>> 1;
+            invokeAll(new ForceTask(mFrom, middle), new ForceTask(middle, mTo));
+        }
+    }
+}
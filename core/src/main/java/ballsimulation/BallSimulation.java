@@ -0,0 +1,1052 @@
+package ballsimulation;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.*;
+import java.awt.Graphics2D.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.JMException;
+
+/*
+ *  Interactive simulation: controls on the left, the simulation area on the
+ *  right. Hosted by SimulationWindow, which calls init(), start(), stop()
+ *  and destroy() the way applet viewers did.
+ *
+ *  The simulation area is a Canvas drawn actively through a BufferStrategy.
+ *  A pacing thread posts at most one frame at a time to the event queue at
+ *  up to mMaxFrameRate frames per second. A frame is skipped when there is
+ *  no new snapshot and nothing in the UI changed, so a stopped simulation
+ *  costs no rendering, and otherwise redraws and copies only the region
+ *  which changed since the previous frame.
+ */
+public class BallSimulation extends Panel implements MouseListener, KeyListener {
+    
+    /*
+     *  Rendering parameters
+     */
+    private final int mWindowWidth = 1200;
+    private final int mWindowHeight = 800;
+    
+    private SimulationRenderer mRenderer;
+
+    /* Simulation area, drawn actively. The control panel is painted only when exposed. */
+    private Canvas mCanvas;
+    private BufferStrategy mBufferStrategy;
+
+    /* Frames are drawn into a window sized image, only their dirty region is copied to the canvas */
+    private BufferedImage mFrameImage;
+    private Graphics2D mFrameGraphics;
+
+    /* Frame rate cap, the next frame is posted only when the previous one is done */
+    private final int mMaxFrameRate = 60;
+    private Thread mFramePacer;
+    private volatile boolean mRendering = false;
+    private final AtomicBoolean mFramePending = new AtomicBoolean(false);
+
+    /* Bounds drawn by the last frame, the next one redraws them together with its own */
+    private final Rectangle mLastBounds = new Rectangle();
+    private final Rectangle mBounds = new Rectangle();
+    private final Rectangle mDirty = new Rectangle();
+
+    /* Set by UI changes on the event dispatch thread: redraw the whole area, or draw a frame although the snapshot is the same */
+    private boolean mRedrawAll = true;
+    private boolean mFrameRequested = false;
+
+    /* Back buffer holds the last frame, so only dirty regions need to be copied into it */
+    private boolean mBackBufferValid = false;
+
+
+    /*
+     *  UI parameters
+     */
+    private final int mUIWidth = 400;
+    private Label mLabelX;
+    private Label mLabelY;
+    private Label mLabelVX;
+    private Label mLabelVY;
+    private Label mLabelAlpha;
+    private Label mLabelDiameter;
+    private TextField mTextX;
+    private TextField mTextY;
+    private TextField mTextVX;
+    private TextField mTextVY;
+    private TextField mTextAlpha;
+    private TextField mTextDiameter;
+    private Checkbox mCheckboxShowArrows;
+    private Checkbox mCheckboxTimeStopped;
+    private Checkbox mCheckboxShowTail;
+    private Checkbox mCheckboxCollisions;
+    private Scrollbar mSimulationSpeedSlider;
+    private Checkbox mCheckboxWarp;
+    private Scrollbar mRectangleWidthSlider;
+    private Scrollbar mRectangleHeightSlider;
+
+    /* Text fields follow running simulation 10 times per second */
+    private final long mTextUpdateInterval = 100_000_000L;
+    private long mLastTextUpdate = 0;
+    private long mLastStatisticsUpdate = 0;
+    private long mLastWarpUpdate = 0;
+
+
+    /*
+     *  Visual parameters
+     */
+    private final int mRectangleMargin = 24;
+    private int mRectangleWidth = mWindowWidth - mUIWidth - 2 * mRectangleMargin;
+    private int mRectangleHeight = mWindowHeight - 2 * mRectangleMargin;
+    private int mRectangleXStart = mUIWidth + (mWindowWidth - mUIWidth - mRectangleWidth) / 2;
+    private int mRectangleYStart = (mWindowHeight - mRectangleHeight) / 2;
+
+    private boolean mShowArrows = false;
+    private boolean mTimeStopped = true;
+    private int mSimulationSpeed = 1;
+    private final int mMaxSimulationSpeed = 20;
+
+    /* Warp runs as many ticks as fit into every frame instead of the speed slider rate */
+    private boolean mWarp = false;
+
+    /* Gravity wells replacing the wall force, tabulated again in the background when alpha or rectangle size change */
+    private final ForceFieldTabulator mWells = new ForceFieldTabulator(WellForceField.source(4, WellForceField.DEFAULT_STRENGTH,
+                                                                                            WellForceField.DEFAULT_SOFTENING));
+    private boolean mWellsEnabled = false;
+
+
+    /*
+     *  Simulation parameters
+     */
+    private SimulationEngine mEngine = new SimulationEngine(mRectangleWidth, mRectangleHeight);
+
+    /* Physics runs on its own thread, UI reads its latest snapshot and posts commands to change it */
+    private SimulationThread mSimulation;
+    private StateSnapshot mSnapshot;
+
+    /* Balls of current snapshot, UI edits the selected one. Must never be written from UI. */
+    private BallStore mBalls;
+    private int mSelectedBall = mEngine.getBalls().add(0.6f, 0.3f, 0.2f, 0.7f, 24);
+
+    /* Ball added on simulation thread which becomes selected once it appears in a snapshot */
+    private volatile int mPendingSelection = -1;
+
+    /* Simulation ticks per second for every step of the speed slider */
+    private final int mBaseTickRate = 60;
+
+    /* Number of balls spawned at once by 'B' key */
+    private final int mSpawnBatchSize = 1000;
+    private Random mRandom = new Random();
+
+
+    private boolean mShowTail = false;
+
+    private boolean mCollisions = false;
+
+    /* Statistics of the first balls gathered on simulation thread, shown by 'S' key */
+    private TickStatistics mStatistics = new TickStatistics();
+    private boolean mShowStatistics = false;
+
+    /* Tick, frame, allocation and GC counters, shown by 'T' key and published through JMX */
+    private Telemetry mTelemetry = new Telemetry();
+    private boolean mShowTelemetry = false;
+    private long mLastRenderNanos = 0;
+
+    /* Streams state to viewers in other processes when an address is given on the command line */
+    private String mServeAddress = null;
+    private StateServer mServer;
+
+
+    /*
+     *  Creates simulation and controls, called by the host before the window is shown
+     */
+    public void init() {
+        setSize(mWindowWidth, mWindowHeight);
+        setPreferredSize(new Dimension(mWindowWidth, mWindowHeight));
+
+        addMouseListener(this);
+        addKeyListener(this); 
+
+        mRenderer = new SimulationRenderer(mWindowWidth, mWindowHeight, mUIWidth);
+        setBackground(mRenderer.getBackgroundColor());
+
+        /* Large ball sets are stepped on all cores */
+        mEngine.setParallelStepper(new ParallelStepper());
+        mEngine.addTickObserver(mStatistics);
+        mEngine.setTelemetry(mTelemetry);
+        try {
+            mTelemetry.register();
+        }
+        catch (JMException e) {
+            System.err.println("Cannot publish telemetry through JMX: " + e.getMessage());
+        }
+
+        mSimulation = new SimulationThread(mEngine);
+        mSimulation.setTicksPerSecond(mSimulationSpeed * mBaseTickRate);
+        mSimulation.setPaused(mTimeStopped);
+        mSnapshot = mSimulation.getSnapshots().getFront();
+        mBalls = mSnapshot.balls;
+
+        initUI();
+        initCanvas();
+
+        if (mServeAddress != null) {
+            startServer();
+        }
+
+        /* Set main window to be focused initially */
+        requestFocusInWindow();
+
+        mSimulation.start();
+    }
+
+    /*
+     *  Starts rendering, called by the host once the window is visible
+     */
+    public void start() {
+        mCanvas.createBufferStrategy(2);
+        mBufferStrategy = mCanvas.getBufferStrategy();
+        mFrameImage = new BufferedImage(mWindowWidth, mWindowHeight, BufferedImage.TYPE_INT_RGB);
+        mFrameGraphics = mFrameImage.createGraphics();
+        mRedrawAll = true;
+        mBackBufferValid = false;
+
+        final Runnable frame = new Runnable() {
+            public void run() {
+                try {
+                    renderFrame();
+                }
+                finally {
+                    mFramePending.set(false);
+                }
+            }
+        };
+        mRendering = true;
+        mFramePacer = new Thread("Frame pacer") {
+            @Override
+            public void run() {
+                long period = 1000000000L / mMaxFrameRate;
+                long nextFrameTime = System.nanoTime();
+                while (mRendering) {
+                    if (mFramePending.compareAndSet(false, true)) {
+                        java.awt.EventQueue.invokeLater(frame);
+                    }
+                    nextFrameTime += period;
+                    long wait = nextFrameTime - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    else if (wait < -period) {
+                        /* Frames take longer than the cap allows, do not try to catch up */
+                        nextFrameTime = System.nanoTime();
+                    }
+                }
+            }
+        };
+        mFramePacer.setDaemon(true);
+        mFramePacer.start();
+    }
+
+    /*
+     *  Stops rendering, called by the host before destroy()
+     */
+    public void stop() {
+        mRendering = false;
+        if (mFramePacer != null) {
+            LockSupport.unpark(mFramePacer);
+            mFramePacer = null;
+        }
+    }
+
+    /*
+     *  Stops simulation and releases its threads, called by the host when the window closes
+     */
+    public void destroy() {
+        mSimulation.shutdown();
+        if (mServer != null) {
+            try {
+                mServer.close();
+            }
+            catch (IOException e) {
+                System.err.println("Cannot close state server: " + e.getMessage());
+            }
+        }
+        mEngine.getParallelStepper().shutdown();
+        mRenderer.shutdown();
+        mWells.shutdown();
+        mTelemetry.unregister();
+    }
+
+    /*
+     *  Panel itself shows only the control panel, the canvas covers the rest
+     */
+    public void update(Graphics g) {
+        paint(g);
+    }
+
+    public void paint(Graphics g) {
+        mRenderer.renderUI(g);
+    }
+
+    /*
+     *  Canvas over the simulation area. Mouse and key events on it are handled
+     *  like those on the panel, exposing it makes the next frame redraw it.
+     */
+    private void initCanvas() {
+        mCanvas = new Canvas() {
+            public void update(Graphics g) {
+                paint(g);
+            }
+
+            public void paint(Graphics g) {
+                mBackBufferValid = false;
+                invalidateFrame();
+            }
+        };
+        mCanvas.setBounds(mUIWidth, 0, mWindowWidth - mUIWidth, mWindowHeight);
+        mCanvas.setBackground(mRenderer.getBackgroundColor());
+        mCanvas.addKeyListener(this);
+        mCanvas.addMouseListener(new MouseAdapter() {
+            public void mouseClicked(MouseEvent e) {
+                BallSimulation.this.mouseClicked(new MouseEvent(BallSimulation.this, e.getID(), e.getWhen(), e.getModifiersEx(),
+                                                                e.getX() + mCanvas.getX(), e.getY() + mCanvas.getY(),
+                                                                e.getClickCount(), e.isPopupTrigger(), e.getButton()));
+            }
+        });
+        add(mCanvas);
+    }
+
+    /*
+     *  Makes the next frame redraw the whole simulation area
+     */
+    private void invalidateFrame() {
+        mRedrawAll = true;
+    }
+
+    /*
+     *  Draws a frame on the event dispatch thread when there is a new snapshot
+     *  or the UI changed. Only the bounds of this frame and the previous one
+     *  are redrawn and copied to the canvas.
+     */
+    private void renderFrame() {
+        long frameStart = System.nanoTime();
+
+        /* Physics advances on simulation thread, here we only pick up its latest completed state */
+        StateSnapshot snapshot = mSimulation.getSnapshots().getFront();
+        boolean fresh = snapshot != mSnapshot;
+        mSnapshot = snapshot;
+        mBalls = mSnapshot.balls;
+
+        int pending = mPendingSelection;
+        if (pending >= 0 && pending < mBalls.size()) {
+            mPendingSelection = -1;
+            selectBall(pending);
+        }
+
+        updateTextFields();
+        if (!fresh && !mRedrawAll && !mFrameRequested) {
+            return;
+        }
+
+        mRenderer.setRectangle(mRectangleXStart, mRectangleYStart, mRectangleWidth, mRectangleHeight);
+        mRenderer.setShowArrows(mShowArrows);
+        mRenderer.setShowTail(mShowTail);
+        mRenderer.setSelectedBall(mSelectedBall);
+        mRenderer.recordTail(mSnapshot);
+
+        mRenderer.getDrawnBounds(mSnapshot, mFrameImage, mBounds);
+        if (mRedrawAll) {
+            mDirty.setBounds(mUIWidth, 0, mWindowWidth - mUIWidth, mWindowHeight);
+        }
+        else {
+            union(mBounds, mLastBounds, mDirty);
+        }
+        mLastBounds.setBounds(mBounds);
+        mRedrawAll = false;
+        mFrameRequested = false;
+
+        long renderStart = System.nanoTime();
+        if (!mDirty.isEmpty()) {
+            mFrameGraphics.setClip(mDirty.x, mDirty.y, mDirty.width, mDirty.height);
+            mRenderer.renderSimulation(mFrameGraphics, mFrameImage, mSnapshot);
+        }
+        mLastRenderNanos = System.nanoTime() - renderStart;
+
+        showFrame(mDirty);
+        mTelemetry.recordFrame(System.nanoTime() - frameStart, mLastRenderNanos);
+    }
+
+    /*
+     *  Copies dirty region of the frame image into the back buffer and shows
+     *  it. The whole area is copied when the back buffer lost its contents or
+     *  is flipped, since then it does not hold the previous frame.
+     */
+    private void showFrame(Rectangle dirty) {
+        boolean all = !mBackBufferValid || mBufferStrategy.getCapabilities().isPageFlipping();
+        if (!all && dirty.isEmpty()) {
+            return;
+        }
+        while (true) {
+            Graphics g = mBufferStrategy.getDrawGraphics();
+            int x = all ? mUIWidth : dirty.x;
+            int y = all ? 0 : dirty.y;
+            int width = all ? mWindowWidth - mUIWidth : dirty.width;
+            int height = all ? mWindowHeight : dirty.height;
+            g.drawImage(mFrameImage, x - mUIWidth, y, x + width - mUIWidth, y + height, x, y, x + width, y + height, null);
+            g.dispose();
+            if (mBufferStrategy.contentsRestored()) {
+                all = true;
+                continue;
+            }
+            mBufferStrategy.show();
+            if (!mBufferStrategy.contentsLost()) {
+                break;
+            }
+            all = true;
+        }
+        mBackBufferValid = true;
+    }
+
+    /*
+     *  Smallest rectangle containing a and b, empty ones are left out
+     */
+    private static void union(Rectangle a, Rectangle b, Rectangle result) {
+        if (a.isEmpty()) {
+            result.setBounds(b);
+        }
+        else if (b.isEmpty()) {
+            result.setBounds(a);
+        }
+        else {
+            int x = Math.min(a.x, b.x);
+            int y = Math.min(a.y, b.y);
+            result.setBounds(x, y, Math.max(a.x + a.width, b.x + b.width) - x, Math.max(a.y + a.height, b.y + b.height) - y);
+        }
+    }
+
+    public void initUI() {
+        setLayout(null);
+
+        mLabelX = new Label("x:");
+        mLabelX.setBounds(60, 220, 25, 25);
+        mLabelX.setBackground(Color.lightGray);
+        mLabelX.setFont(new Font("TimesRoman", Font.BOLD, 18));
+        add(mLabelX);
+
+        mTextX = new TextField(Float.toString(mBalls.positionX[mSelectedBall]));
+        mTextX.setBounds(90, 220, 80, 25);
+        mTextX.setFont(new Font("TimesRoman", Font.BOLD, 16));
+        add(mTextX);
+
+        mTextX.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent event) {
+                try {
+                    final float newPosX = Float.parseFloat(mTextX.getText());
+                    final int ball = mSelectedBall;
+                    float ballRX = mBalls.diameter[ball] / (float)mRectangleWidth / 2.0f;
+                    if (newPosX > ballRX && newPosX < 1.0f - ballRX) {
+                        mSimulation.post(new Runnable() {
+                            public void run() {
+                                mEngine.getBalls().positionX[ball] = newPosX;
+                                mEngine.updateAcceleration(ball);
+                            }
+                        });
+                    }
+                    else {
+                        mTextX.setText(Float.toString(mBalls.positionX[mSelectedBall]));
+                    }
+                }
+                catch(NumberFormatException e) {
+                    mTextX.setText(Float.toString(mBalls.positionX[mSelectedBall]));
+                }
+            }
+        });
+
+
+        mLabelY = new Label("y:");
+        mLabelY.setBounds(60, 250, 25, 25);
+        mLabelY.setBackground(Color.lightGray);
+        mLabelY.setFont(new Font("TimesRoman", Font.BOLD, 18));
+        add(mLabelY);
+
+        mTextY = new TextField(Float.toString(mBalls.positionY[mSelectedBall]));
+        mTextY.setBounds(90, 250, 80, 25);
+        mTextY.setFont(new Font("TimesRoman", Font.BOLD, 16));
+        add(mTextY);
+        
+        mTextY.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent event) {
+                try {
+                    final float newPosY = Float.parseFloat(mTextY.getText());
+                    final int ball = mSelectedBall;
+                    float ballRY = mBalls.diameter[ball] / (float)mRectangleHeight / 2.0f;
+                    if (newPosY > ballRY && newPosY < 1.0f - ballRY) {
+                        mSimulation.post(new Runnable() {
+                            public void run() {
+                                mEngine.getBalls().positionY[ball] = newPosY;
+                                mEngine.updateAcceleration(ball);
+                            }
+                        });
+                    }
+                    else {
+                        mTextY.setText(Float.toString(mBalls.positionY[mSelectedBall]));
+                    }
+                }
+                catch(NumberFormatException e) {
+                    mTextY.setText(Float.toString(mBalls.positionY[mSelectedBall]));
+                }
+            }
+        });
+
+
+        mLabelVX = new Label("vx:");
+        mLabelVX.setBounds(200, 220, 35, 25);
+        mLabelVX.setBackground(Color.lightGray);
+        mLabelVX.setFont(new Font("TimesRoman", Font.BOLD, 18));
+        add(mLabelVX);
+        
+        mTextVX = new TextField(Float.toString(mBalls.velocityX[mSelectedBall]));
+        mTextVX.setBounds(240, 220, 80, 25);
+        mTextVX.setFont(new Font("TimesRoman", Font.BOLD, 16));
+        add(mTextVX);
+
+        mTextVX.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent event) {
+                try {
+                    final float newVelX = Float.parseFloat(mTextVX.getText());
+                    final int ball = mSelectedBall;
+                    mSimulation.post(new Runnable() {
+                        public void run() {
+                            mEngine.getBalls().velocityX[ball] = newVelX;
+                        }
+                    });
+                }
+                catch(NumberFormatException e) {
+                    mTextVX.setText(Float.toString(mBalls.velocityX[mSelectedBall]));
+                }
+            }
+        });
+
+
+        mLabelVY = new Label("vy:");
+        mLabelVY.setBounds(200, 250, 35, 25);
+        mLabelVY.setBackground(Color.lightGray);
+        mLabelVY.setFont(new Font("TimesRoman", Font.BOLD, 18));
+        add(mLabelVY);
+        
+        mTextVY = new TextField(Float.toString(mBalls.velocityY[mSelectedBall]));
+        mTextVY.setBounds(240, 250, 80, 25);
+        mTextVY.setFont(new Font("TimesRoman", Font.BOLD, 16));
+        add(mTextVY);
+
+        mTextVY.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent event) {
+                try {
+                    final float newVelY = Float.parseFloat(mTextVY.getText());
+                    final int ball = mSelectedBall;
+                    mSimulation.post(new Runnable() {
+                        public void run() {
+                            mEngine.getBalls().velocityY[ball] = newVelY;
+                        }
+                    });
+                }
+                catch(NumberFormatException e) {
+                    mTextVY.setText(Float.toString(mBalls.velocityY[mSelectedBall]));
+                }
+            }
+        });
+
+
+        mLabelAlpha = new Label("a:");
+        mLabelAlpha.setBounds(60, 290, 25, 25);
+        mLabelAlpha.setBackground(Color.lightGray);
+        mLabelAlpha.setFont(new Font("TimesRoman", Font.BOLD, 18));
+        add(mLabelAlpha);
+
+        mTextAlpha = new TextField(Float.toString(mSnapshot.alpha));
+        mTextAlpha.setBounds(90, 290, 80, 25);
+        mTextAlpha.setFont(new Font("TimesRoman", Font.BOLD, 16));
+        add(mTextAlpha);
+        
+        mTextAlpha.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent event) {
+                try {
+                    final float newAlpha = Float.parseFloat(mTextAlpha.getText());
+                    mSimulation.post(new Runnable() {
+                        public void run() {
+                            mEngine.setAlpha(newAlpha);
+                        }
+                    });
+                }
+                catch(NumberFormatException e) {
+                    mTextAlpha.setText(Float.toString(mSnapshot.alpha));
+                }
+            }
+        });
+
+
+        mLabelDiameter = new Label("r:");
+        mLabelDiameter.setBounds(200, 290, 25, 25);
+        mLabelDiameter.setBackground(Color.lightGray);
+        mLabelDiameter.setFont(new Font("TimesRoman", Font.BOLD, 18));
+        add(mLabelDiameter);
+
+        mTextDiameter = new TextField(Integer.toString((int)mBalls.diameter[mSelectedBall]));
+        mTextDiameter.setBounds(240, 290, 80, 25);
+        mTextDiameter.setFont(new Font("TimesRoman", Font.BOLD, 16));
+        add(mTextDiameter);
+
+        mTextDiameter.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent event) {
+                try {
+                    final int newDiameter = Integer.parseInt(mTextDiameter.getText());
+                    final int ball = mSelectedBall;
+                    mSimulation.post(new Runnable() {
+                        public void run() {
+                            mEngine.getBalls().diameter[ball] = newDiameter;
+                        }
+                    });
+                }
+                catch(NumberFormatException e) {
+                    mTextDiameter.setText(Integer.toString((int)mBalls.diameter[mSelectedBall]));
+                }
+            }
+        });
+
+
+        mCheckboxShowArrows = new Checkbox(" Show velocity and acceleration", mShowArrows);
+        mCheckboxShowArrows.setBounds(60, 340, 260, 25);
+        mCheckboxShowArrows.setBackground(Color.lightGray);
+        mCheckboxShowArrows.setFont(new Font("TimesRoman", Font.BOLD, 16));
+        add(mCheckboxShowArrows);
+
+        mCheckboxShowArrows.addItemListener(new ItemListener() {
+            public void itemStateChanged(ItemEvent event) {
+                mShowArrows = mCheckboxShowArrows.getState();
+                invalidateFrame();
+            }
+        });
+
+
+        mCheckboxTimeStopped = new Checkbox(" Stop time for simulation", mTimeStopped);
+        mCheckboxTimeStopped.setBounds(60, 360, 260, 25);
+        mCheckboxTimeStopped.setBackground(Color.lightGray);
+        mCheckboxTimeStopped.setFont(new Font("TimesRoman", Font.BOLD, 16));
+        add(mCheckboxTimeStopped);
+
+        mCheckboxTimeStopped.addItemListener(new ItemListener() {
+            public void itemStateChanged(ItemEvent event) {
+                mTimeStopped = mCheckboxTimeStopped.getState();
+                mSimulation.setPaused(mTimeStopped);
+            }
+        });
+
+
+        mCheckboxShowTail = new Checkbox(" Show tail", mShowTail);
+        mCheckboxShowTail.setBounds(60, 380, 260, 25);
+        mCheckboxShowTail.setBackground(Color.lightGray);
+        mCheckboxShowTail.setFont(new Font("TimesRoman", Font.BOLD, 16));
+        add(mCheckboxShowTail);
+
+        mCheckboxShowTail.addItemListener(new ItemListener() {
+            public void itemStateChanged(ItemEvent event) {
+                mShowTail = mCheckboxShowTail.getState();
+                invalidateFrame();
+            }
+        });
+
+
+        mCheckboxCollisions = new Checkbox(" Ball collisions", mCollisions);
+        mCheckboxCollisions.setBounds(60, 400, 260, 25);
+        mCheckboxCollisions.setBackground(Color.lightGray);
+        mCheckboxCollisions.setFont(new Font("TimesRoman", Font.BOLD, 16));
+        add(mCheckboxCollisions);
+
+        mCheckboxCollisions.addItemListener(new ItemListener() {
+            public void itemStateChanged(ItemEvent event) {
+                mCollisions = mCheckboxCollisions.getState();
+                final boolean enabled = mCollisions;
+                mSimulation.post(new Runnable() {
+                    public void run() {
+                        mEngine.setCollisions(enabled ? new CollisionGrid() : null);
+                    }
+                });
+            }
+        });
+
+
+        mSimulationSpeedSlider = new Scrollbar(Scrollbar.HORIZONTAL, mSimulationSpeed, 1, 1, mMaxSimulationSpeed);
+        mSimulationSpeedSlider.setBlockIncrement(1);
+        mSimulationSpeedSlider.setUnitIncrement(1);
+        mSimulationSpeedSlider.setBounds(60, 490, mUIWidth - 2 * 60 - 150, 25);
+        mSimulationSpeedSlider.setBackground(new Color(32, 16, 96));
+		add(mSimulationSpeedSlider);
+
+		mSimulationSpeedSlider.addAdjustmentListener(new AdjustmentListener() {
+            public void adjustmentValueChanged(AdjustmentEvent event) {
+                mSimulationSpeed = mSimulationSpeedSlider.getValue();
+                mSimulation.setTicksPerSecond(mSimulationSpeed * mBaseTickRate);
+            }
+        });
+
+
+        mCheckboxWarp = new Checkbox(" Warp", mWarp);
+        mCheckboxWarp.setBounds(mUIWidth - 60 - 140, 490, 140, 25);
+        mCheckboxWarp.setBackground(Color.lightGray);
+        mCheckboxWarp.setFont(new Font("TimesRoman", Font.BOLD, 16));
+        add(mCheckboxWarp);
+
+        mCheckboxWarp.addItemListener(new ItemListener() {
+            public void itemStateChanged(ItemEvent event) {
+                setWarp(mCheckboxWarp.getState());
+            }
+        });
+
+
+        mRectangleWidthSlider = new Scrollbar(Scrollbar.HORIZONTAL, mRectangleWidth, 1, 1, mWindowWidth - mUIWidth - 2 * mRectangleMargin);
+        mRectangleWidthSlider.setBlockIncrement(1);
+        mRectangleWidthSlider.setUnitIncrement(1);
+        mRectangleWidthSlider.setBounds(60, 600, mUIWidth - 2 * 60, 25);
+        mRectangleWidthSlider.setBackground(new Color(32, 16, 96));
+		add(mRectangleWidthSlider);
+
+		mRectangleWidthSlider.addAdjustmentListener(new AdjustmentListener() {
+            public void adjustmentValueChanged(AdjustmentEvent event) {
+                mRectangleWidth = mRectangleWidthSlider.getValue();
+                mRectangleXStart = mUIWidth + (mWindowWidth - mUIWidth - mRectangleWidth) / 2;
+                postRectangleSize();
+                invalidateFrame();
+            }
+        });
+
+
+        mRectangleHeightSlider = new Scrollbar(Scrollbar.HORIZONTAL, mRectangleHeight, 1, 1, mWindowHeight - 2 * mRectangleMargin);
+        mRectangleHeightSlider.setBlockIncrement(1);
+        mRectangleHeightSlider.setUnitIncrement(1);
+        mRectangleHeightSlider.setBounds(60, 710, mUIWidth - 2 * 60, 25);
+        mRectangleHeightSlider.setBackground(new Color(32, 16, 96));
+		add(mRectangleHeightSlider);
+
+		mRectangleHeightSlider.addAdjustmentListener(new AdjustmentListener() {
+            public void adjustmentValueChanged(AdjustmentEvent event) {
+                mRectangleHeight = mRectangleHeightSlider.getValue();
+                mRectangleYStart = (mWindowHeight - mRectangleHeight) / 2;
+                postRectangleSize();
+                invalidateFrame();
+            }
+        });
+    }
+
+    private void setWarp(boolean warp) {
+        mWarp = warp;
+        mCheckboxWarp.setState(mWarp);
+        mSimulationSpeedSlider.setEnabled(!mWarp);
+        mSimulation.setWarp(mWarp);
+        updateWarpLabel();
+    }
+
+    /*
+     *  Shows how many times faster than speed 1 the simulation runs in warp mode
+     */
+    private void updateWarpLabel() {
+        double speedup = mSimulation.getAchievedTicksPerSecond() / mBaseTickRate;
+        String label = mWarp && !mTimeStopped && speedup > 0 ? String.format(Locale.ROOT, " Warp x%.0f", speedup) : " Warp";
+        if (!label.equals(mCheckboxWarp.getLabel())) {
+            mCheckboxWarp.setLabel(label);
+        }
+    }
+
+    /*
+     *  Serves state on mServeAddress, viewers change alpha, diameters and
+     *  speed through the same commands as the controls
+     */
+    private void startServer() {
+        RemoteControl control = new RemoteControl() {
+            public boolean setAlpha(final float alpha) {
+                mSimulation.post(new Runnable() {
+                    public void run() {
+                        mEngine.setAlpha(alpha);
+                    }
+                });
+                return true;
+            }
+
+            public boolean setDiameter(final int ball, final float diameter) {
+                mSimulation.post(new Runnable() {
+                    public void run() {
+                        if (ball < mEngine.getBalls().size()) {
+                            mEngine.getBalls().diameter[ball] = diameter;
+                        }
+                    }
+                });
+                return true;
+            }
+
+            public boolean setSpeed(final int speed) {
+                if (speed < 1 || speed > mMaxSimulationSpeed) {
+                    return false;
+                }
+                java.awt.EventQueue.invokeLater(new Runnable() {
+                    public void run() {
+                        mSimulationSpeed = speed;
+                        mSimulationSpeedSlider.setValue(mSimulationSpeed);
+                        mSimulation.setTicksPerSecond(mSimulationSpeed * mBaseTickRate);
+                    }
+                });
+                return true;
+            }
+        };
+
+        try {
+            mServer = new StateServer(StateServer.parseAddress(mServeAddress), control);
+        }
+        catch (IOException | IllegalArgumentException e) {
+            System.err.println("Cannot serve state on " + mServeAddress + ": " + e.getMessage());
+            return;
+        }
+        mSimulation.addSnapshotBuffer(mServer.getSnapshots());
+        mServer.start();
+        System.out.println("Serving state on " + mServer.getAddress());
+    }
+
+    /*
+     *  Hands current rectangle size over to simulation thread
+     */
+    private void postRectangleSize() {
+        final int width = mRectangleWidth;
+        final int height = mRectangleHeight;
+        mSimulation.post(new Runnable() {
+            public void run() {
+                mEngine.setRectangleSize(width, height);
+            }
+        });
+    }
+
+    /*
+     *  Keeps text fields in sync with selected ball while simulation runs, at
+     *  most every text update interval so values stay readable. Statistics
+     *  and telemetry overlays follow at the same rate.
+     */
+    public void updateTextFields() {
+        long now = System.nanoTime();
+        if (!mTimeStopped && now - mLastTextUpdate >= mTextUpdateInterval)
+        {
+            mLastTextUpdate = now;
+            mTextX.setText(Float.toString(mBalls.positionX[mSelectedBall]));
+            mTextY.setText(Float.toString(mBalls.positionY[mSelectedBall]));
+            mTextVX.setText(Float.toString(mBalls.velocityX[mSelectedBall]));
+            mTextVY.setText(Float.toString(mBalls.velocityY[mSelectedBall]));
+        }
+        if (mWarp && now - mLastWarpUpdate >= mTextUpdateInterval) {
+            mLastWarpUpdate = now;
+            updateWarpLabel();
+        }
+        if ((mShowStatistics || mShowTelemetry) && now - mLastStatisticsUpdate >= mTextUpdateInterval) {
+            mLastStatisticsUpdate = now;
+            updateOverlay();
+        }
+    }
+
+    /*
+     *  Shows statistics and telemetry lines which are switched on, one after the other
+     */
+    private void updateOverlay() {
+        String[] statistics = mShowStatistics ? mStatistics.getSummary() : new String[0];
+        String[] telemetry = mShowTelemetry ? mTelemetry.getSummary() : new String[0];
+        if (statistics.length + telemetry.length == 0) {
+            mRenderer.setOverlayLines(null);
+            mFrameRequested = true;
+            return;
+        }
+        String[] lines = Arrays.copyOf(statistics, statistics.length + telemetry.length);
+        System.arraycopy(telemetry, 0, lines, statistics.length, telemetry.length);
+        mRenderer.setOverlayLines(lines);
+        mFrameRequested = true;
+    }
+
+    /*
+     * Override callbacks for mouse
+     */
+    public void mouseEntered(MouseEvent e) {}
+    public void mouseExited(MouseEvent e) {}
+    public void mousePressed(MouseEvent e) {}
+    public void mouseReleased(MouseEvent e) {}
+
+    public void mouseClicked(MouseEvent e) {
+        /* Return focus to the main window as soon as user clicked on it */
+        requestFocusInWindow();
+        int mouseX = e.getX();
+        int mouseY = e.getY();
+        int ballDiameter = (int)mBalls.diameter[mSelectedBall];
+
+        boolean insideRectangle = mouseX > mRectangleXStart + ballDiameter / 2 && mouseX < mRectangleXStart + mRectangleWidth - ballDiameter / 2 &&
+                                  mouseY > mRectangleYStart + ballDiameter / 2 && mouseY < mRectangleYStart + mRectangleHeight - ballDiameter / 2;
+
+        if (e.getButton() == MouseEvent.BUTTON1) {
+            /* Clicking on a ball selects it, clicking elsewhere moves selected ball there */
+            int hit = mBalls.findAt(mouseX - mRectangleXStart, mouseY - mRectangleYStart, mRectangleWidth, mRectangleHeight);
+            if (hit >= 0) {
+                selectBall(hit);
+            }
+            else if (insideRectangle) {
+                final int ball = mSelectedBall;
+                final float newPosX = (float)(mouseX - mRectangleXStart) / (float)mRectangleWidth;
+                final float newPosY = (float)(mouseY - mRectangleYStart) / (float)mRectangleHeight;
+                mSimulation.post(new Runnable() {
+                    public void run() {
+                        mEngine.getBalls().positionX[ball] = newPosX;
+                        mEngine.getBalls().positionY[ball] = newPosY;
+                        mEngine.updateAcceleration(ball);
+                    }
+                });
+                mTextX.setText(Float.toString(newPosX));
+                mTextY.setText(Float.toString(newPosY));
+            }
+        }
+        else if (e.getButton() == MouseEvent.BUTTON3 && insideRectangle) {
+            /* Right click adds a copy of selected ball at mouse position */
+            final int ball = mSelectedBall;
+            final float newPosX = (float)(mouseX - mRectangleXStart) / (float)mRectangleWidth;
+            final float newPosY = (float)(mouseY - mRectangleYStart) / (float)mRectangleHeight;
+            mSimulation.post(new Runnable() {
+                public void run() {
+                    BallStore balls = mEngine.getBalls();
+                    int added = balls.add(newPosX, newPosY, balls.velocityX[ball], balls.velocityY[ball], balls.diameter[ball]);
+                    mEngine.updateAcceleration(added);
+                    mPendingSelection = added;
+                }
+            });
+        }
+    }
+
+    /*
+     *  Must be called only when snapshot already contains the ball
+     */
+    private void selectBall(int index) {
+        mSelectedBall = index;
+        mFrameRequested = true;
+
+        mTextX.setText(Float.toString(mBalls.positionX[mSelectedBall]));
+        mTextY.setText(Float.toString(mBalls.positionY[mSelectedBall]));
+        mTextVX.setText(Float.toString(mBalls.velocityX[mSelectedBall]));
+        mTextVY.setText(Float.toString(mBalls.velocityY[mSelectedBall]));
+        mTextDiameter.setText(Integer.toString((int)mBalls.diameter[mSelectedBall]));
+    }
+
+    /*
+     *  Adds a batch of balls with random positions and velocities and the same
+     *  diameter as selected ball
+     */
+    private void spawnBalls(final int count) {
+        final float diameter = mBalls.diameter[mSelectedBall];
+        mSimulation.post(new Runnable() {
+            public void run() {
+                mEngine.spawnRandomBalls(count, diameter, mRandom);
+            }
+        });
+    }
+
+    /*
+     * Override callbacks for keyboard
+     */
+    public void keyTyped(KeyEvent e) {}
+    public void keyReleased(KeyEvent e) {}
+
+    public void keyPressed(KeyEvent e) {
+        if (e.getKeyCode() == KeyEvent.VK_SPACE) {
+            mShowArrows = !mShowArrows;
+            mCheckboxShowArrows.setState(mShowArrows);
+        }
+        else if (e.getKeyCode() == KeyEvent.VK_ENTER) {
+            mTimeStopped = !mTimeStopped;
+            mCheckboxTimeStopped.setState(mTimeStopped);
+            mSimulation.setPaused(mTimeStopped);
+        }
+        else if (e.getKeyCode() == KeyEvent.VK_LEFT) {
+            if (mSimulationSpeed > 1) {
+                mSimulationSpeed--;
+                mSimulationSpeedSlider.setValue(mSimulationSpeed);
+                mSimulation.setTicksPerSecond(mSimulationSpeed * mBaseTickRate);
+            }
+        }
+        else if (e.getKeyCode() == KeyEvent.VK_RIGHT) {
+            if (mSimulationSpeed < mMaxSimulationSpeed) {
+                mSimulationSpeed++;
+                mSimulationSpeedSlider.setValue(mSimulationSpeed);
+                mSimulation.setTicksPerSecond(mSimulationSpeed * mBaseTickRate);
+            }
+        }
+        else if (e.getKeyCode() == KeyEvent.VK_B) {
+            spawnBalls(mSpawnBatchSize);
+        }
+        else if (e.getKeyCode() == KeyEvent.VK_R) {
+            /* Cycles auto, quality, sprite and heatmap rendering */
+            mRenderer.setRenderMode((mRenderer.getRenderMode() + 1) % (SimulationRenderer.MODE_HEATMAP + 1));
+        }
+        else if (e.getKeyCode() == KeyEvent.VK_S) {
+            mShowStatistics = !mShowStatistics;
+            mLastStatisticsUpdate = 0;
+            updateOverlay();
+        }
+        else if (e.getKeyCode() == KeyEvent.VK_W) {
+            setWarp(!mWarp);
+        }
+        else if (e.getKeyCode() == KeyEvent.VK_G) {
+            mWellsEnabled = !mWellsEnabled;
+            final boolean enabled = mWellsEnabled;
+            mSimulation.post(new Runnable() {
+                public void run() {
+                    if (enabled) {
+                        mEngine.setTabulator(mWells);
+                    }
+                    else {
+                        mEngine.setForceField(null);
+                    }
+                }
+            });
+        }
+        else if (e.getKeyCode() == KeyEvent.VK_T) {
+            mShowTelemetry = !mShowTelemetry;
+            mLastStatisticsUpdate = 0;
+            updateOverlay();
+        }
+        else if (e.getKeyCode() == KeyEvent.VK_OPEN_BRACKET) {
+            mRenderer.setTailLength(mRenderer.getTailLength() / 2);
+        }
+        else if (e.getKeyCode() == KeyEvent.VK_CLOSE_BRACKET) {
+            mRenderer.setTailLength(mRenderer.getTailLength() * 2);
+        }
+        else if (e.getKeyCode() == KeyEvent.VK_MINUS) {
+            mRenderer.setTailInterval(mRenderer.getTailInterval() / 2);
+        }
+        else if (e.getKeyCode() == KeyEvent.VK_EQUALS) {
+            mRenderer.setTailInterval(mRenderer.getTailInterval() * 2);
+        }
+        /* Arrows, tails and render mode change what is drawn anywhere in the area */
+        invalidateFrame();
+    }
+
+    /*
+     *  Opens the simulation in its own window, or runs it headless
+     */
+    public static void main(String[] args) {
+        /* Batch runs on machines without display go through headless runner */
+        if (args.length > 0 && args[0].equals("--headless")) {
+            HeadlessRunner.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        final BallSimulation app = new BallSimulation();
+        if (args.length > 1 && args[0].equals("--serve")) {
+            app.mServeAddress = args[1];
+        }
+        java.awt.EventQueue.invokeLater(new Runnable() {
+            public void run() {
+                new SimulationWindow(app).open();
+            }
+        });
+    }
+}
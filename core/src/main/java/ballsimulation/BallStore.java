@@ -0,0 +1,153 @@
+package ballsimulation;
+
+import java.util.Arrays;
+
+/*
+ *  Structure-of-arrays storage for the state of all balls.
+ *
+ *  Every attribute lives in its own primitive array indexed by ball number, so
+ *  the tick loop walks memory linearly and the JIT is free to unroll and
+ *  vectorize it. Positions are normalized to [0, 1] inside the rectangle,
+ *  diameters are in pixels.
+ */
+public class BallStore {
+
+    private static final int mInitialCapacity = 16;
+
+    public float[] positionX;
+    public float[] positionY;
+
+    public float[] velocityX;
+    public float[] velocityY;
+
+    public float[] accelerationX;
+    public float[] accelerationY;
+
+    public float[] diameter;
+
+    private int mCount = 0;
+
+
+    public BallStore() {
+        this(mInitialCapacity);
+    }
+
+    public BallStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        positionX = new float[capacity];
+        positionY = new float[capacity];
+        velocityX = new float[capacity];
+        velocityY = new float[capacity];
+        accelerationX = new float[capacity];
+        accelerationY = new float[capacity];
+        diameter = new float[capacity];
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public int capacity() {
+        return positionX.length;
+    }
+
+    /*
+     *  Grows the arrays so that at least `capacity` balls fit without reallocation
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= positionX.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, positionX.length + (positionX.length >> 1));
+        positionX = Arrays.copyOf(positionX, newCapacity);
+        positionY = Arrays.copyOf(positionY, newCapacity);
+        velocityX = Arrays.copyOf(velocityX, newCapacity);
+        velocityY = Arrays.copyOf(velocityY, newCapacity);
+        accelerationX = Arrays.copyOf(accelerationX, newCapacity);
+        accelerationY = Arrays.copyOf(accelerationY, newCapacity);
+        diameter = Arrays.copyOf(diameter, newCapacity);
+    }
+
+    /*
+     *  Appends a ball with zero acceleration and returns its index
+     */
+    public int add(float x, float y, float vx, float vy, float d) {
+        ensureCapacity(mCount + 1);
+
+        positionX[mCount] = x;
+        positionY[mCount] = y;
+        velocityX[mCount] = vx;
+        velocityY[mCount] = vy;
+        accelerationX[mCount] = 0.0f;
+        accelerationY[mCount] = 0.0f;
+        diameter[mCount] = d;
+
+        return mCount++;
+    }
+
+    /*
+     *  Removes ball by moving the last one into its slot, so indices of other
+     *  balls except the last one stay valid
+     */
+    public void remove(int index) {
+        if (index < 0 || index >= mCount) {
+            throw new IndexOutOfBoundsException("Ball index " + index + " out of range [0, " + mCount + ")");
+        }
+
+        int last = --mCount;
+        positionX[index] = positionX[last];
+        positionY[index] = positionY[last];
+        velocityX[index] = velocityX[last];
+        velocityY[index] = velocityY[last];
+        accelerationX[index] = accelerationX[last];
+        accelerationY[index] = accelerationY[last];
+        diameter[index] = diameter[last];
+    }
+
+    /*
+     *  Makes this store an exact copy of other, reusing arrays where possible
+     */
+    public void copyFrom(BallStore other) {
+        int count = other.mCount;
+        ensureCapacity(count);
+
+        System.arraycopy(other.positionX, 0, positionX, 0, count);
+        System.arraycopy(other.positionY, 0, positionY, 0, count);
+        System.arraycopy(other.velocityX, 0, velocityX, 0, count);
+        System.arraycopy(other.velocityY, 0, velocityY, 0, count);
+        System.arraycopy(other.accelerationX, 0, accelerationX, 0, count);
+        System.arraycopy(other.accelerationY, 0, accelerationY, 0, count);
+        System.arraycopy(other.diameter, 0, diameter, 0, count);
+        mCount = count;
+    }
+
+    public void clear() {
+        mCount = 0;
+    }
+
+    /*
+     *  Sets number of balls, values of balls which were not there before are
+     *  undefined until written
+     */
+    public void resize(int count) {
+        ensureCapacity(count);
+        mCount = count;
+    }
+
+    /*
+     *  Returns index of the ball which covers point (x, y) given in pixels of
+     *  a rectangle of size width x height, or -1 if there is none
+     */
+    public int findAt(float x, float y, int width, int height) {
+        for (int i = mCount - 1; i >= 0; i--) {
+            float dx = positionX[i] * width - x;
+            float dy = positionY[i] * height - y;
+            float r = diameter[i] / 2.0f;
+            if (dx * dx + dy * dy <= r * r) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
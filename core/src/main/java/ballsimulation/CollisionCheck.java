@@ -0,0 +1,98 @@
+package ballsimulation;
+
+import java.util.Locale;
+
+/*
+ *  Checks that the broad phase of CollisionGrid never misses a touching pair.
+ *
+ *  Two approaching balls closer than the sum of their radii are slid across
+ *  the rectangle in small steps, horizontally, vertically and diagonally, so
+ *  the pair straddles every cell boundary on its way. Each placement must
+ *  give a contact. Geometries include rectangles which are
+ *  not a multiple of the diameter and balls of different sizes, where cells
+ *  rounded the wrong way end up smaller than the largest ball.
+ */
+public class CollisionCheck {
+
+    /* Steps of the pair across the rectangle per diameter */
+    private static final int mStepsPerDiameter = 64;
+
+    /* Distances of the centres relative to the sum of radii, the closest to touching are missed first */
+    private static final float[] mGaps = {0.5f, 0.9f, 0.999f};
+
+    private long mPlacements = 0;
+    private long mMisses = 0;
+
+
+    /*
+     *  Prints a line per geometry, returns false if any touching pair was missed
+     */
+    public boolean run() {
+        System.out.println(String.format(Locale.ROOT, "%-10s %-10s %-6s %-6s %12s %8s",
+                                         "rectangle", "diameters", "gap", "axis", "placements", "missed"));
+        check(752, 752, 24, 24);
+        check(752, 752, 30, 10);
+        check(800, 600, 24, 24);
+        check(1000, 50, 7, 7);
+        check(97, 89, 13, 5);
+        System.out.println(String.format(Locale.ROOT, "%d placements, %d touching pairs missed", mPlacements, mMisses));
+        return mMisses == 0;
+    }
+
+    private void check(int width, int height, float diameterA, float diameterB) {
+        for (float gap : mGaps) {
+            report(width, height, diameterA, diameterB, gap, 1, 0, "x");
+            report(width, height, diameterA, diameterB, gap, 0, 1, "y");
+            report(width, height, diameterA, diameterB, gap, 1, 1, "xy");
+        }
+    }
+
+    /*
+     *  Slides the pair along the rectangle with centres offset in direction
+     *  (dx, dy) by gap times the sum of radii, in pixels
+     */
+    private void report(int width, int height, float diameterA, float diameterB, float gap, int dx, int dy, String axis) {
+        float distance = gap * 0.5f * (diameterA + diameterB) / (float)Math.sqrt(dx * dx + dy * dy);
+        float offsetX = dx * distance;
+        float offsetY = dy * distance;
+        float radius = 0.5f * Math.max(diameterA, diameterB);
+        float step = Math.min(diameterA, diameterB) / mStepsPerDiameter;
+
+        SimulationEngine engine = new SimulationEngine(width, height);
+        engine.setStepKernel(null);
+        CollisionGrid grid = new CollisionGrid();
+        BallStore balls = engine.getBalls();
+        balls.ensureCapacity(2);
+        balls.add(0.5f, 0.5f, 0, 0, diameterA);
+        balls.add(0.5f, 0.5f, 0, 0, diameterB);
+
+        long placements = 0;
+        long misses = 0;
+        for (float t = radius; ; t += step) {
+            /* Along an axis the pair slides through the middle of the other one */
+            float x = dx != 0 ? t : 0.5f * width;
+            float y = dy != 0 ? t : 0.5f * height;
+            if (x + offsetX > width - radius || y + offsetY > height - radius) {
+                break;
+            }
+            balls.positionX[0] = x / width;
+            balls.positionY[0] = y / height;
+            balls.positionX[1] = (x + offsetX) / width;
+            balls.positionY[1] = (y + offsetY) / height;
+            balls.velocityX[0] = dx * 0.1f;
+            balls.velocityY[0] = dy * 0.1f;
+            balls.velocityX[1] = -dx * 0.1f;
+            balls.velocityY[1] = -dy * 0.1f;
+            grid.resolve(engine);
+            placements++;
+            if (grid.getContacts() != 1) {
+                misses++;
+            }
+        }
+        mPlacements += placements;
+        mMisses += misses;
+        System.out.println(String.format(Locale.ROOT, "%-10s %-10s %-6.3f %-6s %12d %8d",
+                                         width + "x" + height, String.format(Locale.ROOT, "%.0f/%.0f", diameterA, diameterB),
+                                         gap, axis, placements, misses));
+    }
+}
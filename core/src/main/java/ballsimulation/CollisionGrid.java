@@ -0,0 +1,220 @@
+package ballsimulation;
+
+import java.util.Arrays;
+
+/*
+ *  Elastic ball-ball collisions with a uniform grid broad phase.
+ *
+ *  Every tick balls are bucketed by counting sort into square cells as large as
+ *  the largest ball diameter, so touching balls always lie in the same or
+ *  adjacent cells and each ball is tested only against a handful of
+ *  neighbours instead of all other balls. Grid lives in pixel space of the
+ *  rectangle, since normalized coordinates are not isotropic when the
+ *  rectangle is not square. All buffers are primitive arrays reused between
+ *  ticks.
+ *
+ *  Narrow phase resolves each touching pair which is approaching with an
+ *  elastic impulse along the line of centres, masses proportional to ball
+ *  area, and pushes the balls apart so they do not sink into each other.
+ */
+public class CollisionGrid {
+
+    /* Upper bound of cells per axis, keeps the grid small for tiny balls in a huge rectangle */
+    private static final int mMaxCellsPerAxis = 4096;
+
+    private int[] mCellStart = new int[0];
+    private int[] mCellBalls = new int[0];
+    private int[] mBallCell = new int[0];
+
+    private long mCandidatePairs = 0;
+    private long mContacts = 0;
+    private long mTotalCandidatePairs = 0;
+    private long mTotalContacts = 0;
+
+
+    /*
+     *  Pairs which passed broad phase during the last tick
+     */
+    public long getCandidatePairs() {
+        return mCandidatePairs;
+    }
+
+    /*
+     *  Pairs which actually touched during the last tick
+     */
+    public long getContacts() {
+        return mContacts;
+    }
+
+    public long getTotalCandidatePairs() {
+        return mTotalCandidatePairs;
+    }
+
+    public long getTotalContacts() {
+        return mTotalContacts;
+    }
+
+    public void resolve(SimulationEngine engine) {
+        final BallStore balls = engine.getBalls();
+        final int count = balls.size();
+        final float width = engine.getRectangleWidth();
+        final float height = engine.getRectangleHeight();
+        final float[] px = balls.positionX;
+        final float[] py = balls.positionY;
+        final float[] d = balls.diameter;
+
+        mCandidatePairs = 0;
+        mContacts = 0;
+        if (count < 2) {
+            return;
+        }
+
+        float maxDiameter = 0.0f;
+        for (int i = 0; i < count; i++) {
+            maxDiameter = Math.max(maxDiameter, d[i]);
+        }
+        if (!(maxDiameter > 0.0f)) {
+            return;
+        }
+
+        /* Rounded down, cells must not be smaller than the largest diameter */
+        final int columns = Math.max(1, Math.min(mMaxCellsPerAxis, (int)Math.floor(width / maxDiameter)));
+        final int rows = Math.max(1, Math.min(mMaxCellsPerAxis, (int)Math.floor(height / maxDiameter)));
+        final float cellWidth = width / columns;
+        final float cellHeight = height / rows;
+        final int cells = columns * rows;
+
+        if (mCellStart.length < cells + 1) {
+            mCellStart = new int[cells + 1];
+        }
+        if (mCellBalls.length < count) {
+            mCellBalls = new int[count];
+            mBallCell = new int[count];
+        }
+
+        /* Counting sort of balls by cell */
+        Arrays.fill(mCellStart, 0, cells + 1, 0);
+        for (int i = 0; i < count; i++) {
+            int column = clamp((int)(px[i] * width / cellWidth), columns);
+            int row = clamp((int)(py[i] * height / cellHeight), rows);
+            int cell = row * columns + column;
+            mBallCell[i] = cell;
+            mCellStart[cell + 1]++;
+        }
+        for (int cell = 0; cell < cells; cell++) {
+            mCellStart[cell + 1] += mCellStart[cell];
+        }
+        for (int i = 0; i < count; i++) {
+            int cell = mBallCell[i];
+            mCellBalls[mCellStart[cell]++] = i;
+        }
+        /* Filling shifted every start to the next cell, shift back */
+        for (int cell = cells; cell > 0; cell--) {
+            mCellStart[cell] = mCellStart[cell - 1];
+        }
+        mCellStart[0] = 0;
+
+        /* Each pair of neighbouring cells is visited once: own cell and four forward neighbours */
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int cell = row * columns + column;
+                int start = mCellStart[cell];
+                int end = mCellStart[cell + 1];
+                if (start == end) {
+                    continue;
+                }
+
+                for (int a = start; a < end; a++) {
+                    for (int b = a + 1; b < end; b++) {
+                        collide(engine, mCellBalls[a], mCellBalls[b], width, height);
+                    }
+                }
+
+                if (column + 1 < columns) {
+                    collideCells(engine, start, end, cell + 1, width, height);
+                }
+                if (row + 1 < rows) {
+                    if (column > 0) {
+                        collideCells(engine, start, end, cell + columns - 1, width, height);
+                    }
+                    collideCells(engine, start, end, cell + columns, width, height);
+                    if (column + 1 < columns) {
+                        collideCells(engine, start, end, cell + columns + 1, width, height);
+                    }
+                }
+            }
+        }
+
+        mTotalCandidatePairs += mCandidatePairs;
+        mTotalContacts += mContacts;
+    }
+
+    private void collideCells(SimulationEngine engine, int start, int end, int other, float width, float height) {
+        int otherStart = mCellStart[other];
+        int otherEnd = mCellStart[other + 1];
+        for (int a = start; a < end; a++) {
+            for (int b = otherStart; b < otherEnd; b++) {
+                collide(engine, mCellBalls[a], mCellBalls[b], width, height);
+            }
+        }
+    }
+
+    /*
+     *  Narrow phase for one candidate pair, computed in pixels
+     */
+    private void collide(SimulationEngine engine, int i, int j, float width, float height) {
+        mCandidatePairs++;
+
+        final BallStore balls = engine.getBalls();
+        float dx = (balls.positionX[j] - balls.positionX[i]) * width;
+        float dy = (balls.positionY[j] - balls.positionY[i]) * height;
+        float minDistance = 0.5f * (balls.diameter[i] + balls.diameter[j]);
+        float distanceSquared = dx * dx + dy * dy;
+        if (distanceSquared >= minDistance * minDistance || distanceSquared == 0.0f) {
+            return;
+        }
+        mContacts++;
+
+        float distance = (float)Math.sqrt(distanceSquared);
+        float nx = dx / distance;
+        float ny = dy / distance;
+
+        float massI = balls.diameter[i] * balls.diameter[i];
+        float massJ = balls.diameter[j] * balls.diameter[j];
+        float inverseTotal = 1.0f / (massI + massJ);
+
+        /* Separate overlapping balls in proportion to the other's mass */
+        float overlap = minDistance - distance;
+        float shiftI = overlap * massJ * inverseTotal;
+        float shiftJ = overlap * massI * inverseTotal;
+        balls.positionX[i] = keepInside(balls.positionX[i] - nx * shiftI / width, balls.diameter[i] / width / 2.0f);
+        balls.positionY[i] = keepInside(balls.positionY[i] - ny * shiftI / height, balls.diameter[i] / height / 2.0f);
+        balls.positionX[j] = keepInside(balls.positionX[j] + nx * shiftJ / width, balls.diameter[j] / width / 2.0f);
+        balls.positionY[j] = keepInside(balls.positionY[j] + ny * shiftJ / height, balls.diameter[j] / height / 2.0f);
+        engine.updateAcceleration(i);
+        engine.updateAcceleration(j);
+
+        /* Relative velocity along the normal, in pixels per time unit */
+        float approach = ((balls.velocityX[j] - balls.velocityX[i]) * width * nx + (balls.velocityY[j] - balls.velocityY[i]) * height * ny);
+        if (approach >= 0.0f) {
+            return;
+        }
+
+        float impulse = -2.0f * approach * inverseTotal;
+        balls.velocityX[i] -= impulse * massJ * nx / width;
+        balls.velocityY[i] -= impulse * massJ * ny / height;
+        balls.velocityX[j] += impulse * massI * nx / width;
+        balls.velocityY[j] += impulse * massI * ny / height;
+    }
+
+    /*
+     *  Separation must not push a ball through the wall, where the force is singular
+     */
+    private static float keepInside(float position, float radius) {
+        return Math.max(radius, Math.min(1.0f - radius, position));
+    }
+
+    private static int clamp(int index, int size) {
+        return index < 0 ? 0 : (index >= size ? size - 1 : index);
+    }
+}
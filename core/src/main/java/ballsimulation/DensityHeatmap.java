@@ -0,0 +1,264 @@
+package ballsimulation;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ *  Draws ball density instead of balls, for ball counts where individual balls
+ *  are smaller than the pixels they land on.
+ *
+ *  Ball positions are binned into a histogram with one bin per pixel of the
+ *  rectangle. Every worker bins its own contiguous range of balls into its own
+ *  partial histogram, so binning needs no synchronization. A second pass over
+ *  pixels sums the partials, clears them for the next frame and writes the
+ *  color of the count straight into the image, so everything but binning costs
+ *  the same for any number of balls.
+ */
+public class DensityHeatmap {
+
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 100000;
+
+    /* Counts from this many times the mean density on get the darkest color */
+    private static final int mSaturation = 8;
+
+    private static final int mMaxLevels = 1 << 16;
+
+    private final ForkJoinPool mPool;
+    private final int mParallelThreshold;
+
+    /* One histogram per worker, each of rectangle width x height bins */
+    private int[][] mPartials;
+
+    /* Color of every count up to the saturated one */
+    private int[] mPalette = new int[0];
+    private int mPaletteBallCount = -1;
+    private int mPaletteArea = -1;
+
+    private int mBackgroundColor = 0xff00ffff;
+    private int mColor = 0xff000000;
+
+
+    /*
+     *  Frame being drawn, set before passes run
+     */
+    private BallStore mBalls;
+    private int[] mPixels;
+    private int mImageWidth;
+    private int mImageHeight;
+    private int mPartialCount;
+
+    private int mRectangleXStart;
+    private int mRectangleYStart;
+    private int mRectangleWidth;
+    private int mRectangleHeight;
+
+
+    public DensityHeatmap() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    public DensityHeatmap(int workerCount, int parallelThreshold) {
+        if (workerCount < 1 || parallelThreshold < 0) {
+            throw new IllegalArgumentException("Worker count must be positive, threshold non-negative");
+        }
+        mPool = new ForkJoinPool(workerCount);
+        mParallelThreshold = parallelThreshold;
+        mPartials = new int[workerCount][];
+    }
+
+    /*
+     *  Whether balls are binned in parallel for given number of balls
+     */
+    public boolean isParallel(int count) {
+        return count >= mParallelThreshold && mPool.getParallelism() > 1;
+    }
+
+    /*
+     *  Colors as ARGB, empty pixels get the background and dense ones the color
+     */
+    public void setColors(int backgroundColor, int color) {
+        if (backgroundColor != mBackgroundColor || color != mColor) {
+            mBackgroundColor = backgroundColor;
+            mColor = color;
+            mPaletteBallCount = -1;
+        }
+    }
+
+    public void setRectangle(int xStart, int yStart, int width, int height) {
+        mRectangleXStart = xStart;
+        mRectangleYStart = yStart;
+        mRectangleWidth = width;
+        mRectangleHeight = height;
+    }
+
+    /*
+     *  Fills the rectangle area of an opaque int image with density of balls
+     */
+    public void draw(int[] pixels, int imageWidth, int imageHeight, BallStore balls) {
+        if (mRectangleWidth <= 0 || mRectangleHeight <= 0) {
+            return;
+        }
+
+        mBalls = balls;
+        mPixels = pixels;
+        mImageWidth = imageWidth;
+        mImageHeight = imageHeight;
+
+        int area = mRectangleWidth * mRectangleHeight;
+        boolean parallel = isParallel(balls.size());
+        mPartialCount = parallel ? mPartials.length : 1;
+        for (int k = 0; k < mPartialCount; k++) {
+            if (mPartials[k] == null || mPartials[k].length < area) {
+                mPartials[k] = new int[area];
+            }
+        }
+        updatePalette(balls.size(), area);
+
+        if (parallel) {
+            mPool.invoke(new BinTask(0, mPartialCount));
+            mPool.invoke(new ColorTask(0, mRectangleHeight, (mRectangleHeight + mPartialCount - 1) / mPartialCount));
+        }
+        else {
+            bin(mPartials[0], 0, balls.size());
+            colorRows(0, mRectangleHeight);
+        }
+
+        mBalls = null;
+        mPixels = null;
+    }
+
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    /*
+     *  Palette is log scaled so that both sparse and crowded areas stay visible,
+     *  it depends only on mean density and is rebuilt when that changes
+     */
+    private void updatePalette(int ballCount, int area) {
+        if (ballCount == mPaletteBallCount && area == mPaletteArea) {
+            return;
+        }
+        mPaletteBallCount = ballCount;
+        mPaletteArea = area;
+
+        double mean = (double)ballCount / area;
+        int levels = (int)Math.min(Math.max(Math.ceil(mSaturation * mean), 1.0), mMaxLevels - 1) + 1;
+        if (mPalette.length != levels) {
+            mPalette = new int[levels];
+        }
+
+        double scale = Math.log1p(levels - 1);
+        for (int c = 0; c < levels; c++) {
+            double t = Math.log1p(c) / scale;
+            mPalette[c] = blend(mBackgroundColor, mColor, t);
+        }
+    }
+
+    private static int blend(int from, int to, double t) {
+        int r = (int)Math.round(((from >> 16) & 0xff) * (1.0 - t) + ((to >> 16) & 0xff) * t);
+        int g = (int)Math.round(((from >> 8) & 0xff) * (1.0 - t) + ((to >> 8) & 0xff) * t);
+        int b = (int)Math.round((from & 0xff) * (1.0 - t) + (to & 0xff) * t);
+        return 0xff000000 | (r << 16) | (g << 8) | b;
+    }
+
+    /*
+     *  Adds balls [from, to) to histogram
+     */
+    private void bin(int[] histogram, int from, int to) {
+        float[] positionX = mBalls.positionX;
+        float[] positionY = mBalls.positionY;
+        int width = mRectangleWidth;
+        int height = mRectangleHeight;
+        for (int i = from; i < to; i++) {
+            int x = (int)(positionX[i] * width);
+            int y = (int)(positionY[i] * height);
+            if (x >= 0 && x < width && y >= 0 && y < height) {
+                histogram[y * width + x]++;
+            }
+        }
+    }
+
+    /*
+     *  Sums partial histograms of rectangle rows [fromRow, toRow), clears them
+     *  and writes colors into the image
+     */
+    private void colorRows(int fromRow, int toRow) {
+        int[] palette = mPalette;
+        int saturated = palette.length - 1;
+        int width = mRectangleWidth;
+
+        for (int row = fromRow; row < toRow; row++) {
+            int y = mRectangleYStart + row;
+            boolean visible = y >= 0 && y < mImageHeight;
+            int binOffset = row * width;
+            int pixelOffset = y * mImageWidth + mRectangleXStart;
+
+            for (int column = 0; column < width; column++) {
+                int count = 0;
+                for (int k = 0; k < mPartialCount; k++) {
+                    int[] partial = mPartials[k];
+                    count += partial[binOffset + column];
+                    partial[binOffset + column] = 0;
+                }
+
+                int x = mRectangleXStart + column;
+                if (visible && x >= 0 && x < mImageWidth) {
+                    mPixels[pixelOffset + column] = palette[Math.min(count, saturated)];
+                }
+            }
+        }
+    }
+
+
+    /*
+     *  Bins balls of partials [mFromPartial, mToPartial), partial k gets k-th
+     *  contiguous share of balls
+     */
+    private class BinTask extends RecursiveAction {
+        private final int mFromPartial;
+        private final int mToPartial;
+
+        BinTask(int fromPartial, int toPartial) {
+            mFromPartial = fromPartial;
+            mToPartial = toPartial;
+        }
+
+        @Override
+        protected void compute() {
+            if (mToPartial - mFromPartial == 1) {
+                long count = mBalls.size();
+                int from = (int)(count * mFromPartial / mPartialCount);
+                int to = (int)(count * mToPartial / mPartialCount);
+                bin(mPartials[mFromPartial], from, to);
+                return;
+            }
+
+            int middle = (mFromPartial + mToPartial) >>> 1;
+            invokeAll(new BinTask(mFromPartial, middle), new BinTask(middle, mToPartial));
+        }
+    }
+
+    private class ColorTask extends RecursiveAction {
+        private final int mFromRow;
+        private final int mToRow;
+        private final int mBandHeight;
+
+        ColorTask(int fromRow, int toRow, int bandHeight) {
+            mFromRow = fromRow;
+            mToRow = toRow;
+            mBandHeight = bandHeight;
+        }
+
+        @Override
+        protected void compute() {
+            if (mToRow - mFromRow <= mBandHeight) {
+                colorRows(mFromRow, mToRow);
+                return;
+            }
+
+            int middle = (mFromRow + mToRow) >>> 1;
+            invokeAll(new ColorTask(mFromRow, middle, mBandHeight), new ColorTask(middle, mToRow, mBandHeight));
+        }
+    }
+}
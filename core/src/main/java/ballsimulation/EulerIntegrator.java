@@ -0,0 +1,178 @@
+package ballsimulation;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ *  Explicit Euler scheme, the original integrator of the simulation.
+ *
+ *  Position is advanced with the old velocity, velocity with the old
+ *  acceleration, then acceleration is evaluated at the new position. Work is
+ *  delegated to the engine's scalar loop or SIMD kernel. Needs one force
+ *  evaluation per tick but only first order accurate.
+ *
+ *  With double or Kahan precision the tick is computed here instead, on state
+ *  kept by PrecisionState, so positions and velocities do not lose the small
+ *  increments of every tick to float rounding.
+ */
+public class EulerIntegrator implements Integrator {
+
+    private final LongAdder mForceEvaluations = new LongAdder();
+    private final PrecisionState mState;
+
+
+    public EulerIntegrator() {
+        this(PrecisionState.FLOAT);
+    }
+
+    public EulerIntegrator(int precision) {
+        mState = new PrecisionState(precision);
+    }
+
+    @Override
+    public String getName() {
+        return "euler";
+    }
+
+    public int getPrecision() {
+        return mState.getPrecision();
+    }
+
+    @Override
+    public void prepare(SimulationEngine engine) {
+        mState.prepare(engine);
+    }
+
+    @Override
+    public void stepRange(SimulationEngine engine, int from, int to) {
+        switch (mState.getPrecision()) {
+            case PrecisionState.DOUBLE: stepRangeDouble(engine, from, to); break;
+            case PrecisionState.KAHAN:  stepRangeKahan(engine, from, to); break;
+            default:                    engine.stepRangeEuler(from, to); break;
+        }
+        mForceEvaluations.add(to - from);
+    }
+
+    private void stepRangeDouble(SimulationEngine engine, int from, int to) {
+        final BallStore balls = engine.getBalls();
+        final PrecisionState state = mState;
+        final double[] px = state.positionX;
+        final double[] py = state.positionY;
+        final double[] vx = state.velocityX;
+        final double[] vy = state.velocityY;
+        final double[] ax = state.accelerationX;
+        final double[] ay = state.accelerationY;
+        final float[] d = balls.diameter;
+        final double dt = engine.getTimeTickValue();
+        final double alpha = engine.getAlpha();
+        final ForceField field = engine.getForceField();
+        final double width = engine.getRectangleWidth();
+        final double height = engine.getRectangleHeight();
+
+        for (int i = from; i < to; i++) {
+            if (!state.isLoaded(balls, i)) {
+                state.load(engine, i);
+            }
+
+            double x = px[i] + vx[i] * dt;
+            double y = py[i] + vy[i] * dt;
+            double velX = vx[i] + ax[i] * dt;
+            double velY = vy[i] + ay[i] * dt;
+
+            ax[i] = SimulationEngine.forceX(field, alpha, x, y);
+            ay[i] = SimulationEngine.forceY(field, alpha, x, y);
+
+            double rx = d[i] / width / 2.0;
+            double ry = d[i] / height / 2.0;
+
+            if (x <= rx || x >= 1 - rx) {
+                velX = -velX;
+            }
+
+            if (y <= ry || y >= 1 - ry) {
+                velY = -velY;
+            }
+
+            px[i] = x;
+            py[i] = y;
+            vx[i] = velX;
+            vy[i] = velY;
+
+            balls.positionX[i] = (float)x;
+            balls.positionY[i] = (float)y;
+            balls.velocityX[i] = (float)velX;
+            balls.velocityY[i] = (float)velY;
+            balls.accelerationX[i] = (float)ax[i];
+            balls.accelerationY[i] = (float)ay[i];
+        }
+    }
+
+    private void stepRangeKahan(SimulationEngine engine, int from, int to) {
+        final BallStore balls = engine.getBalls();
+        final float[] px = balls.positionX;
+        final float[] py = balls.positionY;
+        final float[] vx = balls.velocityX;
+        final float[] vy = balls.velocityY;
+        final float[] ax = balls.accelerationX;
+        final float[] ay = balls.accelerationY;
+        final float[] d = balls.diameter;
+        final float[] cx = mState.compensationX;
+        final float[] cy = mState.compensationY;
+        final float[] cvx = mState.compensationVX;
+        final float[] cvy = mState.compensationVY;
+        final float dt = engine.getTimeTickValue();
+        final float alpha = engine.getAlpha();
+        final ForceField field = engine.getForceField();
+        final float width = (float)engine.getRectangleWidth();
+        final float height = (float)engine.getRectangleHeight();
+
+        for (int i = from; i < to; i++) {
+            /* Increment minus what the previous sum lost, then what this sum loses */
+            float incX = vx[i] * dt - cx[i];
+            float incY = vy[i] * dt - cy[i];
+            float x = px[i] + incX;
+            float y = py[i] + incY;
+            cx[i] = (x - px[i]) - incX;
+            cy[i] = (y - py[i]) - incY;
+
+            float incVX = ax[i] * dt - cvx[i];
+            float incVY = ay[i] * dt - cvy[i];
+            float velX = vx[i] + incVX;
+            float velY = vy[i] + incVY;
+            float compVX = (velX - vx[i]) - incVX;
+            float compVY = (velY - vy[i]) - incVY;
+
+            ax[i] = SimulationEngine.forceX(field, alpha, x, y);
+            ay[i] = SimulationEngine.forceY(field, alpha, x, y);
+
+            float rx = d[i] / width / 2.0f;
+            float ry = d[i] / height / 2.0f;
+
+            if (x <= rx || x >= 1 - rx) {
+                velX = -velX;
+                compVX = -compVX;
+            }
+
+            if (y <= ry || y >= 1 - ry) {
+                velY = -velY;
+                compVY = -compVY;
+            }
+
+            px[i] = x;
+            py[i] = y;
+            vx[i] = velX;
+            vy[i] = velY;
+            cvx[i] = compVX;
+            cvy[i] = compVY;
+        }
+    }
+
+    @Override
+    public double getEnergy(SimulationEngine engine, int i) {
+        return mState.getEnergy(engine, i);
+    }
+
+    @Override
+    public long getForceEvaluations() {
+        return mForceEvaluations.sum();
+    }
+}
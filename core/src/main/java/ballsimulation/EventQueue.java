@@ -0,0 +1,112 @@
+package ballsimulation;
+
+/*
+ *  Indexed binary min-heap of event times, at most one event per ball.
+ *
+ *  Stored in primitive arrays, so scheduling does not allocate. Time of the
+ *  event of any ball can be changed in O(log n), which is what event-driven
+ *  simulation needs after every processed collision.
+ */
+public class EventQueue {
+
+    private double[] mTime = new double[0];
+    private int[] mHeap = new int[0];
+    private int[] mPosition = new int[0];
+    private int mSize = 0;
+
+
+    /*
+     *  Replaces queue contents with events times[0..count) of balls 0..count-1
+     */
+    public void build(double[] times, int count) {
+        if (mTime.length < count) {
+            mTime = new double[count];
+            mHeap = new int[count];
+            mPosition = new int[count];
+        }
+
+        System.arraycopy(times, 0, mTime, 0, count);
+        for (int i = 0; i < count; i++) {
+            mHeap[i] = i;
+            mPosition[i] = i;
+        }
+        mSize = count;
+
+        for (int i = mSize / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int peekBall() {
+        return mHeap[0];
+    }
+
+    public double peekTime() {
+        return mSize > 0 ? mTime[mHeap[0]] : Double.POSITIVE_INFINITY;
+    }
+
+    /*
+     *  Moves event of ball to a new time
+     */
+    public void update(int ball, double time) {
+        double old = mTime[ball];
+        mTime[ball] = time;
+        if (time < old) {
+            siftUp(mPosition[ball]);
+        }
+        else {
+            siftDown(mPosition[ball]);
+        }
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+
+    private void siftUp(int index) {
+        int ball = mHeap[index];
+        double time = mTime[ball];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            int parentBall = mHeap[parent];
+            if (mTime[parentBall] <= time) {
+                break;
+            }
+            mHeap[index] = parentBall;
+            mPosition[parentBall] = index;
+            index = parent;
+        }
+        mHeap[index] = ball;
+        mPosition[ball] = index;
+    }
+
+    private void siftDown(int index) {
+        int ball = mHeap[index];
+        double time = mTime[ball];
+        int half = mSize >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < mSize && mTime[mHeap[right]] < mTime[mHeap[child]]) {
+                child = right;
+            }
+            int childBall = mHeap[child];
+            if (time <= mTime[childBall]) {
+                break;
+            }
+            mHeap[index] = childBall;
+            mPosition[childBall] = index;
+            index = child;
+        }
+        mHeap[index] = ball;
+        mPosition[ball] = index;
+    }
+}
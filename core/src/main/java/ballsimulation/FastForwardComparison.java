@@ -0,0 +1,95 @@
+package ballsimulation;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/*
+ *  Validates PhaseFastForward against stepping the same balls with makeTick().
+ *
+ *  The adaptive scheme with a very tight tolerance and long ticks is closest
+ *  to the exact motion, fixed step schemes converge to it as the time tick
+ *  shrinks, so the distance to the jumped state must shrink with it. Jumping
+ *  in many small jumps instead of one checks that phases survive being
+ *  rounded to the float state in between.
+ *
+ *  Velocity errors are given as median, a ball reflecting within the last
+ *  tick has the opposite velocity in both results and dominates any maximum.
+ */
+public class FastForwardComparison {
+
+    private final int mBallCount;
+    private final long mSeed;
+    private final float mAlpha;
+    private final float mDiameter;
+    private final int mRectangleWidth;
+    private final int mRectangleHeight;
+    private final double mDuration;
+
+
+    public FastForwardComparison(int ballCount, long seed, float alpha, float diameter, int width, int height, double duration) {
+        mBallCount = ballCount;
+        mSeed = seed;
+        mAlpha = alpha;
+        mDiameter = diameter;
+        mRectangleWidth = width;
+        mRectangleHeight = height;
+        mDuration = duration;
+    }
+
+    public void run() {
+        System.out.println(String.format(Locale.ROOT, "%d balls, alpha=%.3f, %.1f units of simulated time",
+                                         mBallCount, mAlpha, mDuration));
+        System.out.println(String.format(Locale.ROOT, "%-8s %-10s %10s %6s %12s %12s %12s %12s",
+                                         "scheme", "dt", "ticks", "jumps", "step time", "jump time", "max pos err", "med vel err"));
+
+        report(new AdaptiveRK45Integrator(1e-12), 0.01f, 1);
+        report(new AdaptiveRK45Integrator(1e-12), 0.01f, 1000);
+        report(new TimeOfImpactIntegrator(), 0.001f, 1);
+        report(new TimeOfImpactIntegrator(), 0.0001f, 1);
+        report(new TimeOfImpactIntegrator(), 0.00001f, 1);
+        report(new VerletIntegrator(PrecisionState.DOUBLE), 0.0001f, 1);
+        report(new VerletIntegrator(PrecisionState.DOUBLE), 0.00001f, 1);
+    }
+
+    private SimulationEngine createEngine(Integrator integrator, float timeTick) {
+        SimulationEngine engine = new SimulationEngine(mRectangleWidth, mRectangleHeight);
+        engine.setAlpha(mAlpha);
+        engine.setStepKernel(null);
+        engine.setTimeTickValue(timeTick);
+        engine.spawnRandomBalls(mBallCount, mDiameter, new Random(mSeed));
+        engine.setIntegrator(integrator);
+        return engine;
+    }
+
+    private void report(Integrator integrator, float timeTick, int jumps) {
+        long ticks = Math.round(mDuration / timeTick);
+
+        SimulationEngine stepped = createEngine(integrator, timeTick);
+        long startTime = System.nanoTime();
+        stepped.makeTicks(ticks);
+        long stepTime = System.nanoTime() - startTime;
+
+        SimulationEngine jumped = createEngine(new EulerIntegrator(), timeTick);
+        PhaseFastForward fastForward = new PhaseFastForward();
+        startTime = System.nanoTime();
+        for (int jump = 0; jump < jumps; jump++) {
+            fastForward.advance(jumped, ticks * (jump + 1) / jumps - ticks * jump / jumps);
+        }
+        long jumpTime = System.nanoTime() - startTime;
+
+        BallStore a = stepped.getBalls();
+        BallStore b = jumped.getBalls();
+        double maxError = 0;
+        double[] velocityErrors = new double[mBallCount];
+        for (int i = 0; i < mBallCount; i++) {
+            maxError = Math.max(maxError, Math.hypot(a.positionX[i] - b.positionX[i], a.positionY[i] - b.positionY[i]));
+            velocityErrors[i] = Math.hypot(a.velocityX[i] - b.velocityX[i], a.velocityY[i] - b.velocityY[i]);
+        }
+        Arrays.sort(velocityErrors);
+
+        System.out.println(String.format(Locale.ROOT, "%-8s %-10s %10d %6d %10.3f s %10.3f ms %12.3e %12.3e",
+                                         integrator.getName(), Float.toString(timeTick), ticks, jumps,
+                                         stepTime / 1e9, jumpTime / 1e6, maxError, velocityErrors[mBallCount / 2]));
+    }
+}
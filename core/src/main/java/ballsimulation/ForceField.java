@@ -0,0 +1,27 @@
+package ballsimulation;
+
+/*
+ *  Force per unit mass acting on a ball at normalized position (x, y).
+ *
+ *  SimulationEngine evaluates the wall force of its alpha inline when no field
+ *  is set, fields replace it for all integrators. Fields must be immutable, so
+ *  they can be evaluated by parallel workers and swapped between ticks.
+ */
+public interface ForceField {
+
+    String getName();
+
+    float forceX(float x, float y);
+
+    float forceY(float x, float y);
+
+    double forceX(double x, double y);
+
+    double forceY(double x, double y);
+
+    /*
+     *  Potential energy per unit mass whose negative gradient is the force,
+     *  NaN if the field has none
+     */
+    double potential(double x, double y);
+}
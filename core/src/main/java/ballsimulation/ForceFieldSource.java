@@ -0,0 +1,10 @@
+package ballsimulation;
+
+/*
+ *  Creates the force field for given alpha and rectangle size, so that
+ *  ForceFieldTabulator can build it again when they change
+ */
+public interface ForceFieldSource {
+
+    ForceField create(float alpha, int rectangleWidth, int rectangleHeight);
+}
@@ -0,0 +1,96 @@
+package ballsimulation;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ *  Keeps a TabulatedForceField of a source up to date with alpha and the
+ *  rectangle size of a SimulationEngine.
+ *
+ *  Every change creates the field from the source right away, the engine
+ *  evaluates it directly until its table has been built on a background
+ *  worker and picked up between two ticks. Changes arriving faster than
+ *  tables are built, like dragging a slider, skip the builds which are
+ *  already out of date.
+ */
+public class ForceFieldTabulator {
+
+    private final ForceFieldSource mSource;
+    private final int mSize;
+    private final int mRefinement;
+    private final ForkJoinPool mPool = new ForkJoinPool(1);
+
+    /* Latest requested field, written by the engine's thread and read by the worker */
+    private volatile ForceField mRequested;
+
+    /* Table built by the worker and not picked up yet */
+    private final AtomicReference<TabulatedForceField> mReady = new AtomicReference<TabulatedForceField>();
+
+    private volatile long mBuilds = 0;
+    private volatile long mBuildNanos = 0;
+
+
+    public ForceFieldTabulator(ForceFieldSource source) {
+        this(source, TabulatedForceField.DEFAULT_SIZE, TabulatedForceField.DEFAULT_REFINEMENT);
+    }
+
+    public ForceFieldTabulator(ForceFieldSource source, int size, int refinement) {
+        if (size < 2 || refinement < 1) {
+            throw new IllegalArgumentException("Table needs at least 2 cells and refinement of at least 1");
+        }
+        mSource = source;
+        mSize = size;
+        mRefinement = refinement;
+    }
+
+    /*
+     *  Tables built so far and the time spent building the last one
+     */
+    public long getBuilds() {
+        return mBuilds;
+    }
+
+    public long getLastBuildNanos() {
+        return mBuildNanos;
+    }
+
+    /*
+     *  Creates the field for new parameters and schedules its table, returns
+     *  the field to evaluate until the table is ready
+     */
+    public ForceField request(float alpha, int rectangleWidth, int rectangleHeight) {
+        final ForceField field = mSource.create(alpha, rectangleWidth, rectangleHeight);
+        mRequested = field;
+        mPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mRequested != field) {
+                    return;
+                }
+                long startTime = System.nanoTime();
+                TabulatedForceField table = new TabulatedForceField(field, mSize, mRefinement);
+                mBuildNanos = System.nanoTime() - startTime;
+                mBuilds++;
+                mReady.set(table);
+            }
+        });
+        return field;
+    }
+
+    /*
+     *  Table of the latest requested field if it has been built since the
+     *  last call, null otherwise
+     */
+    public TabulatedForceField poll() {
+        TabulatedForceField table = mReady.get();
+        if (table == null || !mReady.compareAndSet(table, null)) {
+            return null;
+        }
+        /* Worker may finish an outdated build after a newer request */
+        return table.getSource() == mRequested ? table : null;
+    }
+
+    public void shutdown() {
+        mPool.shutdownNow();
+    }
+}
@@ -0,0 +1,194 @@
+package ballsimulation;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.imageio.ImageIO;
+
+/*
+ *  Writes frames of a simulation as a numbered PNG image sequence, for
+ *  videos of runs made without a display.
+ *
+ *  Every frame is rendered on the calling thread into an image taken from a
+ *  fixed pool and handed to a ForkJoinPool of encoders, which write it to
+ *  frame_NNNNNN.png and return the image to the pool. Rendering a frame
+ *  waits only when every image of the pool is still being encoded, which
+ *  bounds memory and shows up as wait time in the report.
+ */
+public class FrameExporter implements Closeable {
+
+    public static final int DEFAULT_MARGIN = 24;
+
+    /* Images per encoder, the extra ones are rendered while the others are encoded */
+    private static final int mImagesPerWorker = 2;
+
+    private final Path mDirectory;
+    private final SimulationRenderer mRenderer;
+    private final ForkJoinPool mPool;
+    private final ArrayBlockingQueue<BufferedImage> mFreeImages;
+    private final StateSnapshot mSnapshot = new StateSnapshot();
+
+    private long mFrameCount = 0;
+    private long mRenderNanos = 0;
+    private long mWaitNanos = 0;
+    private final AtomicLong mEncodeNanos = new AtomicLong();
+    private final AtomicLong mBytesWritten = new AtomicLong();
+
+    /* First failure of an encoder, reported by the next frame or close() */
+    private final AtomicReference<IOException> mError = new AtomicReference<IOException>();
+
+
+    /*
+     *  Frames show the rectangle of the given size with a margin around it
+     */
+    public FrameExporter(Path directory, int rectangleWidth, int rectangleHeight, int workerCount) throws IOException {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("Encoder count must be positive");
+        }
+        mDirectory = directory;
+        Files.createDirectories(directory);
+
+        int width = rectangleWidth + 2 * DEFAULT_MARGIN;
+        int height = rectangleHeight + 2 * DEFAULT_MARGIN;
+        mRenderer = new SimulationRenderer(width, height, 0);
+        mRenderer.setRectangle(DEFAULT_MARGIN, DEFAULT_MARGIN, rectangleWidth, rectangleHeight);
+
+        mPool = new ForkJoinPool(workerCount);
+        int imageCount = workerCount * mImagesPerWorker;
+        mFreeImages = new ArrayBlockingQueue<BufferedImage>(imageCount);
+        for (int i = 0; i < imageCount; i++) {
+            mFreeImages.add(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+        }
+    }
+
+    public SimulationRenderer getRenderer() {
+        return mRenderer;
+    }
+
+    /*
+     *  Renders the current state of engine as the next frame and queues it
+     *  for encoding
+     */
+    public void exportFrame(SimulationEngine engine) throws IOException {
+        checkError();
+
+        long waitStart = System.nanoTime();
+        final BufferedImage image;
+        try {
+            image = mFreeImages.take();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a free image", e);
+        }
+        long renderStart = System.nanoTime();
+        mWaitNanos += renderStart - waitStart;
+
+        mSnapshot.copyFrom(engine);
+        mRenderer.recordTail(mSnapshot);
+        Graphics2D g = image.createGraphics();
+        mRenderer.renderSimulation(g, image, mSnapshot);
+        g.dispose();
+        mRenderNanos += System.nanoTime() - renderStart;
+
+        final Path file = mDirectory.resolve(String.format(Locale.ROOT, "frame_%06d.png", mFrameCount));
+        mFrameCount++;
+        mPool.execute(new Runnable() {
+            public void run() {
+                encode(image, file);
+            }
+        });
+    }
+
+    private void encode(BufferedImage image, Path file) {
+        long start = System.nanoTime();
+        try {
+            try (OutputStream out = Files.newOutputStream(file)) {
+                if (!ImageIO.write(image, "png", out)) {
+                    throw new IOException("No PNG writer available");
+                }
+            }
+            mBytesWritten.addAndGet(Files.size(file));
+        }
+        catch (IOException | RuntimeException e) {
+            /* Encoders may throw unchecked exceptions too, they must fail the export as well */
+            mError.compareAndSet(null, new IOException("Cannot write " + file + ": " + e.getMessage(), e));
+        }
+        finally {
+            mEncodeNanos.addAndGet(System.nanoTime() - start);
+            /* Last, the image is free only once everything about its frame is counted */
+            mFreeImages.add(image);
+        }
+    }
+
+    private void checkError() throws IOException {
+        IOException error = mError.get();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /*
+     *  Time the caller spent rendering frames
+     */
+    public long getRenderNanos() {
+        return mRenderNanos;
+    }
+
+    /*
+     *  Time the caller waited for an image because all were being encoded
+     */
+    public long getWaitNanos() {
+        return mWaitNanos;
+    }
+
+    /*
+     *  Time spent encoding, summed over all encoders
+     */
+    public long getEncodeNanos() {
+        return mEncodeNanos.get();
+    }
+
+    public long getBytesWritten() {
+        return mBytesWritten.get();
+    }
+
+    public int getWorkerCount() {
+        return mPool.getParallelism();
+    }
+
+    /*
+     *  Waits until every queued frame is written
+     */
+    @Override
+    public void close() throws IOException {
+        mPool.shutdown();
+        try {
+            while (!mPool.awaitTermination(1, TimeUnit.MINUTES)) {
+                /* Encoding continues as long as frames are queued */
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for frames to be written", e);
+        }
+        finally {
+            mRenderer.shutdown();
+        }
+        checkError();
+    }
+}
@@ -0,0 +1,990 @@
+package ballsimulation;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+import javax.management.JMException;
+
+/*
+ *  Command line runner which advances the simulation without any window.
+ *
+ *  Ticks are executed back to back as fast as possible, so throughput is limited
+ *  only by the physics and not by repaint cadence or the UI speed slider.
+ *
+ *  Usage: java ballsimulation.HeadlessRunner [--ticks N] [--balls N] [--seed N] [--alpha A]
+ *                                            [--diameter D] [--width W] [--height H] [--print N]
+ *                                            [--threads N] [--chunk N] [--parallel-threshold N]
+ *                                            [--kernel auto|scalar|vector] [--compare-kernels]
+ *                                            [--integrator euler|verlet|rk45|toi] [--dt T] [--tolerance E]
+ *                                            [--precision float|double|kahan] [--compare-integrators] [--collisions]
+ *                                            [--check-collisions]
+ *                                            [--fast-forward] [--compare-fast-forward] [--well S] [--wells N] [--field-table N]
+ *                                            [--interaction S] [--theta T] [--interaction-mode tree|exact]
+ *                                            [--compare-interaction]
+ *                                            [--record FILE] [--record-interval N] [--keyframe-interval K]
+ *                                            [--replay FILE] [--seek T] [--seeks N]
+ *                                            [--stats] [--stats-balls N] [--stats-print N] [--telemetry]
+ *                                            [--serve PORT|PATH] [--export DIR] [--frame-time T] [--export-workers N]
+ *                                            [--sweep FILE] [--sweep-samples N] [--sweep-PARAMETER SPEC]
+ *
+ *  With --threads 0 ticks are always sequential. Vector kernel needs
+ *  --add-modules jdk.incubator.vector, --compare-kernels measures its speedup
+ *  against the scalar loop on the same initial state. --compare-integrators
+ *  prints force evaluation counts and errors of all integration schemes.
+ *  --precision keeps the state of euler and verlet in doubles or adds Kahan
+ *  compensation to the float sums, energy drift is reported for every run.
+ *  --check-collisions slides touching pairs of balls across the collision
+ *  grid and exits with status 1 if any of them is missed.
+ *  --fast-forward jumps over all ticks at once along the exact periodic
+ *  motion of every axis instead of stepping, --compare-fast-forward checks
+ *  the jumps against stepping with shrinking time ticks.
+ *  --well adds a gravity well of strength S to the middle of the rectangle,
+ *  or --wells of them on a circle around it, --field-table samples the force field on a grid of N x N cells before
+ *  running and interpolates it instead of evaluating the formula.
+ *  --interaction adds a force of strength S between all balls, repulsive
+ *  for positive and attractive for negative S, summed with a Barnes-Hut
+ *  tree of opening angle --theta or exactly over all pairs, as half tick
+ *  kicks around any integrator except double precision.
+ *  --compare-interaction prints errors and times of the tree against the
+ *  exact sum for --balls balls.
+ *
+ *  --record writes a trajectory file and reports time spent recording.
+ *  --replay restores the state at tick --seek from a trajectory file, the
+ *  engine options must match the recorded run. --seeks times that many random
+ *  seeks and a scrub through all recorded frames.
+ *
+ *  --stats gathers statistics of the first --stats-balls balls after every
+ *  tick, prints their summary every --stats-print ticks while running and
+ *  the summary with histograms at the end.
+ *
+ *  --telemetry publishes tick rate and timings, allocation rate and GC time
+ *  through JMX as ballsimulation:type=Telemetry while running and prints
+ *  them at the end.
+ *
+ *  --serve streams state to viewers on a loopback port or Unix domain
+ *  socket while running and takes alpha and diameter commands from them
+ *  between batches of ticks, bandwidth and lag are printed at the end.
+ *
+ *  --export renders a frame every --frame-time of simulated time into a
+ *  numbered PNG sequence in DIR, from the initial state to the last tick.
+ *  Frames are encoded by --export-workers threads while the next ones are
+ *  simulated, export throughput is printed at the end.
+ *
+ *  --sweep runs one simulation per configuration on --threads workers and
+ *  appends a summary line of each to a CSV file, skipping runs already in
+ *  it. PARAMETER is alpha, diameter, x0, y0, vx0, vy0, width or height and
+ *  SPEC a value, from:to or from:to:steps. Without --sweep-samples the grid
+ *  of all combinations is run, with it that many random configurations.
+ *  Runs have --balls - 1 random balls besides the configured one.
+ */
+public class HeadlessRunner {
+
+    private long mTicks = 1000000;
+    private int mBallCount = 1;
+    private long mSeed = 1;
+    private float mAlpha = 0.2f;
+    private float mDiameter = 24;
+    private int mRectangleWidth = 752;
+    private int mRectangleHeight = 752;
+    private int mPrintCount = 10;
+    private int mThreads = Runtime.getRuntime().availableProcessors();
+    private int mChunkSize = ParallelStepper.DEFAULT_CHUNK_SIZE;
+    private int mParallelThreshold = ParallelStepper.DEFAULT_THRESHOLD;
+    private String mKernel = "auto";
+    private boolean mCompareKernels = false;
+    private String mIntegrator = "euler";
+    private float mTimeTick = 0.001f;
+    private double mTolerance = AdaptiveRK45Integrator.DEFAULT_TOLERANCE;
+    private int mPrecision = PrecisionState.FLOAT;
+    private boolean mCompareIntegrators = false;
+    private boolean mCollisions = false;
+    private boolean mCheckCollisions = false;
+    private boolean mFastForward = false;
+    private boolean mCompareFastForward = false;
+    private float mWellStrength = 0;
+    private int mWellCount = 1;
+    private int mFieldTableSize = 0;
+    private long mFieldTableNanos = 0;
+    private float mInteractionStrength = 0;
+    private float mTheta = BallInteraction.DEFAULT_THETA;
+    private int mInteractionMode = BallInteraction.MODE_TREE;
+    private boolean mCompareInteraction = false;
+
+    /* Potential energy of pairs is summed exactly, which takes too long for more balls */
+    private final int mMaxPairEnergyBalls = 20000;
+    private String mRecordFile = null;
+    private int mRecordInterval = TrajectoryRecorder.DEFAULT_RECORD_INTERVAL;
+    private int mKeyframeInterval = TrajectoryRecorder.DEFAULT_KEYFRAME_INTERVAL;
+    private String mReplayFile = null;
+    private long mSeekTick = -1;
+    private int mSeekCount = 0;
+    private boolean mStatistics = false;
+    private int mStatisticsBalls = TickStatistics.DEFAULT_TRACKED_BALLS;
+    private long mStatisticsPrintInterval = 0;
+    private boolean mTelemetry = false;
+    private String mServeAddress = null;
+
+    /* While serving, ticks run in batches of about this long, state is published and commands run in between */
+    private final long mServeBatchNanos = 4000000;
+    private String mExportDirectory = null;
+    private double mFrameTime = 1.0 / 30;
+    private int mExportWorkers = Math.max(Runtime.getRuntime().availableProcessors() - 1, 1);
+    private String mSweepFile = null;
+    private long mSweepSamples = 0;
+    private final String[] mSweepParameters = new String[ParameterSweep.PARAMETER_COUNT];
+
+
+    public static void main(String[] args) {
+        HeadlessRunner runner = new HeadlessRunner();
+        try {
+            runner.parseArguments(args);
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(1);
+        }
+        runner.run();
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: java ballsimulation.HeadlessRunner [--ticks N] [--balls N] [--seed N] [--alpha A]");
+        System.err.println("                                          [--diameter D] [--width W] [--height H] [--print N]");
+        System.err.println("                                          [--threads N] [--chunk N] [--parallel-threshold N]");
+        System.err.println("                                          [--kernel auto|scalar|vector] [--compare-kernels]");
+        System.err.println("                                          [--integrator euler|verlet|rk45|toi] [--dt T] [--tolerance E]");
+        System.err.println("                                          [--precision float|double|kahan] [--compare-integrators] [--collisions]");
+        System.err.println("                                          [--check-collisions]");
+        System.err.println("                                          [--fast-forward] [--compare-fast-forward] [--well S] [--wells N] [--field-table N]");
+        System.err.println("                                          [--interaction S] [--theta T] [--interaction-mode tree|exact]");
+        System.err.println("                                          [--compare-interaction]");
+        System.err.println("                                          [--record FILE] [--record-interval N] [--keyframe-interval K]");
+        System.err.println("                                          [--replay FILE] [--seek T] [--seeks N]");
+        System.err.println("                                          [--stats] [--stats-balls N] [--stats-print N] [--telemetry]");
+        System.err.println("                                          [--serve PORT|PATH] [--export DIR] [--frame-time T] [--export-workers N]");
+        System.err.println("                                          [--sweep FILE] [--sweep-samples N] [--sweep-PARAMETER SPEC]");
+    }
+
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--compare-kernels")) {
+                mCompareKernels = true;
+                continue;
+            }
+            if (option.equals("--compare-integrators")) {
+                mCompareIntegrators = true;
+                continue;
+            }
+            if (option.equals("--collisions")) {
+                mCollisions = true;
+                continue;
+            }
+            if (option.equals("--check-collisions")) {
+                mCheckCollisions = true;
+                continue;
+            }
+            if (option.equals("--fast-forward")) {
+                mFastForward = true;
+                continue;
+            }
+            if (option.equals("--compare-interaction")) {
+                mCompareInteraction = true;
+                continue;
+            }
+            if (option.equals("--compare-fast-forward")) {
+                mCompareFastForward = true;
+                continue;
+            }
+            if (option.equals("--stats")) {
+                mStatistics = true;
+                continue;
+            }
+            if (option.equals("--telemetry")) {
+                mTelemetry = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for option " + option);
+            }
+            String value = args[++i];
+
+            if (option.startsWith("--sweep-") && !option.equals("--sweep-samples")) {
+                int parameter = findSweepParameter(option.substring("--sweep-".length()));
+                if (parameter < 0) {
+                    throw new IllegalArgumentException("Unknown option " + option);
+                }
+                mSweepParameters[parameter] = value;
+                continue;
+            }
+
+            try {
+                switch (option) {
+                    case "--ticks":    mTicks = Long.parseLong(value); break;
+                    case "--balls":    mBallCount = Integer.parseInt(value); break;
+                    case "--seed":     mSeed = Long.parseLong(value); break;
+                    case "--alpha":    mAlpha = Float.parseFloat(value); break;
+                    case "--diameter": mDiameter = Float.parseFloat(value); break;
+                    case "--width":    mRectangleWidth = Integer.parseInt(value); break;
+                    case "--height":   mRectangleHeight = Integer.parseInt(value); break;
+                    case "--print":    mPrintCount = Integer.parseInt(value); break;
+                    case "--threads":  mThreads = Integer.parseInt(value); break;
+                    case "--chunk":    mChunkSize = Integer.parseInt(value); break;
+                    case "--parallel-threshold": mParallelThreshold = Integer.parseInt(value); break;
+                    case "--kernel":   mKernel = value; break;
+                    case "--integrator": mIntegrator = value; break;
+                    case "--dt":       mTimeTick = Float.parseFloat(value); break;
+                    case "--tolerance": mTolerance = Double.parseDouble(value); break;
+                    case "--precision": mPrecision = PrecisionState.parse(value); break;
+                    case "--well":     mWellStrength = Float.parseFloat(value); break;
+                    case "--wells":    mWellCount = Integer.parseInt(value); break;
+                    case "--interaction": mInteractionStrength = Float.parseFloat(value); break;
+                    case "--theta":    mTheta = Float.parseFloat(value); break;
+                    case "--interaction-mode": mInteractionMode = BallInteraction.parseMode(value); break;
+                    case "--field-table": mFieldTableSize = Integer.parseInt(value); break;
+                    case "--record":   mRecordFile = value; break;
+                    case "--record-interval": mRecordInterval = Integer.parseInt(value); break;
+                    case "--keyframe-interval": mKeyframeInterval = Integer.parseInt(value); break;
+                    case "--replay":   mReplayFile = value; break;
+                    case "--seek":     mSeekTick = Long.parseLong(value); break;
+                    case "--seeks":    mSeekCount = Integer.parseInt(value); break;
+                    case "--stats-balls": mStatisticsBalls = Integer.parseInt(value); break;
+                    case "--stats-print": mStatisticsPrintInterval = Long.parseLong(value); break;
+                    case "--serve":    mServeAddress = value; break;
+                    case "--export":   mExportDirectory = value; break;
+                    case "--frame-time": mFrameTime = Double.parseDouble(value); break;
+                    case "--export-workers": mExportWorkers = Integer.parseInt(value); break;
+                    case "--sweep":    mSweepFile = value; break;
+                    case "--sweep-samples": mSweepSamples = Long.parseLong(value); break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + option);
+                }
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value '" + value + "' for option " + option);
+            }
+        }
+
+        if (mTicks < 0 || mBallCount < 1 || mRectangleWidth < 1 || mRectangleHeight < 1) {
+            throw new IllegalArgumentException("Tick count must be non-negative, ball count and rectangle size positive");
+        }
+        if (mThreads < 0 || mChunkSize < 1 || mParallelThreshold < 0) {
+            throw new IllegalArgumentException("Thread count and threshold must be non-negative, chunk size positive");
+        }
+        if (!mKernel.equals("auto") && !mKernel.equals("scalar") && !mKernel.equals("vector")) {
+            throw new IllegalArgumentException("Unknown kernel " + mKernel);
+        }
+        if (!mIntegrator.equals("euler") && !mIntegrator.equals("verlet") && !mIntegrator.equals("rk45") && !mIntegrator.equals("toi")) {
+            throw new IllegalArgumentException("Unknown integrator " + mIntegrator);
+        }
+        if (mPrecision != PrecisionState.FLOAT && !mIntegrator.equals("euler") && !mIntegrator.equals("verlet")) {
+            throw new IllegalArgumentException("Precision can be chosen only for euler and verlet");
+        }
+        if (mServeAddress != null && (mFastForward || mStatisticsPrintInterval > 0)) {
+            throw new IllegalArgumentException("Serving state needs ticks and can not be combined with --fast-forward or --stats-print");
+        }
+        if (mExportDirectory != null && (mServeAddress != null || mStatisticsPrintInterval > 0)) {
+            throw new IllegalArgumentException("Export can not be combined with --serve or --stats-print");
+        }
+        if (!(mFrameTime > 0) || mExportWorkers < 1) {
+            throw new IllegalArgumentException("Frame time and export worker count must be positive");
+        }
+        if (mFastForward && (mCollisions || mAlpha < 0 || mWellStrength != 0 || mFieldTableSize > 0)) {
+            throw new IllegalArgumentException("Fast-forward needs alpha >= 0, the wall force and no collisions");
+        }
+        if (mInteractionStrength != 0 && (mFastForward || mPrecision == PrecisionState.DOUBLE)) {
+            throw new IllegalArgumentException("Interaction needs float or kahan precision and no fast-forward");
+        }
+        if (!(mTheta >= 0)) {
+            throw new IllegalArgumentException("Opening angle must be non-negative");
+        }
+        if (mWellCount < 1) {
+            throw new IllegalArgumentException("Well count must be positive");
+        }
+        if (mFieldTableSize < 0 || mFieldTableSize == 1) {
+            throw new IllegalArgumentException("Force field table needs at least 2 cells, 0 evaluates the formula");
+        }
+        if (!(mTimeTick > 0) || !(mTolerance > 0)) {
+            throw new IllegalArgumentException("Time tick and tolerance must be positive");
+        }
+        if (mRecordInterval < 1 || mKeyframeInterval < 1 || mSeekCount < 0) {
+            throw new IllegalArgumentException("Record and keyframe intervals must be positive, seek count non-negative");
+        }
+        if (mStatisticsBalls < 1 || mStatisticsPrintInterval < 0) {
+            throw new IllegalArgumentException("Statistics ball count must be positive, print interval non-negative");
+        }
+        if (mKernel.equals("vector") && SimulationEngine.getVectorKernel() == null) {
+            throw new IllegalArgumentException("Vector kernel is not available, run with --add-modules jdk.incubator.vector");
+        }
+    }
+
+    private static int findSweepParameter(String name) {
+        for (int p = 0; p < ParameterSweep.PARAMETER_COUNT; p++) {
+            if (ParameterSweep.getParameterName(p).equals(name)) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     *  Builds the engine for current options. The first ball matches the
+     *  initial state of the interactive window, the rest are random.
+     */
+    private SimulationEngine createEngine() {
+        SimulationEngine engine = new SimulationEngine(mRectangleWidth, mRectangleHeight);
+        engine.setAlpha(mAlpha);
+        ForceField field = createForceField();
+        if (field != null) {
+            engine.setForceField(field);
+        }
+        engine.getBalls().ensureCapacity(mBallCount);
+        engine.getBalls().add(0.6f, 0.3f, 0.2f, 0.7f, mDiameter);
+        engine.spawnRandomBalls(mBallCount - 1, mDiameter, new Random(mSeed));
+        if (mThreads > 0) {
+            engine.setParallelStepper(new ParallelStepper(mThreads, mChunkSize, mParallelThreshold));
+        }
+        if (mKernel.equals("scalar")) {
+            engine.setStepKernel(null);
+        }
+        engine.setTimeTickValue(mTimeTick);
+        engine.setIntegrator(createIntegrator());
+        if (mCollisions) {
+            engine.setCollisions(new CollisionGrid());
+        }
+        if (mInteractionStrength != 0) {
+            engine.setInteraction(new BallInteraction(mInteractionStrength, BallInteraction.DEFAULT_SOFTENING, mTheta, mInteractionMode,
+                                                      Math.max(mThreads, 1), BallInteraction.DEFAULT_THRESHOLD));
+        }
+        return engine;
+    }
+
+    /*
+     *  Force field for current options, null for the inline wall force
+     */
+    private ForceField createForceField() {
+        ForceField field = null;
+        if (mWellStrength != 0) {
+            field = new WellForceField(mAlpha, mRectangleWidth, mRectangleHeight, mWellCount, mWellStrength,
+                                       WellForceField.DEFAULT_SOFTENING);
+        }
+        if (mFieldTableSize > 0) {
+            long startTime = System.nanoTime();
+            field = new TabulatedForceField(field != null ? field : new WallForceField(mAlpha), mFieldTableSize,
+                                            TabulatedForceField.DEFAULT_REFINEMENT);
+            mFieldTableNanos = System.nanoTime() - startTime;
+        }
+        return field;
+    }
+
+    private Integrator createIntegrator() {
+        switch (mIntegrator) {
+            case "verlet": return new VerletIntegrator(mPrecision);
+            case "rk45":   return new AdaptiveRK45Integrator(mTolerance);
+            case "toi":    return new TimeOfImpactIntegrator();
+            default:       return new EulerIntegrator(mPrecision);
+        }
+    }
+
+    private void run() {
+        if (mCompareKernels) {
+            compareKernels();
+            return;
+        }
+        if (mCompareIntegrators) {
+            new IntegratorComparison(mBallCount, mSeed, mAlpha, mDiameter, mRectangleWidth, mRectangleHeight, 10.0).run();
+            return;
+        }
+        if (mCompareInteraction) {
+            new InteractionComparison(mBallCount, mSeed, mInteractionStrength != 0 ? mInteractionStrength : 0.1f,
+                                      BallInteraction.DEFAULT_SOFTENING, Math.max(mThreads, 1)).run();
+            return;
+        }
+        if (mCheckCollisions) {
+            if (!new CollisionCheck().run()) {
+                System.exit(1);
+            }
+            return;
+        }
+        if (mCompareFastForward) {
+            new FastForwardComparison(mBallCount, mSeed, mAlpha, mDiameter, mRectangleWidth, mRectangleHeight, 10.0).run();
+            return;
+        }
+
+        if (mReplayFile != null) {
+            replay();
+            return;
+        }
+        if (mSweepFile != null) {
+            sweep();
+            return;
+        }
+
+        SimulationEngine engine = createEngine();
+        TrajectoryRecorder recorder = null;
+        if (mRecordFile != null) {
+            try {
+                recorder = new TrajectoryRecorder(Paths.get(mRecordFile), mRecordInterval, mKeyframeInterval);
+            }
+            catch (IOException e) {
+                System.err.println("Cannot record to " + mRecordFile + ": " + e.getMessage());
+                System.exit(1);
+            }
+            recorder.start(engine);
+            engine.addTickObserver(recorder);
+        }
+
+        TickStatistics statistics = null;
+        if (mStatistics) {
+            statistics = new TickStatistics(mStatisticsBalls, TickStatistics.DEFAULT_BIN_COUNT, TickStatistics.DEFAULT_VELOCITY_RANGE,
+                                            TickStatistics.DEFAULT_WINDOW, TickStatistics.DEFAULT_MAX_LAG,
+                                            TickStatistics.DEFAULT_AUTOCORRELATION_INTERVAL);
+            engine.addTickObserver(statistics);
+        }
+
+        double[] initialEnergy = getEnergies(engine);
+        double initialPairEnergy = getPairEnergy(engine);
+
+        Telemetry telemetry = null;
+        if (mTelemetry) {
+            telemetry = new Telemetry();
+            engine.setTelemetry(telemetry);
+            try {
+                telemetry.register();
+            }
+            catch (JMException e) {
+                System.err.println("Cannot publish telemetry through JMX: " + e.getMessage());
+            }
+        }
+
+        ConcurrentLinkedQueue<Runnable> remoteCommands = new ConcurrentLinkedQueue<Runnable>();
+        StateServer server = null;
+        if (mServeAddress != null) {
+            server = startServer(engine, remoteCommands);
+        }
+
+        FrameExporter exporter = null;
+        if (mExportDirectory != null) {
+            /* Frames are drawn into images only, no display is needed */
+            System.setProperty("java.awt.headless", "true");
+            try {
+                exporter = new FrameExporter(Paths.get(mExportDirectory), mRectangleWidth, mRectangleHeight, mExportWorkers);
+            }
+            catch (IOException e) {
+                System.err.println("Cannot export to " + mExportDirectory + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        PhaseFastForward fastForward = mFastForward ? new PhaseFastForward() : null;
+        long startTime = System.nanoTime();
+        if (exporter != null) {
+            runExported(engine, fastForward, exporter);
+        }
+        else if (fastForward != null) {
+            fastForward.advance(engine, mTicks);
+        }
+        else if (server != null) {
+            runServed(engine, server, remoteCommands);
+        }
+        else if (statistics != null && mStatisticsPrintInterval > 0) {
+            /* Live summaries in between batches of ticks */
+            for (long done = 0; done < mTicks; done += mStatisticsPrintInterval) {
+                engine.makeTicks(Math.min(mStatisticsPrintInterval, mTicks - done));
+                for (String line : statistics.getSummary()) {
+                    System.out.println(line);
+                }
+            }
+        }
+        else {
+            engine.makeTicks(mTicks);
+        }
+        long elapsed = System.nanoTime() - startTime;
+
+        printState(engine);
+
+        if (statistics != null) {
+            printStatistics(statistics);
+        }
+
+        if (exporter != null) {
+            printExport(exporter, elapsed);
+        }
+
+        if (server != null) {
+            for (String line : server.getReport()) {
+                System.out.println(line);
+            }
+            try {
+                server.close();
+            }
+            catch (IOException e) {
+                System.err.println("Cannot close state server: " + e.getMessage());
+            }
+        }
+
+        if (telemetry != null) {
+            telemetry.sample();
+            for (String line : telemetry.getSummary()) {
+                System.out.println(line);
+            }
+            telemetry.unregister();
+        }
+
+        if (recorder != null) {
+            engine.removeTickObserver(recorder);
+            try {
+                recorder.close();
+            }
+            catch (IOException e) {
+                System.err.println("Cannot complete " + mRecordFile + ": " + e.getMessage());
+            }
+            System.out.println(String.format(Locale.ROOT, "recording: %d frames, %d keyframes, %.1f MB, %.3fs in recorder (%.2f%% of run)",
+                                             recorder.getFrameCount(), recorder.getKeyframeCount(),
+                                             recorder.getBytesWritten() / 1e6, recorder.getRecordingNanos() / 1e9,
+                                             elapsed > 0 ? 100.0 * recorder.getRecordingNanos() / elapsed : 0.0));
+        }
+
+        ParallelStepper stepper = engine.getParallelStepper();
+        if (stepper != null) {
+            System.out.println("stepping: " + (stepper.isParallel(engine.getBalls().size()) ? "parallel" : "sequential")
+                               + " (workers=" + stepper.getWorkerCount() + " chunk=" + stepper.getChunkSize()
+                               + " threshold=" + stepper.getThreshold() + ")");
+            stepper.shutdown();
+        }
+        else {
+            System.out.println("stepping: sequential");
+        }
+        System.out.println("integrator: " + engine.getIntegrator().getName() + ", precision: " + PrecisionState.getName(mPrecision)
+                           + ", kernel: " + engine.getStepKernelName()
+                           + ", force evaluations: " + engine.getIntegrator().getForceEvaluations());
+        printEnergyDrift(engine, initialEnergy);
+        printInteraction(engine, initialEnergy, initialPairEnergy);
+        if (engine.getForceField() instanceof TabulatedForceField) {
+            System.out.println(String.format(Locale.ROOT, "force field: %s, %d x %d cells built in %.1f ms",
+                                             engine.getForceField().getName(), mFieldTableSize, mFieldTableSize,
+                                             mFieldTableNanos / 1e6));
+        }
+        else if (engine.getForceField() != null) {
+            System.out.println("force field: " + engine.getForceField().getName());
+        }
+        if (fastForward != null) {
+            System.out.println(String.format(Locale.ROOT, "fast-forward: %d tables built, %d reused, %d axes left in place",
+                                             fastForward.getMisses(), fastForward.getHits(), fastForward.getSkippedAxes()));
+        }
+        CollisionGrid collisions = engine.getCollisions();
+        if (collisions != null && mTicks > 0) {
+            System.out.println(String.format(Locale.ROOT, "collisions: %.1f candidate pairs/tick, %.1f contacts/tick",
+                                             collisions.getTotalCandidatePairs() / (double)mTicks,
+                                             collisions.getTotalContacts() / (double)mTicks));
+        }
+
+        double seconds = elapsed / 1e9;
+        double ticksPerSecond = seconds > 0 ? mTicks / seconds : Double.POSITIVE_INFINITY;
+        System.out.println(String.format(Locale.ROOT, "ticks=%d balls=%d simulated_time=%.3f wall_time=%.3fs",
+                                         engine.getTickCount(), engine.getBalls().size(), engine.getSimulatedTime(), seconds));
+        System.out.println(String.format(Locale.ROOT, "throughput: %.1f ticks/s, %.3e ball-ticks/s",
+                                         ticksPerSecond, ticksPerSecond * engine.getBalls().size()));
+    }
+
+    /*
+     *  Runs the parameter sweep, defaults of parameters come from the options
+     *  of a single run
+     */
+    private void sweep() {
+        ParameterSweep sweep = new ParameterSweep(Math.max(mThreads, 1));
+        sweep.setParameter(ParameterSweep.ALPHA, mAlpha, mAlpha, 1);
+        sweep.setParameter(ParameterSweep.DIAMETER, mDiameter, mDiameter, 1);
+        sweep.setParameter(ParameterSweep.WIDTH, mRectangleWidth, mRectangleWidth, 1);
+        sweep.setParameter(ParameterSweep.HEIGHT, mRectangleHeight, mRectangleHeight, 1);
+        try {
+            for (int p = 0; p < ParameterSweep.PARAMETER_COUNT; p++) {
+                if (mSweepParameters[p] != null) {
+                    sweep.parseParameter(p, mSweepParameters[p]);
+                }
+            }
+            sweep.setRandomSamples(mSweepSamples);
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        sweep.setTicks(mTicks);
+        sweep.setSeed(mSeed);
+        sweep.setExtraBalls(mBallCount - 1);
+        sweep.setTimeTick(mTimeTick);
+        sweep.setIntegrators(new Supplier<Integrator>() {
+            public Integrator get() {
+                return createIntegrator();
+            }
+        });
+
+        long startTime = System.nanoTime();
+        long done = 0;
+        try {
+            done = sweep.run(Paths.get(mSweepFile));
+        }
+        catch (IOException e) {
+            System.err.println("Cannot sweep into " + mSweepFile + ": " + e.getMessage());
+            System.exit(1);
+        }
+        finally {
+            sweep.shutdown();
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+
+        System.out.println(String.format(Locale.ROOT, "sweep: %d runs, %d done now, %d workers, wall_time=%.3fs, %.1f runs/s",
+                                         sweep.getRunCount(), done, sweep.getWorkerCount(), seconds, seconds > 0 ? done / seconds : 0.0));
+    }
+
+    /*
+     *  Summary followed by fraction of samples in every histogram bin
+     */
+    private void printStatistics(TickStatistics statistics) {
+        for (String line : statistics.getSummary()) {
+            System.out.println(line);
+        }
+
+        int bins = statistics.getBinCount();
+        long samples = Math.max(statistics.getSampleCount(), 1);
+        long[][] histograms = new long[4][bins];
+        for (int q = TickStatistics.X; q <= TickStatistics.VY; q++) {
+            statistics.getHistogram(q, histograms[q]);
+        }
+
+        System.out.println("bin   position    x          y          velocity   vx         vy");
+        for (int b = 0; b < bins; b++) {
+            System.out.println(String.format(Locale.ROOT, "%-5d %-11.4f %-10.6f %-10.6f %-10.4f %-10.6f %-10.6f",
+                                             b, statistics.getBinStart(TickStatistics.X, b),
+                                             histograms[TickStatistics.X][b] / (double)samples,
+                                             histograms[TickStatistics.Y][b] / (double)samples,
+                                             statistics.getBinStart(TickStatistics.VX, b),
+                                             histograms[TickStatistics.VX][b] / (double)samples,
+                                             histograms[TickStatistics.VY][b] / (double)samples));
+        }
+    }
+
+    /*
+     *  Restores state at the seek tick from a trajectory file and optionally
+     *  times random seeks and a scrub through all frames
+     */
+    private void replay() {
+        Path file = Paths.get(mReplayFile);
+        try (TrajectoryReader reader = new TrajectoryReader(file)) {
+            System.out.println(String.format(Locale.ROOT, "trajectory: ticks %d..%d, %d frames, %d keyframes, %.1f MB",
+                                             reader.getFirstTick(), reader.getLastTick(), reader.getFrameCount(),
+                                             reader.getKeyframeCount(), reader.getFileSize() / 1e6));
+
+            SimulationEngine engine = createEngine();
+            long tick = mSeekTick >= 0 ? mSeekTick : reader.getLastTick();
+            long startTime = System.nanoTime();
+            long resimulated = reader.seek(tick, engine);
+            long elapsed = System.nanoTime() - startTime;
+
+            printState(engine);
+            System.out.println(String.format(Locale.ROOT, "seek: tick %d, %d ticks re-simulated, %.3fms",
+                                             engine.getTickCount(), resimulated, elapsed / 1e6));
+
+            if (mSeekCount > 0) {
+                Random random = new Random(mSeed);
+                long span = reader.getLastTick() - reader.getFirstTick() + 1;
+                startTime = System.nanoTime();
+                for (int i = 0; i < mSeekCount; i++) {
+                    reader.seek(reader.getFirstTick() + (long)(random.nextDouble() * span), engine);
+                }
+                long seekTime = System.nanoTime() - startTime;
+
+                BallStore frame = new BallStore();
+                startTime = System.nanoTime();
+                for (long t = reader.getFirstTick(); t <= reader.getLastTick(); t += reader.getRecordInterval()) {
+                    reader.readPositions(t, frame);
+                }
+                long scrubTime = System.nanoTime() - startTime;
+
+                System.out.println(String.format(Locale.ROOT, "random seeks: %d, %.3fms mean", mSeekCount, seekTime / 1e6 / mSeekCount));
+                System.out.println(String.format(Locale.ROOT, "scrub: %d frames, %.3fms per frame",
+                                                 reader.getFrameCount(), scrubTime / 1e6 / Math.max(reader.getFrameCount(), 1)));
+            }
+
+            ParallelStepper stepper = engine.getParallelStepper();
+            if (stepper != null) {
+                stepper.shutdown();
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Cannot replay " + mReplayFile + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /*
+     *  Runs the same simulation with scalar and vector kernel on one thread and
+     *  reports time of each, speedup and whether final states are identical
+     */
+    private void compareKernels() {
+        StepKernel vectorKernel = SimulationEngine.getVectorKernel();
+        if (vectorKernel == null) {
+            System.out.println("Vector kernel is not available, run with --add-modules jdk.incubator.vector");
+            return;
+        }
+
+        SimulationEngine scalar = createEngine();
+        scalar.setParallelStepper(null);
+        scalar.setStepKernel(null);
+
+        SimulationEngine vector = createEngine();
+        vector.setParallelStepper(null);
+        vector.setStepKernel(vectorKernel);
+
+        /* Let JIT compile both loops before measuring, otherwise short runs compare interpreted code */
+        long warmupTicks = 2000;
+        createWarmupEngine(null).makeTicks(warmupTicks);
+        createWarmupEngine(vectorKernel).makeTicks(warmupTicks);
+
+        long scalarTime = timeTicks(scalar);
+        long vectorTime = timeTicks(vector);
+
+        BallStore a = scalar.getBalls();
+        BallStore b = vector.getBalls();
+        boolean identical = true;
+        for (int i = 0; i < a.size() && identical; i++) {
+            identical = a.positionX[i] == b.positionX[i] && a.positionY[i] == b.positionY[i]
+                     && a.velocityX[i] == b.velocityX[i] && a.velocityY[i] == b.velocityY[i]
+                     && a.accelerationX[i] == b.accelerationX[i] && a.accelerationY[i] == b.accelerationY[i];
+        }
+
+        System.out.println(String.format(Locale.ROOT, "scalar: %.3fs, %.3e ball-ticks/s", scalarTime / 1e9, mTicks * (double)mBallCount / (scalarTime / 1e9)));
+        System.out.println(String.format(Locale.ROOT, "%s: %.3fs, %.3e ball-ticks/s", vectorKernel.getName(), vectorTime / 1e9, mTicks * (double)mBallCount / (vectorTime / 1e9)));
+        System.out.println(String.format(Locale.ROOT, "speedup: %.2fx, results %s", scalarTime / (double)vectorTime, identical ? "identical" : "DIFFER"));
+    }
+
+    private SimulationEngine createWarmupEngine(StepKernel kernel) {
+        SimulationEngine engine = new SimulationEngine(mRectangleWidth, mRectangleHeight);
+        engine.spawnRandomBalls(Math.min(mBallCount, 10000), mDiameter, new Random(mSeed));
+        engine.setStepKernel(kernel);
+        return engine;
+    }
+
+    private long timeTicks(SimulationEngine engine) {
+        long startTime = System.nanoTime();
+        engine.makeTicks(mTicks);
+        return System.nanoTime() - startTime;
+    }
+
+    private static double[] getEnergies(SimulationEngine engine) {
+        double[] energies = new double[engine.getBalls().size()];
+        for (int i = 0; i < energies.length; i++) {
+            energies[i] = engine.getEnergy(i);
+        }
+        return energies;
+    }
+
+    /*
+     *  Potential energy of forces between balls, NaN without them or with
+     *  too many balls to sum
+     */
+    private double getPairEnergy(SimulationEngine engine) {
+        BallInteraction interaction = engine.getInteraction();
+        if (interaction == null || engine.getBalls().size() > mMaxPairEnergyBalls) {
+            return Double.NaN;
+        }
+        return interaction.getPotentialEnergy(engine.getBalls());
+    }
+
+    /*
+     *  With forces between balls only the total energy including their
+     *  potential is conserved, not the energy of every ball
+     */
+    private void printInteraction(SimulationEngine engine, double[] initialEnergy, double initialPairEnergy) {
+        BallInteraction interaction = engine.getInteraction();
+        if (interaction == null) {
+            return;
+        }
+        System.out.println(String.format(Locale.ROOT, "interaction: %s, strength %.3f, theta %.2f, %d nodes, %.1f terms/ball/tick",
+                                         BallInteraction.getModeName(interaction.getMode()), interaction.getStrength(),
+                                         interaction.getTheta(), interaction.getNodeCount(),
+                                         (double)interaction.getInteractions() / Math.max(1, mTicks + 1) / engine.getBalls().size()));
+        double pairEnergy = getPairEnergy(engine);
+        if (!Double.isNaN(pairEnergy)) {
+            double[] energy = getEnergies(engine);
+            double initialTotal = initialPairEnergy;
+            double total = pairEnergy;
+            for (int i = 0; i < energy.length; i++) {
+                initialTotal += initialEnergy[i];
+                total += energy[i];
+            }
+            System.out.println(String.format(Locale.ROOT, "energy with pair potential: %.6e -> %.6e, relative drift %.3e",
+                                             initialTotal, total, Math.abs(total - initialTotal) / Math.abs(initialTotal)));
+        }
+    }
+
+    /*
+     *  Largest change of a ball's energy since the start of the run, absolute
+     *  and relative to that ball's initial energy. Collisions exchange energy
+     *  between balls, so with them only the total is conserved.
+     */
+    private void printEnergyDrift(SimulationEngine engine, double[] initialEnergy) {
+        double[] energy = getEnergies(engine);
+        double initialTotal = 0;
+        double total = 0;
+        double maxDrift = 0;
+        double maxRelativeDrift = 0;
+        for (int i = 0; i < initialEnergy.length; i++) {
+            double drift = Math.abs(energy[i] - initialEnergy[i]);
+            initialTotal += initialEnergy[i];
+            total += energy[i];
+            maxDrift = Math.max(maxDrift, drift);
+            maxRelativeDrift = Math.max(maxRelativeDrift, drift / Math.abs(initialEnergy[i]));
+        }
+        System.out.println(String.format(Locale.ROOT, "energy drift: max %.3e, max relative %.3e, total relative %.3e",
+                                         maxDrift, maxRelativeDrift, Math.abs(total - initialTotal) / Math.abs(initialTotal)));
+    }
+
+    /*
+     *  Binds the state server, its commands are queued for runServed()
+     */
+    private StateServer startServer(final SimulationEngine engine, final ConcurrentLinkedQueue<Runnable> commands) {
+        RemoteControl control = new RemoteControl() {
+            public boolean setAlpha(final float alpha) {
+                commands.add(new Runnable() {
+                    public void run() {
+                        engine.setAlpha(alpha);
+                    }
+                });
+                return true;
+            }
+
+            public boolean setDiameter(final int ball, final float diameter) {
+                commands.add(new Runnable() {
+                    public void run() {
+                        if (ball < engine.getBalls().size()) {
+                            engine.getBalls().diameter[ball] = diameter;
+                        }
+                    }
+                });
+                return true;
+            }
+
+            public boolean setSpeed(int speed) {
+                /* Headless runs tick as fast as they can */
+                return false;
+            }
+        };
+
+        StateServer server = null;
+        try {
+            server = new StateServer(StateServer.parseAddress(mServeAddress), control);
+        }
+        catch (IOException | IllegalArgumentException e) {
+            System.err.println("Cannot serve state on " + mServeAddress + ": " + e.getMessage());
+            System.exit(1);
+        }
+        publish(engine, server);
+        server.start();
+        System.out.println("serving state on " + server.getAddress());
+        return server;
+    }
+
+    /*
+     *  Runs ticks in batches sized to take about mServeBatchNanos, publishing
+     *  state to the server and running commands of viewers after each
+     */
+    private void runServed(SimulationEngine engine, StateServer server, ConcurrentLinkedQueue<Runnable> commands) {
+        long batch = 1;
+        long done = 0;
+        while (done < mTicks) {
+            long ticks = Math.min(batch, mTicks - done);
+            long start = System.nanoTime();
+            engine.makeTicks(ticks);
+            done += ticks;
+            long elapsed = System.nanoTime() - start;
+            if (elapsed < mServeBatchNanos / 2) {
+                batch *= 2;
+            }
+            else if (elapsed > 2 * mServeBatchNanos && batch > 1) {
+                batch /= 2;
+            }
+
+            boolean changed = false;
+            Runnable command;
+            while ((command = commands.poll()) != null) {
+                command.run();
+                changed = true;
+            }
+            if (changed) {
+                engine.notifyStateChanged();
+            }
+            publish(engine, server);
+        }
+    }
+
+    /*
+     *  Advances engine by the ticks of one frame time between frames, frames
+     *  are encoded in the background while the next ones are simulated. The
+     *  exporter is closed once the last frame is written.
+     */
+    private void runExported(SimulationEngine engine, PhaseFastForward fastForward, FrameExporter exporter) {
+        long ticksPerFrame = Math.max(Math.round(mFrameTime / engine.getTimeTickValue()), 1);
+        try {
+            exporter.exportFrame(engine);
+            for (long done = 0; done < mTicks; done += ticksPerFrame) {
+                long ticks = Math.min(ticksPerFrame, mTicks - done);
+                if (fastForward != null) {
+                    fastForward.advance(engine, ticks);
+                }
+                else {
+                    engine.makeTicks(ticks);
+                }
+                exporter.exportFrame(engine);
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Cannot export to " + mExportDirectory + ": " + e.getMessage());
+            System.exit(1);
+        }
+        finally {
+            try {
+                exporter.close();
+            }
+            catch (IOException e) {
+                System.err.println("Cannot export to " + mExportDirectory + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+
+    private void printExport(FrameExporter exporter, long elapsed) {
+        double seconds = elapsed / 1e9;
+        long frames = exporter.getFrameCount();
+        System.out.println(String.format(Locale.ROOT, "export: %d frames to %s, %.1f MB, %d encoders, %.1f frames/s",
+                                         frames, mExportDirectory, exporter.getBytesWritten() / 1e6,
+                                         exporter.getWorkerCount(), seconds > 0 ? frames / seconds : 0.0));
+        System.out.println(String.format(Locale.ROOT, "export time: render %.3fs, waiting for encoders %.3fs, encoding %.3fs over all encoders",
+                                         exporter.getRenderNanos() / 1e9, exporter.getWaitNanos() / 1e9,
+                                         exporter.getEncodeNanos() / 1e9));
+    }
+
+    private static void publish(SimulationEngine engine, StateServer server) {
+        SnapshotBuffer snapshots = server.getSnapshots();
+        snapshots.getBack().copyFrom(engine);
+        snapshots.publish();
+    }
+
+    private void printState(SimulationEngine engine) {
+        BallStore balls = engine.getBalls();
+        int printed = Math.min(mPrintCount, balls.size());
+        for (int i = 0; i < printed; i++) {
+            System.out.println(String.format(Locale.ROOT, "ball %d: x=%.6f y=%.6f vx=%.6f vy=%.6f ax=%.6f ay=%.6f",
+                                             i, balls.positionX[i], balls.positionY[i],
+                                             balls.velocityX[i], balls.velocityY[i],
+                                             balls.accelerationX[i], balls.accelerationY[i]));
+        }
+        if (printed < balls.size()) {
+            System.out.println("... " + (balls.size() - printed) + " more balls");
+        }
+    }
+}
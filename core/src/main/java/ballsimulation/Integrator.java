@@ -0,0 +1,47 @@
+package ballsimulation;
+
+/*
+ *  Time integration scheme used by SimulationEngine to advance balls by one tick.
+ *
+ *  Implementations read the force through SimulationEngine and keep the
+ *  accelerations of BallStore equal to the force at current positions after
+ *  every tick. Balls are independent, so stepRange() may be called for
+ *  disjoint ranges concurrently.
+ */
+public interface Integrator {
+
+    String getName();
+
+    /*
+     *  Called once per tick on the simulation thread before any stepRange()
+     */
+    void prepare(SimulationEngine engine);
+
+    /*
+     *  Advances balls [from, to) of engine by one tick of engine.getTimeTickValue()
+     */
+    void stepRange(SimulationEngine engine, int from, int to);
+
+    /*
+     *  Total number of per-ball force evaluations done by this integrator
+     */
+    long getForceEvaluations();
+
+    /*
+     *  Advances all balls by the given number of ticks at once if the scheme
+     *  can do it faster than tick by tick. Returns false if it can not, in which
+     *  case nothing is changed.
+     */
+    default boolean advanceTicks(SimulationEngine engine, long ticks) {
+        return false;
+    }
+
+    /*
+     *  Energy of ball i, from state kept by the integrator if it is more
+     *  precise than BallStore
+     */
+    default double getEnergy(SimulationEngine engine, int i) {
+        BallStore balls = engine.getBalls();
+        return engine.getEnergy(balls.positionX[i], balls.positionY[i], balls.velocityX[i], balls.velocityY[i]);
+    }
+}
@@ -0,0 +1,111 @@
+package ballsimulation;
+
+import java.util.Locale;
+import java.util.Random;
+
+/*
+ *  Measures accuracy against cost of the integration schemes.
+ *
+ *  The same set of balls is simulated for a fixed span of simulated time with
+ *  every scheme and several time ticks. Final positions are compared with a
+ *  reference solution computed by the adaptive scheme with a very tight
+ *  tolerance, energy drift is measured against the initial energy. Euler and
+ *  Verlet also run with double precision and Kahan compensated state.
+ */
+public class IntegratorComparison {
+
+    private final int mBallCount;
+    private final long mSeed;
+    private final float mAlpha;
+    private final float mDiameter;
+    private final int mRectangleWidth;
+    private final int mRectangleHeight;
+    private final double mDuration;
+
+
+    public IntegratorComparison(int ballCount, long seed, float alpha, float diameter, int width, int height, double duration) {
+        mBallCount = ballCount;
+        mSeed = seed;
+        mAlpha = alpha;
+        mDiameter = diameter;
+        mRectangleWidth = width;
+        mRectangleHeight = height;
+        mDuration = duration;
+    }
+
+    public void run() {
+        SimulationEngine reference = simulate(new AdaptiveRK45Integrator(1e-12), 0.01f);
+
+        System.out.println(String.format(Locale.ROOT, "%d balls, alpha=%.3f, %.1f units of simulated time, reference rk45 tol=1e-12",
+                                         mBallCount, mAlpha, mDuration));
+        System.out.println(String.format(Locale.ROOT, "%-8s %-7s %-10s %-8s %14s %12s %12s %12s",
+                                         "scheme", "prec", "dt", "tol", "force evals", "evals/ball", "max pos err", "energy drift"));
+
+        report(reference, new EulerIntegrator(), 0.001f, 0);
+        report(reference, new EulerIntegrator(), 0.0001f, 0);
+        report(reference, new EulerIntegrator(PrecisionState.KAHAN), 0.0001f, 0);
+        report(reference, new EulerIntegrator(PrecisionState.DOUBLE), 0.0001f, 0);
+        report(reference, new VerletIntegrator(), 0.01f, 0);
+        report(reference, new VerletIntegrator(), 0.001f, 0);
+        report(reference, new VerletIntegrator(), 0.0001f, 0);
+        report(reference, new VerletIntegrator(PrecisionState.KAHAN), 0.0001f, 0);
+        report(reference, new VerletIntegrator(PrecisionState.DOUBLE), 0.0001f, 0);
+        report(reference, new TimeOfImpactIntegrator(), 0.001f, 0);
+        report(reference, new AdaptiveRK45Integrator(1e-4), 0.05f, 1e-4);
+        report(reference, new AdaptiveRK45Integrator(1e-6), 0.05f, 1e-6);
+        report(reference, new AdaptiveRK45Integrator(1e-8), 0.05f, 1e-8);
+    }
+
+    private static int getPrecision(Integrator integrator) {
+        if (integrator instanceof EulerIntegrator) {
+            return ((EulerIntegrator)integrator).getPrecision();
+        }
+        if (integrator instanceof VerletIntegrator) {
+            return ((VerletIntegrator)integrator).getPrecision();
+        }
+        /* RK45 integrates in double internally, but keeps the state between ticks in floats */
+        return PrecisionState.FLOAT;
+    }
+
+    private SimulationEngine createEngine(Integrator integrator, float timeTick) {
+        SimulationEngine engine = new SimulationEngine(mRectangleWidth, mRectangleHeight);
+        engine.setAlpha(mAlpha);
+        engine.setStepKernel(null);
+        engine.setTimeTickValue(timeTick);
+        engine.spawnRandomBalls(mBallCount, mDiameter, new Random(mSeed));
+        engine.setIntegrator(integrator);
+        return engine;
+    }
+
+    private SimulationEngine simulate(Integrator integrator, float timeTick) {
+        SimulationEngine engine = createEngine(integrator, timeTick);
+        engine.makeTicks(Math.round(mDuration / timeTick));
+        return engine;
+    }
+
+    private void report(SimulationEngine reference, Integrator integrator, float timeTick, double tolerance) {
+        double[] initialEnergy = new double[mBallCount];
+        SimulationEngine initial = createEngine(integrator, timeTick);
+        for (int i = 0; i < mBallCount; i++) {
+            initialEnergy[i] = initial.getEnergy(i);
+        }
+
+        SimulationEngine engine = simulate(integrator, timeTick);
+        BallStore balls = engine.getBalls();
+        BallStore exact = reference.getBalls();
+
+        double maxError = 0;
+        double maxDrift = 0;
+        for (int i = 0; i < mBallCount; i++) {
+            double error = Math.hypot(balls.positionX[i] - exact.positionX[i], balls.positionY[i] - exact.positionY[i]);
+            maxError = Math.max(maxError, error);
+            maxDrift = Math.max(maxDrift, Math.abs(engine.getEnergy(i) - initialEnergy[i]));
+        }
+
+        long evaluations = integrator.getForceEvaluations();
+        System.out.println(String.format(Locale.ROOT, "%-8s %-7s %-10s %-8s %14d %12d %12.3e %12.3e",
+                                         integrator.getName(), PrecisionState.getName(getPrecision(integrator)), Float.toString(timeTick),
+                                         tolerance > 0 ? String.format(Locale.ROOT, "%.0e", tolerance) : "-",
+                                         evaluations, evaluations / mBallCount, maxError, maxDrift));
+    }
+}
@@ -0,0 +1,88 @@
+package ballsimulation;
+
+import java.util.Locale;
+import java.util.Random;
+
+/*
+ *  Compares forces between balls from the Barnes-Hut tree at several opening
+ *  angles with the exact sum over all pairs on the same random balls.
+ *
+ *  Errors are relative to the root mean square of the exact accelerations,
+ *  so balls which feel almost no net force do not dominate them.
+ */
+public class InteractionComparison {
+
+    private static final float[] mThetas = { 0.0f, 0.3f, 0.5f, 0.7f, 1.0f };
+
+    /* Evaluations per row, the fastest one is reported */
+    private static final int mRepeats = 3;
+
+    private final int mBallCount;
+    private final long mSeed;
+    private final float mStrength;
+    private final float mSoftening;
+    private final int mWorkerCount;
+
+
+    public InteractionComparison(int ballCount, long seed, float strength, float softening, int workerCount) {
+        mBallCount = ballCount;
+        mSeed = seed;
+        mStrength = strength;
+        mSoftening = softening;
+        mWorkerCount = workerCount;
+    }
+
+    public void run() {
+        SimulationEngine engine = new SimulationEngine(752, 752);
+        engine.spawnRandomBalls(mBallCount, 24.0f, new Random(mSeed));
+        BallStore balls = engine.getBalls();
+
+        System.out.println(String.format(Locale.ROOT, "%d balls, strength=%.3f, softening=%.3f, %d workers",
+                                         mBallCount, mStrength, mSoftening, mWorkerCount));
+        System.out.println(String.format(Locale.ROOT, "%-6s %6s %12s %14s %12s %12s",
+                                         "mode", "theta", "time", "terms/ball", "rms err", "max err"));
+
+        double[] exactX = new double[mBallCount];
+        double[] exactY = new double[mBallCount];
+        BallInteraction exact = new BallInteraction(mStrength, mSoftening, 0.0f, BallInteraction.MODE_EXACT, mWorkerCount, 0);
+        long exactTime = time(exact, balls, exactX, exactY);
+        exact.shutdown();
+
+        double sum = 0;
+        for (int i = 0; i < mBallCount; i++) {
+            sum += exactX[i] * exactX[i] + exactY[i] * exactY[i];
+        }
+        double scale = Math.sqrt(sum / mBallCount);
+        System.out.println(String.format(Locale.ROOT, "%-6s %6s %10.3f ms %14.1f %12s %12s",
+                                         "exact", "-", exactTime / 1e6, (double)exact.getInteractions() / mRepeats / mBallCount, "-", "-"));
+
+        double[] treeX = new double[mBallCount];
+        double[] treeY = new double[mBallCount];
+        for (float theta : mThetas) {
+            BallInteraction tree = new BallInteraction(mStrength, mSoftening, theta, BallInteraction.MODE_TREE, mWorkerCount, 0);
+            long treeTime = time(tree, balls, treeX, treeY);
+            tree.shutdown();
+
+            double squares = 0;
+            double maxError = 0;
+            for (int i = 0; i < mBallCount; i++) {
+                double error = Math.hypot(treeX[i] - exactX[i], treeY[i] - exactY[i]);
+                squares += error * error;
+                maxError = Math.max(maxError, error);
+            }
+            System.out.println(String.format(Locale.ROOT, "%-6s %6.2f %10.3f ms %14.1f %12.3e %12.3e",
+                                             "tree", theta, treeTime / 1e6, (double)tree.getInteractions() / mRepeats / mBallCount,
+                                             Math.sqrt(squares / mBallCount) / scale, maxError / scale));
+        }
+    }
+
+    private static long time(BallInteraction interaction, BallStore balls, double[] accelerationX, double[] accelerationY) {
+        long best = Long.MAX_VALUE;
+        for (int repeat = 0; repeat < mRepeats; repeat++) {
+            long startTime = System.nanoTime();
+            interaction.getAccelerations(balls, accelerationX, accelerationY);
+            best = Math.min(best, System.nanoTime() - startTime);
+        }
+        return best;
+    }
+}
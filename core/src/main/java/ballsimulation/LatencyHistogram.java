@@ -0,0 +1,110 @@
+package ballsimulation;
+
+import java.util.Arrays;
+
+/*
+ *  Histogram of durations in nanoseconds with fixed relative precision.
+ *
+ *  Buckets follow the HdrHistogram layout: values below 2 * half are counted
+ *  exactly, above that every power of two range is split into half linear
+ *  sub-buckets, so a value is known within 1 / half of itself. With 8 bits of
+ *  precision that is under 0.8 % for any value up to the maximum, in a few
+ *  thousand counters.
+ */
+public class LatencyHistogram {
+
+    public static final int DEFAULT_PRECISION_BITS = 8;
+    public static final long DEFAULT_MAX_VALUE = 1L << 40;
+
+    private final int mHalfBits;
+    private final long mMaxValue;
+    private final long[] mCounts;
+
+    private long mTotalCount = 0;
+    private long mMinValue = Long.MAX_VALUE;
+    private long mMaxRecorded = 0;
+    private double mSum = 0;
+
+
+    public LatencyHistogram() {
+        this(DEFAULT_PRECISION_BITS, DEFAULT_MAX_VALUE);
+    }
+
+    public LatencyHistogram(int precisionBits, long maxValue) {
+        if (precisionBits < 1 || precisionBits > 16 || maxValue < 1) {
+            throw new IllegalArgumentException("Precision must be 1 to 16 bits, max value positive");
+        }
+        mHalfBits = precisionBits - 1;
+        mMaxValue = maxValue;
+        mCounts = new long[indexOf(maxValue) + 1];
+    }
+
+    private int indexOf(long value) {
+        int bucket = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - mHalfBits);
+        return (int)((bucket << mHalfBits) + (value >>> bucket));
+    }
+
+    /*
+     *  Largest value counted by the counter at index
+     */
+    private long highestValueAt(int index) {
+        int bucket = Math.max(0, (index >>> mHalfBits) - 1);
+        long subBucket = index - ((long)bucket << mHalfBits);
+        return ((subBucket + 1) << bucket) - 1;
+    }
+
+    /*
+     *  Counts value, negative values as 0 and values above the maximum as the maximum
+     */
+    public void record(long value) {
+        value = Math.max(0, Math.min(value, mMaxValue));
+        mCounts[indexOf(value)]++;
+        mTotalCount++;
+        mSum += value;
+        mMinValue = Math.min(mMinValue, value);
+        mMaxRecorded = Math.max(mMaxRecorded, value);
+    }
+
+    public void reset() {
+        Arrays.fill(mCounts, 0);
+        mTotalCount = 0;
+        mMinValue = Long.MAX_VALUE;
+        mMaxRecorded = 0;
+        mSum = 0;
+    }
+
+    public long getTotalCount() {
+        return mTotalCount;
+    }
+
+    public long getMin() {
+        return mTotalCount > 0 ? mMinValue : 0;
+    }
+
+    public long getMax() {
+        return mMaxRecorded;
+    }
+
+    public double getMean() {
+        return mTotalCount > 0 ? mSum / mTotalCount : 0;
+    }
+
+    /*
+     *  Smallest value, within precision, which percentile percent of the
+     *  counts do not exceed
+     */
+    public long getPercentile(double percentile) {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long)Math.ceil(Math.min(percentile, 100.0) / 100.0 * mTotalCount));
+        long count = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            count += mCounts[i];
+            if (count >= target) {
+                return Math.min(highestValueAt(i), mMaxRecorded);
+            }
+        }
+        return mMaxRecorded;
+    }
+}
@@ -0,0 +1,96 @@
+package ballsimulation;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ *  Advances balls of a SimulationEngine in parallel on a ForkJoinPool.
+ *
+ *  Ball set is split recursively into contiguous chunks of at most chunk size
+ *  balls. Balls do not depend on each other within a tick and every ball goes
+ *  through exactly the same operations as in sequential loop, so results are
+ *  bit-identical to it. Below the threshold forking costs more than it saves
+ *  and the tick is done sequentially on the calling thread.
+ */
+public class ParallelStepper {
+
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+    public static final int DEFAULT_THRESHOLD = 32768;
+
+    private final ForkJoinPool mPool;
+    private final int mChunkSize;
+    private final int mThreshold;
+
+
+    public ParallelStepper() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE, DEFAULT_THRESHOLD);
+    }
+
+    public ParallelStepper(int workerCount, int chunkSize, int threshold) {
+        if (workerCount < 1 || chunkSize < 1 || threshold < 0) {
+            throw new IllegalArgumentException("Worker count and chunk size must be positive, threshold non-negative");
+        }
+        mPool = new ForkJoinPool(workerCount);
+        mChunkSize = chunkSize;
+        mThreshold = threshold;
+    }
+
+    public int getWorkerCount() {
+        return mPool.getParallelism();
+    }
+
+    public int getChunkSize() {
+        return mChunkSize;
+    }
+
+    public int getThreshold() {
+        return mThreshold;
+    }
+
+    /*
+     *  Whether ticks of given number of balls are worth running in parallel
+     */
+    public boolean isParallel(int count) {
+        return count >= mThreshold && mPool.getParallelism() > 1;
+    }
+
+    /*
+     *  Advances balls [0, count) of engine by one tick
+     */
+    public void step(SimulationEngine engine, int count) {
+        if (isParallel(count)) {
+            mPool.invoke(new StepTask(engine, 0, count));
+        }
+        else {
+            engine.stepRange(0, count);
+        }
+    }
+
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+
+    private class StepTask extends RecursiveAction {
+        private final SimulationEngine mEngine;
+        private final int mFrom;
+        private final int mTo;
+
+        StepTask(SimulationEngine engine, int from, int to) {
+            mEngine = engine;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= mChunkSize) {
+                mEngine.stepRange(mFrom, mTo);
+                return;
+            }
+
+            int middle = (mFrom + mTo) >>> 1;
+            invokeAll(new StepTask(mEngine, mFrom, middle), new StepTask(mEngine, middle, mTo));
+        }
+    }
+}
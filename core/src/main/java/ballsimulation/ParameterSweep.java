@@ -0,0 +1,412 @@
+package ballsimulation;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/*
+ *  Runs many independent headless simulations over a set of configurations
+ *  and streams a summary line of every run into a CSV file.
+ *
+ *  Every parameter is a constant, a grid of evenly spaced values or, with
+ *  random sampling, a range to draw from. A grid sweep runs the cartesian
+ *  product of all parameters, run numbers enumerate it with alpha varying
+ *  slowest. Seed of every run is derived from the sweep seed and the run
+ *  number alone, so a run gives the same result whenever and on whichever
+ *  worker it executes.
+ *
+ *  Workers of a fixed ForkJoinPool take run numbers from a shared counter,
+ *  so only as many runs as workers exist at a time. Lines are appended in
+ *  order of completion. A sweep started on an existing file skips runs
+ *  which are already in it, which resumes an interrupted sweep. Lines of the
+ *  file must match seed, parameters and ticks of their run in this sweep,
+ *  so results of a different sweep are never mixed in.
+ */
+public class ParameterSweep {
+
+    public static final int ALPHA = 0;
+    public static final int DIAMETER = 1;
+    public static final int X = 2;
+    public static final int Y = 3;
+    public static final int VX = 4;
+    public static final int VY = 5;
+    public static final int WIDTH = 6;
+    public static final int HEIGHT = 7;
+    public static final int PARAMETER_COUNT = 8;
+
+    private static final String[] mParameterNames = {"alpha", "diameter", "x0", "y0", "vx0", "vy0", "width", "height"};
+
+    private static final String mHeader = "run,seed,alpha,diameter,x0,y0,vx0,vy0,width,height,ticks,"
+                                        + "x,y,vx,vy,energy_drift,mean_x,sd_x,mean_y,sd_y,"
+                                        + "hits_left,hits_right,hits_top,hits_bottom,correlation_ticks_x,nanos";
+
+    private final double[] mFrom = {0.2, 24, 0.6, 0.3, 0.2, 0.7, 752, 752};
+    private final double[] mTo = {0.2, 24, 0.6, 0.3, 0.2, 0.7, 752, 752};
+    private final int[] mSteps = {1, 1, 1, 1, 1, 1, 1, 1};
+
+    /* Number of randomly sampled configurations, 0 for a grid sweep */
+    private long mRandomSamples = 0;
+
+    private long mTicks = 100000;
+    private long mSeed = 1;
+    private int mExtraBalls = 0;
+    private float mTimeTick = 0.001f;
+    private Supplier<Integrator> mIntegrators = new Supplier<Integrator>() {
+        public Integrator get() {
+            return new EulerIntegrator();
+        }
+    };
+
+    private final ForkJoinPool mPool;
+
+    /*
+     *  Sweep being run
+     */
+    private BitSet mCompleted;
+    private final AtomicLong mNextRun = new AtomicLong();
+    private final AtomicLong mFinishedRuns = new AtomicLong();
+    private BufferedWriter mWriter;
+
+
+    public ParameterSweep(int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("Worker count must be positive");
+        }
+        mPool = new ForkJoinPool(workerCount);
+    }
+
+    public int getWorkerCount() {
+        return mPool.getParallelism();
+    }
+
+    public static String getParameterName(int parameter) {
+        return mParameterNames[parameter];
+    }
+
+    /*
+     *  Grid of steps values from from to to inclusive, a single step uses from
+     */
+    public void setParameter(int parameter, double from, double to, int steps) {
+        if (steps < 1) {
+            throw new IllegalArgumentException("Parameter " + mParameterNames[parameter] + " needs at least one step");
+        }
+        mFrom[parameter] = from;
+        mTo[parameter] = to;
+        mSteps[parameter] = steps;
+    }
+
+    /*
+     *  Parses "value", "from:to" or "from:to:steps". Random sampling draws from
+     *  [from, to] and ignores steps.
+     */
+    public void parseParameter(int parameter, String spec) {
+        String[] parts = spec.split(":");
+        try {
+            if (parts.length == 1) {
+                double value = Double.parseDouble(parts[0]);
+                setParameter(parameter, value, value, 1);
+            }
+            else if (parts.length == 2 || parts.length == 3) {
+                int steps = parts.length == 3 ? Integer.parseInt(parts[2]) : 2;
+                setParameter(parameter, Double.parseDouble(parts[0]), Double.parseDouble(parts[1]), steps);
+            }
+            else {
+                throw new IllegalArgumentException("Invalid range '" + spec + "' for " + mParameterNames[parameter]);
+            }
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid range '" + spec + "' for " + mParameterNames[parameter]);
+        }
+    }
+
+    public void setRandomSamples(long samples) {
+        if (samples < 0) {
+            throw new IllegalArgumentException("Sample count must be non-negative");
+        }
+        mRandomSamples = samples;
+    }
+
+    public void setTicks(long ticks) {
+        mTicks = ticks;
+    }
+
+    public void setSeed(long seed) {
+        mSeed = seed;
+    }
+
+    /*
+     *  Random balls added to every run besides the configured one
+     */
+    public void setExtraBalls(int extraBalls) {
+        mExtraBalls = extraBalls;
+    }
+
+    public void setTimeTick(float timeTick) {
+        mTimeTick = timeTick;
+    }
+
+    /*
+     *  Integrators keep counters, so every run gets a fresh one
+     */
+    public void setIntegrators(Supplier<Integrator> integrators) {
+        mIntegrators = integrators;
+    }
+
+    public long getRunCount() {
+        if (mRandomSamples > 0) {
+            return mRandomSamples;
+        }
+        long count = 1;
+        for (int p = 0; p < PARAMETER_COUNT; p++) {
+            count = Math.multiplyExact(count, mSteps[p]);
+        }
+        return count;
+    }
+
+    /*
+     *  SplitMix64 of sweep seed and run number
+     */
+    public long getRunSeed(long run) {
+        long z = mSeed + (run + 1) * 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /*
+     *  Parameters of run, random draws use their own generator so that the
+     *  extra balls do not depend on which parameters are swept
+     */
+    public void getConfiguration(long run, double[] parameters) {
+        if (mRandomSamples > 0) {
+            Random random = new Random(~getRunSeed(run));
+            for (int p = 0; p < PARAMETER_COUNT; p++) {
+                parameters[p] = mFrom[p] + (mTo[p] - mFrom[p]) * random.nextDouble();
+            }
+            return;
+        }
+
+        long rest = run;
+        for (int p = PARAMETER_COUNT - 1; p >= 0; p--) {
+            int step = (int)(rest % mSteps[p]);
+            rest /= mSteps[p];
+            parameters[p] = mSteps[p] == 1 ? mFrom[p] : mFrom[p] + (mTo[p] - mFrom[p]) * step / (mSteps[p] - 1);
+        }
+    }
+
+    /*
+     *  Runs all configurations not yet in the CSV file. Returns number of runs
+     *  done by this call.
+     */
+    public long run(Path file) throws IOException {
+        long runCount = getRunCount();
+        if (runCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Sweep of " + runCount + " runs is too large");
+        }
+
+        mCompleted = new BitSet((int)runCount);
+        boolean exists = Files.exists(file) && Files.size(file) > 0;
+        if (exists) {
+            readCompleted(file, runCount);
+        }
+
+        mNextRun.set(0);
+        mFinishedRuns.set(0);
+        mWriter = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        try {
+            if (!exists) {
+                mWriter.write(mHeader);
+                mWriter.newLine();
+                mWriter.flush();
+            }
+
+            ForkJoinTask<?>[] workers = new ForkJoinTask<?>[mPool.getParallelism()];
+            for (int w = 0; w < workers.length; w++) {
+                workers[w] = mPool.submit(new Runnable() {
+                    public void run() {
+                        runWorker();
+                    }
+                });
+            }
+            for (ForkJoinTask<?> worker : workers) {
+                worker.join();
+            }
+        }
+        finally {
+            mWriter.close();
+            mWriter = null;
+        }
+        return mFinishedRuns.get();
+    }
+
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    /*
+     *  Collects run numbers of complete lines and cuts off a line which was
+     *  being written when the previous sweep was interrupted. Throws if a
+     *  line does not belong to this sweep.
+     */
+    private void readCompleted(Path file, long runCount) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(mHeader)) {
+            throw new IOException(file + " is not a sweep file with the expected columns");
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, size - 1);
+            boolean incomplete = last.get(0) != '\n';
+            if (incomplete) {
+                /* Everything after the last newline is an incomplete line */
+                lines.remove(lines.size() - 1);
+            }
+
+            checkLines(file, lines, runCount);
+
+            if (incomplete) {
+                long end = size - 1;
+                while (end > 0) {
+                    last.clear();
+                    channel.read(last, end - 1);
+                    if (last.get(0) == '\n') {
+                        break;
+                    }
+                    end--;
+                }
+                channel.truncate(end);
+            }
+        }
+    }
+
+    /*
+     *  Marks runs of lines as completed after comparing their seed, parameters
+     *  and ticks with the configuration of the same run in this sweep
+     */
+    private void checkLines(Path file, List<String> lines, long runCount) throws IOException {
+        int columns = mHeader.split(",").length;
+        double[] parameters = new double[PARAMETER_COUNT];
+        for (int i = 1; i < lines.size(); i++) {
+            String[] values = lines.get(i).split(",");
+            if (values.length != columns) {
+                continue;
+            }
+            long run;
+            try {
+                run = Long.parseLong(values[0]);
+            }
+            catch (NumberFormatException e) {
+                /* Not a run line, it is rewritten when its run is */
+                continue;
+            }
+
+            boolean matches = run >= 0 && run < runCount && values[1].equals(Long.toString(getRunSeed(run)))
+                              && values[2 + PARAMETER_COUNT].equals(Long.toString(mTicks));
+            if (matches) {
+                getConfiguration(run, parameters);
+                for (int p = 0; p < PARAMETER_COUNT; p++) {
+                    matches &= values[2 + p].equals(formatParameter(parameters[p]));
+                }
+            }
+            if (!matches) {
+                throw new IOException(file + " holds run " + values[0] + " of a different sweep (line " + (i + 1)
+                                      + "), seed, ticks and parameters must match to resume");
+            }
+            mCompleted.set((int)run);
+        }
+    }
+
+    private static String formatParameter(double value) {
+        return String.format(Locale.ROOT, "%.6g", value);
+    }
+
+    private void runWorker() {
+        long runCount = getRunCount();
+        double[] parameters = new double[PARAMETER_COUNT];
+        StringBuilder line = new StringBuilder(256);
+
+        for (long run = mNextRun.getAndIncrement(); run < runCount; run = mNextRun.getAndIncrement()) {
+            if (mCompleted.get((int)run)) {
+                continue;
+            }
+            getConfiguration(run, parameters);
+            line.setLength(0);
+            runOne(run, parameters, line);
+
+            synchronized (this) {
+                try {
+                    mWriter.append(line);
+                    mWriter.newLine();
+                    mWriter.flush();
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            mFinishedRuns.incrementAndGet();
+        }
+    }
+
+    /*
+     *  Simulates one configuration and formats its summary line into line
+     */
+    private void runOne(long run, double[] parameters, StringBuilder line) {
+        long startTime = System.nanoTime();
+        long seed = getRunSeed(run);
+        int width = Math.max(1, (int)Math.round(parameters[WIDTH]));
+        int height = Math.max(1, (int)Math.round(parameters[HEIGHT]));
+        float diameter = (float)parameters[DIAMETER];
+
+        SimulationEngine engine = new SimulationEngine(width, height);
+        engine.setAlpha((float)parameters[ALPHA]);
+        engine.setTimeTickValue(mTimeTick);
+        engine.setIntegrator(mIntegrators.get());
+        engine.getBalls().ensureCapacity(1 + mExtraBalls);
+        int ball = engine.getBalls().add((float)parameters[X], (float)parameters[Y], (float)parameters[VX], (float)parameters[VY], diameter);
+        engine.updateAcceleration(ball);
+        engine.spawnRandomBalls(mExtraBalls, diameter, new Random(seed));
+
+        TickStatistics statistics = new TickStatistics(1, TickStatistics.DEFAULT_BIN_COUNT, TickStatistics.DEFAULT_VELOCITY_RANGE,
+                                                       TickStatistics.DEFAULT_WINDOW, TickStatistics.DEFAULT_MAX_LAG,
+                                                       TickStatistics.DEFAULT_AUTOCORRELATION_INTERVAL);
+        engine.addTickObserver(statistics);
+
+        double initialEnergy = engine.getEnergy(ball);
+        engine.makeTicks(mTicks);
+        double energyDrift = (engine.getEnergy(ball) - initialEnergy) / Math.abs(initialEnergy);
+
+        BallStore balls = engine.getBalls();
+        line.append(run).append(',').append(seed);
+        for (int p = 0; p < PARAMETER_COUNT; p++) {
+            line.append(',').append(formatParameter(parameters[p]));
+        }
+        line.append(',').append(mTicks);
+        line.append(String.format(Locale.ROOT, ",%.7g,%.7g,%.7g,%.7g,%.4e",
+                                  balls.positionX[ball], balls.positionY[ball],
+                                  balls.velocityX[ball], balls.velocityY[ball], energyDrift));
+        line.append(String.format(Locale.ROOT, ",%.6g,%.6g,%.6g,%.6g",
+                                  statistics.getMean(TickStatistics.X), Math.sqrt(statistics.getVariance(TickStatistics.X)),
+                                  statistics.getMean(TickStatistics.Y), Math.sqrt(statistics.getVariance(TickStatistics.Y))));
+        for (int wall = TickStatistics.WALL_LEFT; wall <= TickStatistics.WALL_BOTTOM; wall++) {
+            line.append(',').append(statistics.getWallHits(wall));
+        }
+        line.append(',').append(statistics.getCorrelationTicks(TickStatistics.X));
+        line.append(',').append(System.nanoTime() - startTime);
+    }
+}
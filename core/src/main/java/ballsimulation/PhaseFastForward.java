@@ -0,0 +1,220 @@
+package ballsimulation;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ *  Moves balls ahead by any number of ticks in constant time per ball.
+ *
+ *  The wall force acts on each axis separately, so without ball-ball
+ *  collisions every axis is an independent periodic motion determined by
+ *  alpha, its energy and the ball radius. The phase of the ball within the
+ *  period is looked up in a PhaseTable, advanced by the jumped time modulo the
+ *  period and turned back into position and velocity.
+ *
+ *  Tables are kept in a bounded least recently used cache. Energy recomputed
+ *  from the float state after a jump differs from the one jumped with in the
+ *  last bits, so the energy of every axis is remembered together with the
+ *  floats written for it. As long as nothing else changed the ball, the next
+ *  jump uses the same energy, finds the same table and does not drift.
+ *
+ *  The result is the exact motion, which stepping approaches as the time tick
+ *  shrinks, not the trajectory of one particular integrator.
+ */
+public class PhaseFastForward {
+
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+    public static final int DEFAULT_TABLE_SIZE = 256;
+
+    private final int mTableSize;
+    private final Map<Key, PhaseTable> mTables;
+
+    private long mHits = 0;
+    private long mMisses = 0;
+    private long mSkippedAxes = 0;
+
+    private final double[] mState = new double[2];
+
+    /* Per ball and axis, x then y: state written by the last jump and the energy it was jumped with */
+    private float[] mWrittenPositions = new float[0];
+    private float[] mWrittenVelocities = new float[0];
+    private double[] mEnergies = new double[0];
+
+
+    public PhaseFastForward() {
+        this(DEFAULT_CACHE_SIZE, DEFAULT_TABLE_SIZE);
+    }
+
+    public PhaseFastForward(final int cacheSize, int tableSize) {
+        if (cacheSize < 1 || tableSize < 2) {
+            throw new IllegalArgumentException("Cache must hold at least 1 table of at least 2 cells");
+        }
+        mTableSize = tableSize;
+        mTables = new LinkedHashMap<Key, PhaseTable>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PhaseTable> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    public long getHits() {
+        return mHits;
+    }
+
+    public long getMisses() {
+        return mMisses;
+    }
+
+    /*
+     *  Axes left in place because their motion has no finite period, balls
+     *  resting on the top of the potential or stuck in a wall
+     */
+    public long getSkippedAxes() {
+        return mSkippedAxes;
+    }
+
+    public int getCachedTables() {
+        return mTables.size();
+    }
+
+    /*
+     *  Table of the motion with the given parameters, null if it has no finite period
+     */
+    public PhaseTable getTable(double alpha, double energy, double radius) {
+        Key key = new Key(alpha, energy, radius);
+        PhaseTable table = mTables.get(key);
+        if (table != null) {
+            mHits++;
+            return table;
+        }
+        mMisses++;
+        try {
+            table = new PhaseTable(key.alpha, key.energy, key.radius, mTableSize);
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+        mTables.put(key, table);
+        return table;
+    }
+
+    /*
+     *  Moves all balls of engine ahead by ticks time ticks, needs alpha >= 0,
+     *  the wall force and no ball-ball collisions
+     */
+    public void advance(SimulationEngine engine, long ticks) {
+        if (engine.getCollisions() != null) {
+            throw new IllegalStateException("Fast-forward needs independent balls, ball-ball collisions must be off");
+        }
+        if (engine.getAlpha() < 0) {
+            throw new IllegalStateException("Fast-forward needs alpha >= 0");
+        }
+        if (engine.getInteraction() != null) {
+            throw new IllegalStateException("Fast-forward needs independent balls, forces between balls must be off");
+        }
+        if (engine.getForceField() != null) {
+            throw new IllegalStateException("Fast-forward knows only the wall force, force field must not be set");
+        }
+
+        BallStore balls = engine.getBalls();
+        double alpha = engine.getAlpha();
+        double time = ticks * (double)engine.getTimeTickValue();
+        if (mEnergies.length < 2 * balls.size()) {
+            mWrittenPositions = new float[2 * balls.size()];
+            mWrittenVelocities = new float[2 * balls.size()];
+            mEnergies = new double[2 * balls.size()];
+            Arrays.fill(mEnergies, Double.NaN);
+        }
+
+        for (int i = 0; i < balls.size(); i++) {
+            double rx = balls.diameter[i] / (double)engine.getRectangleWidth() / 2.0;
+            double ry = balls.diameter[i] / (double)engine.getRectangleHeight() / 2.0;
+            if (advanceAxis(alpha, rx, balls.positionX[i], balls.velocityX[i], time, 2 * i)) {
+                balls.positionX[i] = (float)mState[0];
+                balls.velocityX[i] = (float)mState[1];
+                remember(2 * i, balls.positionX[i], balls.velocityX[i]);
+            }
+            if (advanceAxis(alpha, ry, balls.positionY[i], balls.velocityY[i], time, 2 * i + 1)) {
+                balls.positionY[i] = (float)mState[0];
+                balls.velocityY[i] = (float)mState[1];
+                remember(2 * i + 1, balls.positionY[i], balls.velocityY[i]);
+            }
+            engine.updateAcceleration(i);
+        }
+
+        engine.setTickCount(engine.getTickCount() + ticks);
+        engine.notifyStateChanged();
+    }
+
+    /*
+     *  Advances one axis into mState, false if the axis stays as it is
+     */
+    private boolean advanceAxis(double alpha, double radius, float x, float v, double time, int axis) {
+        if (!(radius > 0 && radius < 0.5)) {
+            mSkippedAxes++;
+            mEnergies[axis] = Double.NaN;
+            return false;
+        }
+
+        /* Balls inside the wall zone are counted as touching the wall */
+        double position = Math.min(Math.max(x, radius), 1.0 - radius);
+        double energy = mEnergies[axis];
+        if (Double.isNaN(energy) || x != mWrittenPositions[axis] || v != mWrittenVelocities[axis]) {
+            energy = 0.5 * v * v + SimulationEngine.wallPotential(alpha, position);
+            mEnergies[axis] = energy;
+        }
+
+        PhaseTable table = getTable(alpha, energy, radius);
+        if (table == null) {
+            mSkippedAxes++;
+            mEnergies[axis] = Double.NaN;
+            return false;
+        }
+
+        /* Confined balls on the right side run the mirrored table of the left side */
+        if (table.isConfined() && position > 0.5) {
+            table.advance(1.0 - position, -v, time, mState);
+            mState[0] = 1.0 - mState[0];
+            mState[1] = -mState[1];
+        }
+        else {
+            table.advance(position, v, time, mState);
+        }
+        return true;
+    }
+
+    private void remember(int axis, float position, float velocity) {
+        mWrittenPositions[axis] = position;
+        mWrittenVelocities[axis] = velocity;
+    }
+
+    private static final class Key {
+
+        final double alpha;
+        final double energy;
+        final double radius;
+
+        Key(double alpha, double energy, double radius) {
+            this.alpha = alpha;
+            this.energy = energy;
+            this.radius = radius;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key)other;
+            return Double.compare(alpha, key.alpha) == 0 && Double.compare(energy, key.energy) == 0
+                && Double.compare(radius, key.radius) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return (Double.hashCode(alpha) * 31 + Double.hashCode(energy)) * 31 + Double.hashCode(radius);
+        }
+    }
+}
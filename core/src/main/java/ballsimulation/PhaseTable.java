@@ -0,0 +1,271 @@
+package ballsimulation;
+
+/*
+ *  Exact periodic motion of a ball along one axis for a given wall strength
+ *  alpha, energy per unit mass and normalized radius.
+ *
+ *  The wall potential alpha * ln(x * (1 - x)) is a hill with its top in the
+ *  middle of the box, the ball reflects where it touches a wall. With energy
+ *  above the top it crosses the box from wall to wall, below it it bounces
+ *  between one wall and a turning point on its side. In both cases the motion
+ *  is a leg from the lower end to the upper one and the same leg back, so a
+ *  period is twice the leg time.
+ *
+ *  Time along the leg is integrated with Gauss-Legendre quadrature of dt =
+ *  dx / v(x) over uniform cells. Near a turning point x = high - w^2
+ *  substitutes the inverse square root singularity away. Inverting it gives
+ *  positions at uniform times, which are interpolated with cubic Hermite
+ *  polynomials using velocities known from the energy. Tables are built for
+ *  the left side, balls confined to the right side are mirrored.
+ */
+public class PhaseTable {
+
+    /* Gauss-Legendre nodes and weights on [-1, 1] */
+    private static final double[] mGaussNodes = {
+        -0.9061798459386640, -0.5384693101056831, 0.0, 0.5384693101056831, 0.9061798459386640
+    };
+    private static final double[] mGaussWeights = {
+        0.2369268850561891, 0.4786286704993665, 0.5688888888888889, 0.4786286704993665, 0.2369268850561891
+    };
+
+    private final double mAlpha;
+    private final double mEnergy;
+    private final double mRadius;
+
+    /* Ball does not reach the middle and turns at mHigh */
+    private final boolean mConfined;
+    private final double mLow;
+    private final double mHigh;
+    private final double mLegTime;
+
+    /* Leg time at nodes uniform in s and its derivative, x(s) = s or mHigh - (mSpan - s)^2 */
+    private final double[] mNodeTimes;
+    private final double[] mNodeRates;
+    private final double mSpan;
+    private final double mNodeStep;
+
+    /* Positions along the leg at uniform times */
+    private final double[] mPositions;
+    private final double[] mSpeeds;
+    private final double mTimeStep;
+
+
+    /*
+     *  Builds the table with size cells, needs alpha >= 0 and an energy which
+     *  lets a ball at the wall move, otherwise throws IllegalArgumentException
+     */
+    public PhaseTable(double alpha, double energy, double radius, int size) {
+        if (!(alpha >= 0) || !(radius > 0 && radius < 0.5) || size < 2) {
+            throw new IllegalArgumentException("Phase table needs alpha >= 0, radius in (0, 0.5) and at least 2 cells");
+        }
+        mAlpha = alpha;
+        mEnergy = energy;
+        mRadius = radius;
+
+        double top = potential(0.5);
+        if (!(energy > potential(radius))) {
+            throw new IllegalArgumentException("Energy " + energy + " does not let the ball leave the wall");
+        }
+        if (alpha > 0 && Math.abs(energy - top) <= 1e-12 * Math.max(1.0, Math.abs(top))) {
+            throw new IllegalArgumentException("Energy " + energy + " is at the top of the potential, the period is infinite");
+        }
+
+        mConfined = alpha > 0 && energy < top;
+        mLow = radius;
+        if (mConfined) {
+            /* alpha * ln(x * (1 - x)) = energy, root on the left side */
+            double product = Math.exp(energy / alpha);
+            mHigh = Math.min(0.5, 0.5 * (1.0 - Math.sqrt(Math.max(0.0, 1.0 - 4.0 * product))));
+            mSpan = Math.sqrt(mHigh - mLow);
+        }
+        else {
+            mHigh = 1.0 - radius;
+            mSpan = mHigh - mLow;
+        }
+        mNodeStep = mSpan / size;
+
+        mNodeTimes = new double[size + 1];
+        mNodeRates = new double[size + 1];
+        for (int j = 0; j <= size; j++) {
+            mNodeRates[j] = rate(j * mNodeStep);
+            if (j > 0) {
+                double from = (j - 1) * mNodeStep;
+                double sum = 0;
+                for (int k = 0; k < mGaussNodes.length; k++) {
+                    sum += mGaussWeights[k] * rate(from + 0.5 * mNodeStep * (1.0 + mGaussNodes[k]));
+                }
+                mNodeTimes[j] = mNodeTimes[j - 1] + 0.5 * mNodeStep * sum;
+            }
+        }
+        mLegTime = mNodeTimes[size];
+
+        mTimeStep = mLegTime / size;
+        mPositions = new double[size + 1];
+        mSpeeds = new double[size + 1];
+        int cell = 0;
+        for (int k = 0; k <= size; k++) {
+            double time = Math.min(k * mTimeStep, mLegTime);
+            while (cell < size - 1 && mNodeTimes[cell + 1] < time) {
+                cell++;
+            }
+            mPositions[k] = position(invertCell(cell, time));
+            mSpeeds[k] = speed(mPositions[k]);
+        }
+        mPositions[size] = mHigh;
+        mSpeeds[size] = speed(mHigh);
+    }
+
+    public double getAlpha() {
+        return mAlpha;
+    }
+
+    public double getEnergy() {
+        return mEnergy;
+    }
+
+    public double getRadius() {
+        return mRadius;
+    }
+
+    public boolean isConfined() {
+        return mConfined;
+    }
+
+    public double getPeriod() {
+        return 2.0 * mLegTime;
+    }
+
+    private double potential(double x) {
+        return SimulationEngine.wallPotential(mAlpha, x);
+    }
+
+    /*
+     *  Speed at x from conservation of energy
+     */
+    public double speed(double x) {
+        return Math.sqrt(Math.max(0.0, 2.0 * (mEnergy - potential(x))));
+    }
+
+    private double position(double s) {
+        if (mConfined) {
+            double w = mSpan - s;
+            return mHigh - w * w;
+        }
+        return mLow + s;
+    }
+
+    /*
+     *  dt / ds, the integrand of the leg time
+     */
+    private double rate(double s) {
+        if (!mConfined) {
+            return 1.0 / speed(position(s));
+        }
+        double w = mSpan - s;
+        double slope = mAlpha * (1.0 - 2.0 * mHigh) / (mHigh * (1.0 - mHigh));
+        if (w * w < 1e-9 * mHigh) {
+            /* Limit at the turning point, where speed falls like w */
+            return Math.sqrt(2.0 / slope);
+        }
+        return 2.0 * w / speed(position(s));
+    }
+
+    /*
+     *  Parameter s within cell at which the Hermite interpolant of leg time
+     *  equals time, by bisection refined with Newton steps
+     */
+    private double invertCell(int cell, double time) {
+        double t0 = mNodeTimes[cell];
+        double t1 = mNodeTimes[cell + 1];
+        double r0 = mNodeRates[cell] * mNodeStep;
+        double r1 = mNodeRates[cell + 1] * mNodeStep;
+        double low = 0;
+        double high = 1;
+        double u = t1 > t0 ? Math.min(1.0, Math.max(0.0, (time - t0) / (t1 - t0))) : 0.5;
+        for (int iteration = 0; iteration < 50; iteration++) {
+            double value = hermite(t0, t1, r0, r1, u) - time;
+            if (Math.abs(value) <= 1e-15 * Math.max(1.0, mLegTime)) {
+                break;
+            }
+            if (value > 0) {
+                high = u;
+            }
+            else {
+                low = u;
+            }
+            double derivative = hermiteDerivative(t0, t1, r0, r1, u);
+            double next = derivative > 0 ? u - value / derivative : -1;
+            u = next > low && next < high ? next : 0.5 * (low + high);
+        }
+        return (cell + u) * mNodeStep;
+    }
+
+    private static double hermite(double p0, double p1, double m0, double m1, double u) {
+        double u2 = u * u;
+        double u3 = u2 * u;
+        return (2 * u3 - 3 * u2 + 1) * p0 + (u3 - 2 * u2 + u) * m0 + (-2 * u3 + 3 * u2) * p1 + (u3 - u2) * m1;
+    }
+
+    private static double hermiteDerivative(double p0, double p1, double m0, double m1, double u) {
+        double u2 = u * u;
+        return (6 * u2 - 6 * u) * p0 + (3 * u2 - 4 * u + 1) * m0 + (-6 * u2 + 6 * u) * p1 + (3 * u2 - 2 * u) * m1;
+    }
+
+    /*
+     *  Time since the start of the leg at which the ball passes x
+     */
+    private double legTimeAt(double x) {
+        double s;
+        if (mConfined) {
+            s = mSpan - Math.sqrt(Math.max(0.0, mHigh - x));
+        }
+        else {
+            s = x - mLow;
+        }
+        int size = mNodeTimes.length - 1;
+        double position = Math.min(Math.max(s / mNodeStep, 0.0), size);
+        int cell = Math.min((int)position, size - 1);
+        return hermite(mNodeTimes[cell], mNodeTimes[cell + 1], mNodeRates[cell] * mNodeStep, mNodeRates[cell + 1] * mNodeStep,
+                       position - cell);
+    }
+
+    /*
+     *  Position at time since the start of the leg
+     */
+    private double positionAt(double time) {
+        int size = mPositions.length - 1;
+        double position = Math.min(Math.max(time / mTimeStep, 0.0), size);
+        int sample = Math.min((int)position, size - 1);
+        return hermite(mPositions[sample], mPositions[sample + 1], mSpeeds[sample] * mTimeStep, mSpeeds[sample + 1] * mTimeStep,
+                       position - sample);
+    }
+
+    /*
+     *  Time since the start of the period for a ball at x moving with
+     *  velocity v, the period starts at the lower end moving up
+     */
+    public double phaseTime(double x, double v) {
+        double legTime = legTimeAt(Math.min(Math.max(x, mLow), mHigh));
+        return v >= 0 ? legTime : 2.0 * mLegTime - legTime;
+    }
+
+    /*
+     *  Moves a ball at x with velocity v ahead by time and writes its new
+     *  position and velocity into state[0] and state[1]
+     */
+    public void advance(double x, double v, double time, double[] state) {
+        double period = 2.0 * mLegTime;
+        double phase = (phaseTime(x, v) + time) % period;
+        if (phase < 0) {
+            phase += period;
+        }
+        if (phase <= mLegTime) {
+            state[0] = positionAt(phase);
+            state[1] = speed(state[0]);
+        }
+        else {
+            state[0] = positionAt(period - phase);
+            state[1] = -speed(state[0]);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package ballsimulation;
+
+import java.util.Arrays;
+
+/*
+ *  State of balls kept by an integrator beside BallStore with more precision
+ *  than its floats.
+ *
+ *  DOUBLE keeps positions, velocities and accelerations in doubles and writes
+ *  rounded copies into BallStore after every tick, so the rest of the program
+ *  sees floats as before. A ball whose floats no longer match the rounded
+ *  copies was changed from outside, by the user or by collisions, and is
+ *  reloaded from them.
+ *
+ *  KAHAN leaves the state in BallStore and keeps only the low order parts
+ *  lost when increments are added to positions and velocities, compensated
+ *  summation carries them into the next tick. A compensation is below half a
+ *  unit in the last place of its value, so a stale one after an outside change
+ *  does no harm and is not tracked.
+ */
+public class PrecisionState {
+
+    public static final int FLOAT = 0;
+    public static final int DOUBLE = 1;
+    public static final int KAHAN = 2;
+
+    private static final String[] mNames = { "float", "double", "kahan" };
+
+    private final int mPrecision;
+
+    /* Double precision state, used by DOUBLE */
+    double[] positionX = new double[0];
+    double[] positionY = new double[0];
+    double[] velocityX = new double[0];
+    double[] velocityY = new double[0];
+    double[] accelerationX = new double[0];
+    double[] accelerationY = new double[0];
+
+    /* Compensations of BallStore values, used by KAHAN. The exact value is the float minus its compensation. */
+    float[] compensationX = new float[0];
+    float[] compensationY = new float[0];
+    float[] compensationVX = new float[0];
+    float[] compensationVY = new float[0];
+
+    /* Balls loaded at least once, later ones are loaded when arrays grow */
+    private int mSize = 0;
+
+
+    public PrecisionState(int precision) {
+        if (precision < FLOAT || precision > KAHAN) {
+            throw new IllegalArgumentException("Unknown precision " + precision);
+        }
+        mPrecision = precision;
+    }
+
+    public int getPrecision() {
+        return mPrecision;
+    }
+
+    public static String getName(int precision) {
+        return mNames[precision];
+    }
+
+    /*
+     *  Precision with the given name, float, double or kahan
+     */
+    public static int parse(String name) {
+        for (int precision = FLOAT; precision <= KAHAN; precision++) {
+            if (mNames[precision].equals(name)) {
+                return precision;
+            }
+        }
+        throw new IllegalArgumentException("Unknown precision " + name + ", expected float, double or kahan");
+    }
+
+    /*
+     *  Makes room for all balls of engine, called on the simulation thread
+     *  before any ball is stepped
+     */
+    void prepare(SimulationEngine engine) {
+        BallStore balls = engine.getBalls();
+        int size = balls.size();
+        if (mPrecision == DOUBLE) {
+            if (positionX.length < size) {
+                int capacity = Math.max(size, 2 * positionX.length);
+                positionX = Arrays.copyOf(positionX, capacity);
+                positionY = Arrays.copyOf(positionY, capacity);
+                velocityX = Arrays.copyOf(velocityX, capacity);
+                velocityY = Arrays.copyOf(velocityY, capacity);
+                accelerationX = Arrays.copyOf(accelerationX, capacity);
+                accelerationY = Arrays.copyOf(accelerationY, capacity);
+            }
+            for (int i = mSize; i < size; i++) {
+                load(engine, i);
+            }
+        }
+        else if (mPrecision == KAHAN) {
+            if (compensationX.length < size) {
+                int capacity = Math.max(size, 2 * compensationX.length);
+                compensationX = Arrays.copyOf(compensationX, capacity);
+                compensationY = Arrays.copyOf(compensationY, capacity);
+                compensationVX = Arrays.copyOf(compensationVX, capacity);
+                compensationVY = Arrays.copyOf(compensationVY, capacity);
+            }
+            for (int i = mSize; i < size; i++) {
+                compensationX[i] = 0;
+                compensationY[i] = 0;
+                compensationVX[i] = 0;
+                compensationVY[i] = 0;
+            }
+        }
+        mSize = Math.max(mSize, size);
+    }
+
+    /*
+     *  True if the double state of ball i rounds to its floats in BallStore
+     */
+    boolean isLoaded(BallStore balls, int i) {
+        return i < mSize
+            && (float)positionX[i] == balls.positionX[i] && (float)positionY[i] == balls.positionY[i]
+            && (float)velocityX[i] == balls.velocityX[i] && (float)velocityY[i] == balls.velocityY[i]
+            && (float)accelerationX[i] == balls.accelerationX[i] && (float)accelerationY[i] == balls.accelerationY[i];
+    }
+
+    /*
+     *  Replaces the double state of ball i with its floats, acceleration is
+     *  evaluated again in double precision
+     */
+    void load(SimulationEngine engine, int i) {
+        BallStore balls = engine.getBalls();
+        double alpha = engine.getAlpha();
+        ForceField field = engine.getForceField();
+        positionX[i] = balls.positionX[i];
+        positionY[i] = balls.positionY[i];
+        velocityX[i] = balls.velocityX[i];
+        velocityY[i] = balls.velocityY[i];
+        accelerationX[i] = SimulationEngine.forceX(field, alpha, positionX[i], positionY[i]);
+        accelerationY[i] = SimulationEngine.forceY(field, alpha, positionX[i], positionY[i]);
+    }
+
+    /*
+     *  Energy of ball i from the most precise state available
+     */
+    double getEnergy(SimulationEngine engine, int i) {
+        BallStore balls = engine.getBalls();
+        if (mPrecision == DOUBLE && isLoaded(balls, i)) {
+            return engine.getEnergy(positionX[i], positionY[i], velocityX[i], velocityY[i]);
+        }
+        if (mPrecision == KAHAN && i < mSize) {
+            return engine.getEnergy((double)balls.positionX[i] - compensationX[i], (double)balls.positionY[i] - compensationY[i],
+                                    (double)balls.velocityX[i] - compensationVX[i], (double)balls.velocityY[i] - compensationVY[i]);
+        }
+        return engine.getEnergy(balls.positionX[i], balls.positionY[i], balls.velocityX[i], balls.velocityY[i]);
+    }
+}
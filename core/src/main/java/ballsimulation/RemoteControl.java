@@ -0,0 +1,21 @@
+package ballsimulation;
+
+/*
+ *  Parameter changes requested by viewers connected to a StateServer, the
+ *  remote counterparts of the alpha and diameter fields and the speed slider.
+ *
+ *  Methods are called on the server thread, implementations hand the change
+ *  over to the thread which owns the simulation and return false if the host
+ *  can not make it.
+ */
+public interface RemoteControl {
+
+    boolean setAlpha(float alpha);
+
+    boolean setDiameter(int ball, float diameter);
+
+    /*
+     *  Step of the speed slider, ticks per second are a multiple of it
+     */
+    boolean setSpeed(int speed);
+}
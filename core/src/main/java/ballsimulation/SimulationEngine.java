@@ -0,0 +1,512 @@
+package ballsimulation;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ *  Physics of the ball simulation without any dependency on java.awt.
+ *
+ *  Balls move inside a rectangle with normalized coordinates [0, 1] x [0, 1]
+ *  under the wall potential force alpha * (2x - 1) / (x * (1 - x)) applied
+ *  independently along each axis, and bounce off the walls. Rectangle size in
+ *  pixels is needed only to convert ball diameters into normalized radii.
+ *
+ *  A ForceField replaces the wall force, for example a table of a field which
+ *  is expensive to evaluate. With a ForceFieldTabulator the table follows
+ *  alpha and the rectangle size, rebuilt in the background and swapped in
+ *  between ticks.
+ *
+ *  A BallInteraction adds forces between balls as half a tick of velocity
+ *  change before and after every tick. They are not part of the
+ *  accelerations in BallStore, which integrators keep for the field alone.
+ */
+public class SimulationEngine {
+
+    private final BallStore mBalls;
+
+    private float mTimeTickValue = 0.001f;
+    private long mTickCount = 0;
+    private float mAlpha = 0.2f;
+
+    private int mRectangleWidth;
+    private int mRectangleHeight;
+
+    /* Ball-ball collisions resolved after every tick, null means balls pass through each other */
+    private CollisionGrid mCollisions;
+
+    /* Parallel stepping of large ball sets, null means always sequential */
+    private ParallelStepper mParallelStepper;
+
+    /* Time integration scheme, Euler is the original one */
+    private Integrator mIntegrator = new EulerIntegrator();
+
+    /* SIMD implementation of the Euler tick loop, null means scalar loop */
+    private static final StepKernel mVectorKernel = createVectorKernel();
+    private StepKernel mStepKernel = mVectorKernel;
+
+    /* Stages run after every tick, replaced as a whole so it can be read while iterating */
+    private TickObserver[] mObservers = new TickObserver[0];
+
+    /* Tick counts and sampled tick times, null means no instrumentation */
+    private Telemetry mTelemetry;
+
+    /* Force acting on balls, null means the wall force of alpha computed inline */
+    private ForceField mForceField;
+
+    /* Rebuilds mForceField when alpha or rectangle size change, null means the field is fixed */
+    private ForceFieldTabulator mTabulator;
+
+    /* Forces between balls, null means balls feel only the force field */
+    private BallInteraction mInteraction;
+
+
+    public SimulationEngine(int rectangleWidth, int rectangleHeight) {
+        this(new BallStore(), rectangleWidth, rectangleHeight);
+    }
+
+    public SimulationEngine(BallStore balls, int rectangleWidth, int rectangleHeight) {
+        mBalls = balls;
+        mRectangleWidth = rectangleWidth;
+        mRectangleHeight = rectangleHeight;
+    }
+
+    public BallStore getBalls() {
+        return mBalls;
+    }
+
+    public float getTimeTickValue() {
+        return mTimeTickValue;
+    }
+
+    public void setTimeTickValue(float timeTickValue) {
+        mTimeTickValue = timeTickValue;
+    }
+
+    public long getTickCount() {
+        return mTickCount;
+    }
+
+    /*
+     *  Moves the engine to given tick, used when state is restored from a recording
+     */
+    public void setTickCount(long tickCount) {
+        mTickCount = tickCount;
+    }
+
+    public float getAlpha() {
+        return mAlpha;
+    }
+
+    public void setAlpha(float alpha) {
+        mAlpha = alpha;
+        if (mTabulator != null) {
+            mForceField = mTabulator.request(mAlpha, mRectangleWidth, mRectangleHeight);
+        }
+        updateAcceleration();
+    }
+
+    public int getRectangleWidth() {
+        return mRectangleWidth;
+    }
+
+    public int getRectangleHeight() {
+        return mRectangleHeight;
+    }
+
+    public Integrator getIntegrator() {
+        return mIntegrator;
+    }
+
+    /*
+     *  Switches integration scheme. Accelerations are recomputed, since some
+     *  schemes rely on them being equal to the force at current positions.
+     *  Double precision state can not be used with forces between balls, see
+     *  setInteraction().
+     */
+    public void setIntegrator(Integrator integrator) {
+        if (mInteraction != null && isDoublePrecision(integrator)) {
+            throw new IllegalStateException("Forces between balls need float or kahan precision, not double");
+        }
+        mIntegrator = integrator;
+        updateAcceleration();
+    }
+
+    public CollisionGrid getCollisions() {
+        return mCollisions;
+    }
+
+    public void setCollisions(CollisionGrid collisions) {
+        mCollisions = collisions;
+    }
+
+    public void addTickObserver(TickObserver observer) {
+        TickObserver[] observers = Arrays.copyOf(mObservers, mObservers.length + 1);
+        observers[mObservers.length] = observer;
+        mObservers = observers;
+    }
+
+    public void removeTickObserver(TickObserver observer) {
+        for (int i = 0; i < mObservers.length; i++) {
+            if (mObservers[i] == observer) {
+                TickObserver[] observers = new TickObserver[mObservers.length - 1];
+                System.arraycopy(mObservers, 0, observers, 0, i);
+                System.arraycopy(mObservers, i + 1, observers, i, mObservers.length - i - 1);
+                mObservers = observers;
+                return;
+            }
+        }
+    }
+
+    /*
+     *  Tells observers that state was changed outside of ticks
+     */
+    public void notifyStateChanged() {
+        for (TickObserver observer : mObservers) {
+            observer.stateChanged(this);
+        }
+    }
+
+    public Telemetry getTelemetry() {
+        return mTelemetry;
+    }
+
+    public void setTelemetry(Telemetry telemetry) {
+        mTelemetry = telemetry;
+    }
+
+    public ParallelStepper getParallelStepper() {
+        return mParallelStepper;
+    }
+
+    public void setParallelStepper(ParallelStepper parallelStepper) {
+        mParallelStepper = parallelStepper;
+    }
+
+    /*
+     *  Vector API kernel if jdk.incubator.vector module is available and vectors
+     *  hold more than one float on this machine, null otherwise
+     */
+    public static StepKernel getVectorKernel() {
+        return mVectorKernel;
+    }
+
+    private static StepKernel createVectorKernel() {
+        try {
+            Class<?> kernelClass = Class.forName("ballsimulation.VectorStepKernel");
+            int lanes = (Integer)kernelClass.getMethod("getLaneCount").invoke(null);
+            if (lanes < 2) {
+                return null;
+            }
+            return (StepKernel)kernelClass.getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    public StepKernel getStepKernel() {
+        return mStepKernel;
+    }
+
+    /*
+     *  Kernel used for the tick loop, null selects the scalar loop
+     */
+    public void setStepKernel(StepKernel stepKernel) {
+        mStepKernel = stepKernel;
+    }
+
+    public String getStepKernelName() {
+        return mStepKernel != null && mForceField == null ? mStepKernel.getName() : "scalar";
+    }
+
+    public void setRectangleSize(int width, int height) {
+        mRectangleWidth = width;
+        mRectangleHeight = height;
+        if (mTabulator != null) {
+            mForceField = mTabulator.request(mAlpha, mRectangleWidth, mRectangleHeight);
+            updateAcceleration();
+        }
+    }
+
+    public ForceField getForceField() {
+        return mForceField;
+    }
+
+    /*
+     *  Replaces the wall force with field, null restores it. Drops the tabulator.
+     */
+    public void setForceField(ForceField field) {
+        mTabulator = null;
+        mForceField = field;
+        updateAcceleration();
+    }
+
+    public BallInteraction getInteraction() {
+        return mInteraction;
+    }
+
+    /*
+     *  Adds forces between balls from now on, null removes them. Their kicks
+     *  change the float velocities of BallStore, so double precision state no
+     *  longer rounds to them and is reloaded from the floats every tick: the
+     *  kicks survive, but the precision is lost, so it is rejected.
+     */
+    public void setInteraction(BallInteraction interaction) {
+        if (interaction != null && isDoublePrecision(mIntegrator)) {
+            throw new IllegalStateException("Forces between balls need float or kahan precision, not double");
+        }
+        mInteraction = interaction;
+        if (interaction != null) {
+            interaction.update(mBalls);
+        }
+    }
+
+    private static boolean isDoublePrecision(Integrator integrator) {
+        if (integrator instanceof EulerIntegrator) {
+            return ((EulerIntegrator)integrator).getPrecision() == PrecisionState.DOUBLE;
+        }
+        if (integrator instanceof VerletIntegrator) {
+            return ((VerletIntegrator)integrator).getPrecision() == PrecisionState.DOUBLE;
+        }
+        return false;
+    }
+
+    public ForceFieldTabulator getTabulator() {
+        return mTabulator;
+    }
+
+    /*
+     *  Lets tabulator keep the force field up to date from now on, null fixes
+     *  the current field
+     */
+    public void setTabulator(ForceFieldTabulator tabulator) {
+        mTabulator = tabulator;
+        if (tabulator != null) {
+            mForceField = tabulator.request(mAlpha, mRectangleWidth, mRectangleHeight);
+            updateAcceleration();
+        }
+    }
+
+    /*
+     *  Simulated time passed since the start, in the same units as time tick
+     */
+    public double getSimulatedTime() {
+        return mTickCount * (double)mTimeTickValue;
+    }
+
+    /*
+     *  Force of the wall potential along one axis at normalized coordinate x
+     */
+    public static float wallForce(float alpha, float x) {
+        return alpha * (2.0f * x - 1.0f) / (x * (1 - x));
+    }
+
+    public static double wallForce(double alpha, double x) {
+        return alpha * (2.0 * x - 1.0) / (x * (1 - x));
+    }
+
+    /*
+     *  Force of field at (x, y), or of the wall potential if field is null.
+     *  Tick loops read the field once and call these for every ball.
+     */
+    public static float forceX(ForceField field, float alpha, float x, float y) {
+        return field != null ? field.forceX(x, y) : wallForce(alpha, x);
+    }
+
+    public static float forceY(ForceField field, float alpha, float x, float y) {
+        return field != null ? field.forceY(x, y) : wallForce(alpha, y);
+    }
+
+    public static double forceX(ForceField field, double alpha, double x, double y) {
+        return field != null ? field.forceX(x, y) : wallForce(alpha, x);
+    }
+
+    public static double forceY(ForceField field, double alpha, double x, double y) {
+        return field != null ? field.forceY(x, y) : wallForce(alpha, y);
+    }
+
+    /*
+     *  Wall potential alpha * ln(x * (1 - x)) along one axis, its negative
+     *  derivative is wallForce()
+     */
+    public static double wallPotential(double alpha, double x) {
+        return alpha * Math.log(x * (1 - x));
+    }
+
+    /*
+     *  Total mechanical energy of ball per unit mass, conserved by exact motion.
+     *  Integrators which keep state more precise than floats compute it from
+     *  that state.
+     */
+    public double getEnergy(int i) {
+        return mIntegrator.getEnergy(this, i);
+    }
+
+    /*
+     *  Total mechanical energy per unit mass of a ball in the given state
+     */
+    public double getEnergy(double x, double y, double vx, double vy) {
+        if (mForceField != null) {
+            return 0.5 * (vx * vx + vy * vy) + mForceField.potential(x, y);
+        }
+        return 0.5 * (vx * vx + vy * vy) + wallPotential(mAlpha, x) + wallPotential(mAlpha, y);
+    }
+
+    public void updateAcceleration(int i) {
+        mBalls.accelerationX[i] = forceX(mForceField, mAlpha, mBalls.positionX[i], mBalls.positionY[i]);
+        mBalls.accelerationY[i] = forceY(mForceField, mAlpha, mBalls.positionX[i], mBalls.positionY[i]);
+    }
+
+    public void updateAcceleration() {
+        for (int i = 0; i < mBalls.size(); i++) {
+            updateAcceleration(i);
+        }
+    }
+
+    public void makeTick() {
+        Telemetry telemetry = mTelemetry;
+        boolean timed = telemetry != null && (mTickCount & (Telemetry.TICK_SAMPLE_INTERVAL - 1)) == 0;
+        long startTime = timed ? System.nanoTime() : 0;
+
+        if (mTabulator != null) {
+            TabulatedForceField table = mTabulator.poll();
+            if (table != null) {
+                mForceField = table;
+                updateAcceleration();
+            }
+        }
+
+        BallInteraction interaction = mInteraction;
+        if (interaction != null) {
+            interaction.kick(mBalls, 0.5f * mTimeTickValue);
+        }
+
+        mIntegrator.prepare(this);
+
+        if (mParallelStepper != null) {
+            mParallelStepper.step(this, mBalls.size());
+        }
+        else {
+            stepRange(0, mBalls.size());
+        }
+
+        if (mCollisions != null) {
+            mCollisions.resolve(this);
+        }
+
+        if (interaction != null) {
+            interaction.update(mBalls);
+            interaction.kick(mBalls, 0.5f * mTimeTickValue);
+        }
+
+        mTickCount++;
+
+        for (TickObserver observer : mObservers) {
+            observer.afterTick(this);
+        }
+
+        if (timed) {
+            telemetry.recordTimedTick(System.nanoTime() - startTime, mTimeTickValue);
+        }
+    }
+
+    /*
+     *  Advances balls [from, to) by one tick. Balls are independent, so disjoint
+     *  ranges may be stepped concurrently.
+     */
+    void stepRange(int from, int to) {
+        mIntegrator.stepRange(this, from, to);
+    }
+
+    /*
+     *  Explicit Euler step of balls [from, to) with SIMD kernel when available
+     */
+    void stepRangeEuler(int from, int to) {
+        if (mStepKernel != null && mForceField == null) {
+            mStepKernel.stepRange(this, from, to);
+        }
+        else {
+            stepRangeScalar(from, to);
+        }
+    }
+
+    /*
+     *  Reference scalar implementation of the tick loop, also used for the tail
+     *  of ranges which do not fill a whole vector
+     */
+    void stepRangeScalar(int from, int to) {
+        /* Hoist arrays and invariants into locals so the loop body touches only primitives */
+        final float[] px = mBalls.positionX;
+        final float[] py = mBalls.positionY;
+        final float[] vx = mBalls.velocityX;
+        final float[] vy = mBalls.velocityY;
+        final float[] ax = mBalls.accelerationX;
+        final float[] ay = mBalls.accelerationY;
+        final float[] d = mBalls.diameter;
+        final float dt = mTimeTickValue;
+        final float alpha = mAlpha;
+        final ForceField field = mForceField;
+        final float width = (float)mRectangleWidth;
+        final float height = (float)mRectangleHeight;
+
+        for (int i = from; i < to; i++) {
+            float x = px[i] + vx[i] * dt;
+            float y = py[i] + vy[i] * dt;
+            float velX = vx[i] + ax[i] * dt;
+            float velY = vy[i] + ay[i] * dt;
+
+            ax[i] = forceX(field, alpha, x, y);
+            ay[i] = forceY(field, alpha, x, y);
+
+            float rx = d[i] / width / 2.0f;
+            float ry = d[i] / height / 2.0f;
+
+            if (x <= rx || x >= 1 - rx) {
+                velX = -velX;
+            }
+
+            if (y <= ry || y >= 1 - ry) {
+                velY = -velY;
+            }
+
+            px[i] = x;
+            py[i] = y;
+            vx[i] = velX;
+            vy[i] = velY;
+        }
+    }
+
+    /*
+     *  Adds balls with uniformly random positions inside the rectangle and
+     *  velocity components in [-1, 1]
+     */
+    public void spawnRandomBalls(int count, float diameter, Random random) {
+        float rx = diameter / (float)mRectangleWidth / 2.0f;
+        float ry = diameter / (float)mRectangleHeight / 2.0f;
+
+        mBalls.ensureCapacity(mBalls.size() + count);
+        for (int i = 0; i < count; i++) {
+            int added = mBalls.add( rx + (1.0f - 2.0f * rx) * random.nextFloat(),
+                                    ry + (1.0f - 2.0f * ry) * random.nextFloat(),
+                                    2.0f * random.nextFloat() - 1.0f,
+                                    2.0f * random.nextFloat() - 1.0f,
+                                    diameter );
+            updateAcceleration(added);
+        }
+    }
+
+    public void makeTicks(long ticks) {
+        /* Integrators which skip ticks know nothing about balls meeting each other, observers need every tick */
+        if (ticks > 1 && mCollisions == null && mInteraction == null && mObservers.length == 0 && mIntegrator.advanceTicks(this, ticks)) {
+            mTickCount += ticks;
+            if (mTelemetry != null) {
+                mTelemetry.recordTicks(ticks, ticks * (double)mTimeTickValue);
+            }
+            return;
+        }
+
+        for (long i = 0; i < ticks; i++) {
+            makeTick();
+        }
+    }
+}
@@ -0,0 +1,665 @@
+package ballsimulation;
+
+import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/*
+ *  Draws simulation state and the control panel background.
+ *
+ *  Does not depend on any AWT component, so frames can be rendered into an
+ *  offscreen image without a display, e.g. in benchmarks.
+ *
+ *  Steady-state frames do not allocate: strokes, colors, fonts and shapes are
+ *  created once and the static control panel is drawn into a cached image
+ *  which is only redrawn after invalidateUI().
+ *
+ *  Balls are drawn either as antialiased Java2D shapes (quality mode) or by
+ *  stamping sprites straight into the pixels of the target image (sprite
+ *  mode). When balls outnumber pixels, their density is drawn instead
+ *  (heatmap mode). Auto mode picks one of them by number of balls.
+ */
+public class SimulationRenderer {
+
+    /*
+     *  Rendering parameters
+     */
+    private final int mWindowWidth;
+    private final int mWindowHeight;
+    private final int mUIWidth;
+
+    private final RenderingHints mRenderHints;
+
+    private final Color mBackgroundColor = Color.cyan;
+
+    /* Graphics which already has render hints set, they are set once per graphics */
+    private Graphics2D mPreparedGraphics;
+
+    /* Pre-rendered control panel background */
+    private BufferedImage mUILayer;
+    private boolean mUILayerValid = false;
+
+    private final Font mTitleFont = new Font("TimesRoman", Font.PLAIN, 24);
+    private final Font mHeaderFont = new Font("TimesRoman", Font.PLAIN, 20);
+
+    /* Text shown over the top left corner of the simulation, e.g. live statistics */
+    private String[] mOverlayLines;
+    private final Font mOverlayFont = new Font("Monospaced", Font.PLAIN, 12);
+    private int mOverlayLineHeight = 16;
+
+
+    /*
+     *  Visual parameters
+     */
+    private final int mRectangleLineWidth = 6;
+    private final BasicStroke mRectangleStroke = new BasicStroke(mRectangleLineWidth);
+    private int mRectangleXStart;
+    private int mRectangleYStart;
+    private int mRectangleWidth;
+    private int mRectangleHeight;
+
+    private boolean mShowArrows = false;
+    private int mSelectedBall = 0;
+
+    private final String mSimulationName = "Ball simulation";
+
+    /* Ball shape reused for every ball, fillOval() allocates one per call with antialiasing */
+    private final Ellipse2D.Float mBallShape = new Ellipse2D.Float();
+
+    /* Arrow geometry, filled in place for every arrow */
+    private final int mArrowLineWidth = 2;
+    private final BasicStroke mArrowStroke = new BasicStroke(mArrowLineWidth);
+    private final int[] mArrowHeadX = new int[4];
+    private final int[] mArrowHeadY = new int[4];
+
+
+    /* Trails of all balls, sampled every tail interval ticks */
+    private final TrailBuffer mTrails;
+    private int mTailInterval = 10;
+    private long mLastTailTick = 0;
+    private boolean mShowTail = false;
+
+    public static final int MAX_TAIL_LENGTH = 4096;
+    public static final int MAX_TAIL_INTERVAL = 1000;
+
+    /* One trail in pixels, reused for every ball */
+    private int[] mTrailX;
+    private int[] mTrailY;
+
+    private final BasicStroke mTrailStroke = new BasicStroke(1);
+    private final BasicStroke mSelectedTrailStroke = new BasicStroke(2);
+
+
+    /*
+     *  Render modes
+     */
+    public static final int MODE_AUTO = 0;
+    public static final int MODE_QUALITY = 1;
+    public static final int MODE_SPRITE = 2;
+    public static final int MODE_HEATMAP = 3;
+
+    public static final int DEFAULT_SPRITE_THRESHOLD = 2000;
+    public static final int DEFAULT_HEATMAP_THRESHOLD = 500000;
+
+    private int mRenderMode = MODE_AUTO;
+    private int mSpriteThreshold = DEFAULT_SPRITE_THRESHOLD;
+    private int mHeatmapThreshold = DEFAULT_HEATMAP_THRESHOLD;
+
+    private final SpriteRasterizer mSprites = new SpriteRasterizer();
+    private final DensityHeatmap mHeatmap = new DensityHeatmap();
+
+    /* Pixels of the last target image */
+    private BufferedImage mTargetImage;
+    private int[] mTargetPixels;
+
+
+    public SimulationRenderer(int windowWidth, int windowHeight, int uiWidth) {
+        mWindowWidth = windowWidth;
+        mWindowHeight = windowHeight;
+        mUIWidth = uiWidth;
+
+        /* Improve rendering quality by enabling antialiasing */
+        mRenderHints = new RenderingHints(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        mRenderHints.put(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        mRenderHints.put(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
+        mRenderHints.put(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
+        mRenderHints.put(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_ENABLE);
+        mRenderHints.put(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+        mRenderHints.put(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        mRenderHints.put(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+
+        mTrails = new TrailBuffer(500);
+        mTrailX = new int[mTrails.getLength()];
+        mTrailY = new int[mTrails.getLength()];
+    }
+
+    public RenderingHints getRenderingHints() {
+        return mRenderHints;
+    }
+
+    public Color getBackgroundColor() {
+        return mBackgroundColor;
+    }
+
+    public void setRectangle(int xStart, int yStart, int width, int height) {
+        mRectangleXStart = xStart;
+        mRectangleYStart = yStart;
+        mRectangleWidth = width;
+        mRectangleHeight = height;
+    }
+
+    public int getRenderMode() {
+        return mRenderMode;
+    }
+
+    public void setRenderMode(int renderMode) {
+        if (renderMode < MODE_AUTO || renderMode > MODE_HEATMAP) {
+            throw new IllegalArgumentException("Unknown render mode " + renderMode);
+        }
+        mRenderMode = renderMode;
+    }
+
+    public int getSpriteThreshold() {
+        return mSpriteThreshold;
+    }
+
+    /*
+     *  Number of balls from which auto mode switches to sprites
+     */
+    public void setSpriteThreshold(int spriteThreshold) {
+        mSpriteThreshold = spriteThreshold;
+    }
+
+    public int getHeatmapThreshold() {
+        return mHeatmapThreshold;
+    }
+
+    /*
+     *  Number of balls from which auto mode draws density instead of balls
+     */
+    public void setHeatmapThreshold(int heatmapThreshold) {
+        mHeatmapThreshold = heatmapThreshold;
+    }
+
+    /*
+     *  Mode which draws given number of balls, never auto
+     */
+    public int resolveRenderMode(int count) {
+        if (mRenderMode != MODE_AUTO) {
+            return mRenderMode;
+        }
+        if (count >= mHeatmapThreshold) {
+            return MODE_HEATMAP;
+        }
+        return count >= mSpriteThreshold ? MODE_SPRITE : MODE_QUALITY;
+    }
+
+    public static String getRenderModeName(int renderMode) {
+        switch (renderMode) {
+            case MODE_AUTO:    return "auto";
+            case MODE_QUALITY: return "quality";
+            case MODE_SPRITE:  return "sprite";
+            case MODE_HEATMAP: return "heatmap";
+            default:           return "unknown";
+        }
+    }
+
+    public void shutdown() {
+        mSprites.shutdown();
+        mHeatmap.shutdown();
+    }
+
+    public void setShowArrows(boolean showArrows) {
+        mShowArrows = showArrows;
+    }
+
+    public void setShowTail(boolean showTail) {
+        mShowTail = showTail;
+        if (!mShowTail) {
+            mTrails.clear();
+        }
+    }
+
+    public void setSelectedBall(int selectedBall) {
+        mSelectedBall = selectedBall;
+    }
+
+    /*
+     *  Lines drawn over the simulation every frame until set to null. Lines are
+     *  kept, not copied, so callers replace the array instead of changing it.
+     */
+    public void setOverlayLines(String[] lines) {
+        mOverlayLines = lines;
+    }
+
+    public int getTailLength() {
+        return mTrails.getLength();
+    }
+
+    /*
+     *  Number of points kept per ball, restarts all trails
+     */
+    public void setTailLength(int length) {
+        length = Math.max(2, Math.min(length, MAX_TAIL_LENGTH));
+        if (length == mTrails.getLength()) {
+            return;
+        }
+        mTrails.setLength(length);
+        if (length > mTrailX.length) {
+            mTrailX = new int[length];
+            mTrailY = new int[length];
+        }
+    }
+
+    public int getTailInterval() {
+        return mTailInterval;
+    }
+
+    /*
+     *  Number of ticks between two trail points
+     */
+    public void setTailInterval(int interval) {
+        mTailInterval = Math.max(1, Math.min(interval, MAX_TAIL_INTERVAL));
+    }
+
+    /*
+     *  Adds a trail point for every ball once per tail interval ticks. Frames
+     *  are slower than ticks at high speed, then a point is added every frame
+     *  which crossed an interval boundary.
+     */
+    public void recordTail(StateSnapshot snapshot) {
+        if (mShowTail && snapshot.tickCount / mTailInterval != mLastTailTick / mTailInterval) {
+            mTrails.record(snapshot.balls);
+        }
+        mLastTailTick = snapshot.tickCount;
+    }
+
+    /*
+     *  Draws a complete frame: background, simulation and control panel
+     */
+    public void renderFrame(Graphics g, StateSnapshot snapshot) {
+        renderFrame(g, null, snapshot);
+    }
+
+    /*
+     *  Draws a complete frame into image through its graphics g. Sprite mode
+     *  needs the image, without it balls are always drawn in quality mode.
+     */
+    public void renderFrame(Graphics g, BufferedImage image, StateSnapshot snapshot) {
+        renderSimulation(g, image, snapshot);
+        renderUI(g);
+    }
+
+    /*
+     *  Draws the simulation area alone: background, simulation and overlay.
+     *  Pixels outside the clip of g may be stamped with sprites, but only
+     *  within getDrawnBounds().
+     */
+    public void renderSimulation(Graphics g, BufferedImage image, StateSnapshot snapshot) {
+        g.setColor(mBackgroundColor);
+        g.fillRect(mUIWidth, 0, mWindowWidth - mUIWidth, mWindowHeight);
+        g.setColor(Color.black);
+
+        drawSimulation(g, image, snapshot);
+        drawOverlay(g);
+    }
+
+    /*
+     *  Draws the control panel from its cached copy
+     */
+    public void renderUI(Graphics g) {
+        if (!mUILayerValid) {
+            if (mUILayer == null) {
+                mUILayer = new BufferedImage(mUIWidth, mWindowHeight, BufferedImage.TYPE_INT_ARGB);
+            }
+            Graphics2D layerGraphics = mUILayer.createGraphics();
+            layerGraphics.setRenderingHints(mRenderHints);
+            drawUI(layerGraphics);
+            layerGraphics.dispose();
+            mUILayerValid = true;
+        }
+        g.drawImage(mUILayer, 0, 0, null);
+    }
+
+    private void drawOverlay(Graphics g) {
+        String[] lines = mOverlayLines;
+        if (lines == null) {
+            return;
+        }
+
+        g.setColor(Color.black);
+        g.setFont(mOverlayFont);
+        int lineHeight = g.getFontMetrics().getHeight();
+        mOverlayLineHeight = lineHeight;
+        for (int i = 0; i < lines.length; i++) {
+            g.drawString(lines[i], mUIWidth + 8, 4 + (i + 1) * lineHeight);
+        }
+    }
+
+    /*
+     *  Sets bounds to the part of the simulation area renderSimulation()
+     *  changes for snapshot with current settings, all of it with trails or
+     *  the heatmap. Everything else in the area is plain background and the
+     *  rectangle, so a frame needs to redraw only these bounds and those of
+     *  the frame before.
+     */
+    public void getDrawnBounds(StateSnapshot snapshot, BufferedImage image, Rectangle bounds) {
+        BallStore balls = snapshot.balls;
+        int mode = getPixels(image) != null ? resolveRenderMode(balls.size()) : MODE_QUALITY;
+        if (mShowTail || mode == MODE_HEATMAP) {
+            bounds.setBounds(mUIWidth, 0, mWindowWidth - mUIWidth, mWindowHeight);
+            return;
+        }
+
+        /* Ball extents in pixels with a margin for antialiasing */
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < balls.size(); i++) {
+            int x = mRectangleXStart + Math.round(balls.positionX[i] * mRectangleWidth);
+            int y = mRectangleYStart + Math.round(balls.positionY[i] * mRectangleHeight);
+            int r = (int)balls.diameter[i] / 2 + 2;
+            minX = Math.min(minX, x - r);
+            minY = Math.min(minY, y - r);
+            maxX = Math.max(maxX, x + r);
+            maxY = Math.max(maxY, y + r);
+        }
+
+        if (mShowArrows && mSelectedBall < balls.size()) {
+            int x = mRectangleXStart + Math.round(balls.positionX[mSelectedBall] * mRectangleWidth);
+            int y = mRectangleYStart + Math.round(balls.positionY[mSelectedBall] * mRectangleHeight);
+            int r = 50 + 5 * mArrowLineWidth;
+            minX = Math.min(minX, x - r);
+            minY = Math.min(minY, y - r);
+            maxX = Math.max(maxX, x + r);
+            maxY = Math.max(maxY, y + r);
+        }
+
+        String[] lines = mOverlayLines;
+        if (lines != null) {
+            minX = Math.min(minX, mUIWidth);
+            minY = 0;
+            maxX = Math.max(maxX, mWindowWidth);
+            maxY = Math.max(maxY, 4 + (lines.length + 1) * mOverlayLineHeight);
+        }
+
+        if (minX > maxX) {
+            bounds.setBounds(mUIWidth, 0, 0, 0);
+            return;
+        }
+        minX = Math.max(minX, mUIWidth);
+        minY = Math.max(minY, 0);
+        maxX = Math.min(maxX, mWindowWidth);
+        maxY = Math.min(maxY, mWindowHeight);
+        bounds.setBounds(minX, minY, Math.max(maxX - minX, 0), Math.max(maxY - minY, 0));
+    }
+
+    /*
+     *  Makes next frame redraw the cached control panel
+     */
+    public void invalidateUI() {
+        mUILayerValid = false;
+    }
+
+    /*
+     *  Sets render hints unless they were already set on this graphics
+     */
+    private Graphics2D prepare(Graphics g) {
+        Graphics2D g2 = (Graphics2D) g;
+        if (g2 != mPreparedGraphics) {
+            g2.setRenderingHints(mRenderHints);
+            mPreparedGraphics = g2;
+        }
+        return g2;
+    }
+
+    /*
+     *  Draws an arrow of fixed length from (x1, y1) towards (x2, y2)
+     */
+    void drawArrow(Graphics2D g2, int x1, int y1, int x2, int y2, Color color) {
+        g2.setStroke(mArrowStroke);
+        g2.setColor(color);
+
+        double angle = Math.atan2(y2 - y1, x2 - x1);
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+        int len = 50;
+        int arLen = 4 * mArrowLineWidth;
+
+        g2.drawLine(x1, y1, x1 + (int)Math.round(len * cos), y1 + (int)Math.round(len * sin));
+
+        /* Arrow head is a triangle with its tip at the end of the line */
+        mArrowHeadX[0] = x1 + (int)Math.round(len * cos);
+        mArrowHeadY[0] = y1 + (int)Math.round(len * sin);
+        mArrowHeadX[1] = x1 + (int)Math.round((len - arLen) * cos + arLen * sin);
+        mArrowHeadY[1] = y1 + (int)Math.round((len - arLen) * sin - arLen * cos);
+        mArrowHeadX[2] = x1 + (int)Math.round((len - arLen) * cos - arLen * sin);
+        mArrowHeadY[2] = y1 + (int)Math.round((len - arLen) * sin + arLen * cos);
+        mArrowHeadX[3] = mArrowHeadX[0];
+        mArrowHeadY[3] = mArrowHeadY[0];
+        g2.fillPolygon(mArrowHeadX, mArrowHeadY, 4);
+    }
+
+    public void drawSimulation(Graphics g, StateSnapshot snapshot) {
+        drawSimulation(g, null, snapshot);
+    }
+
+    public void drawSimulation(Graphics g, BufferedImage image, StateSnapshot snapshot) {
+        BallStore balls = snapshot.balls;
+
+        Graphics2D g2 = prepare(g);
+        g2.setStroke(mRectangleStroke);
+
+        int[] pixels = getPixels(image);
+        int mode = pixels != null ? resolveRenderMode(balls.size()) : MODE_QUALITY;
+
+        /* Heatmap covers the whole rectangle, everything else goes on top of it */
+        if (mode == MODE_HEATMAP) {
+            mHeatmap.setColors(mBackgroundColor.getRGB(), Color.black.getRGB());
+            mHeatmap.setRectangle(mRectangleXStart, mRectangleYStart, mRectangleWidth, mRectangleHeight);
+            mHeatmap.draw(pixels, image.getWidth(), image.getHeight(), balls);
+        }
+
+        if (mShowTail) {
+            drawTrails(g2, balls, mode != MODE_HEATMAP);
+        }
+
+        g.drawRect( mRectangleXStart,
+                    mRectangleYStart,
+                    mRectangleWidth,
+                    mRectangleHeight );
+
+        if (mode == MODE_HEATMAP) {
+            g2.setColor(Color.black);
+            if (mSelectedBall < balls.size()) {
+                fillBall(g2, balls.positionX[mSelectedBall], balls.positionY[mSelectedBall], (int)balls.diameter[mSelectedBall]);
+            }
+        }
+        else if (mode == MODE_SPRITE) {
+            mSprites.setColors(Color.darkGray.getRGB(), Color.black.getRGB());
+            mSprites.setRectangle(mRectangleXStart, mRectangleYStart, mRectangleWidth, mRectangleHeight);
+            mSprites.draw(pixels, image.getWidth(), image.getHeight(), balls, mSelectedBall);
+        }
+        else {
+            g2.setColor(Color.darkGray);
+            for (int i = 0; i < balls.size(); i++) {
+                if (i != mSelectedBall) {
+                    fillBall(g2, balls.positionX[i], balls.positionY[i], (int)balls.diameter[i]);
+                }
+            }
+            g2.setColor(Color.black);
+            if (mSelectedBall < balls.size()) {
+                fillBall(g2, balls.positionX[mSelectedBall], balls.positionY[mSelectedBall], (int)balls.diameter[mSelectedBall]);
+            }
+        }
+
+        if (mShowArrows && mSelectedBall < balls.size()) {
+            float ballX = balls.positionX[mSelectedBall];
+            float ballY = balls.positionY[mSelectedBall];
+
+            drawArrow(  g2,
+                        mRectangleXStart + Math.round(ballX * mRectangleWidth),
+                        mRectangleYStart + Math.round(ballY * mRectangleHeight),
+                        mRectangleXStart + Math.round((ballX + balls.velocityX[mSelectedBall]) * mRectangleWidth),
+                        mRectangleYStart + Math.round((ballY + balls.velocityY[mSelectedBall]) * mRectangleHeight),
+                        Color.blue );
+
+            drawArrow(  g2,
+                        mRectangleXStart + Math.round(ballX * mRectangleWidth),
+                        mRectangleYStart + Math.round(ballY * mRectangleHeight),
+                        mRectangleXStart + Math.round((ballX + balls.accelerationX[mSelectedBall]) * mRectangleWidth),
+                        mRectangleYStart + Math.round((ballY + balls.accelerationY[mSelectedBall]) * mRectangleHeight),
+                        Color.red );
+
+            g2.setColor(Color.black);
+            g2.setStroke(mRectangleStroke);
+        }
+    }
+
+    /*
+     *  Pixel array of an opaque int image, null if sprites cannot be stamped into it
+     */
+    private int[] getPixels(BufferedImage image) {
+        if (image == null) {
+            return null;
+        }
+        if (image != mTargetImage) {
+            int type = image.getType();
+            mTargetImage = image;
+            mTargetPixels = type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB
+                          ? ((DataBufferInt)image.getRaster().getDataBuffer()).getData()
+                          : null;
+        }
+        return mTargetPixels;
+    }
+
+    /*
+     *  Draws every trail as one polyline, trail of selected ball on top. Other
+     *  balls are left out if their trails would only cover the heatmap.
+     */
+    private void drawTrails(Graphics2D g2, BallStore balls, boolean allBalls) {
+        if (mTrails.size() < 2) {
+            return;
+        }
+
+        g2.setStroke(mTrailStroke);
+        g2.setColor(Color.gray);
+        for (int i = 0; allBalls && i < balls.size(); i++) {
+            if (i != mSelectedBall) {
+                int points = mTrails.copyPath(i, mRectangleXStart, mRectangleYStart, mRectangleWidth, mRectangleHeight, mTrailX, mTrailY);
+                g2.drawPolyline(mTrailX, mTrailY, points);
+            }
+        }
+
+        g2.setStroke(mSelectedTrailStroke);
+        g2.setColor(Color.darkGray);
+        int points = mTrails.copyPath(mSelectedBall, mRectangleXStart, mRectangleYStart, mRectangleWidth, mRectangleHeight, mTrailX, mTrailY);
+        g2.drawPolyline(mTrailX, mTrailY, points);
+
+        g2.setColor(Color.black);
+        g2.setStroke(mRectangleStroke);
+    }
+
+    /*
+     *  Fills a circle at position given in rectangle fractions, same pixels as fillOval()
+     */
+    private void fillBall(Graphics2D g2, float x, float y, int diameter) {
+        mBallShape.x = mRectangleXStart + Math.round(x * mRectangleWidth) - diameter / 2;
+        mBallShape.y = mRectangleYStart + Math.round(y * mRectangleHeight) - diameter / 2;
+        mBallShape.width = diameter;
+        mBallShape.height = diameter;
+        g2.fill(mBallShape);
+    }
+
+    /*
+     *  Draws background of the control panel, the controls themselves are AWT
+     *  components on top of it. Frames use its cached copy.
+     */
+    public void drawUI(Graphics g) {
+        g.setColor(Color.darkGray);
+        g.fillRect(0, 0, mUIWidth, mWindowHeight);
+
+        g.setColor(Color.gray);
+        g.fillRoundRect(0, 0, mUIWidth, mWindowHeight, 50, 50);
+
+        /* Draw simulation name */
+        {
+            g.setColor(Color.lightGray);
+            g.fillRoundRect(40, 50, mUIWidth - 2 * 40, 35, 15, 15);
+
+            g.setColor(Color.darkGray);
+            g.setFont(mTitleFont);
+
+            FontMetrics fm = g.getFontMetrics();
+            int x = 40 + (mUIWidth - 2 * 40 - fm.stringWidth(mSimulationName)) / 2;
+            int y = 50 + (35 - fm.getHeight()) + fm.getAscent();
+            g.drawString(mSimulationName, x, y);
+        }
+
+        /* Draw simulation parameters header */
+        {
+            g.setColor(Color.lightGray);
+            g.fillRoundRect(40, 150, mUIWidth - 2 * 40, 285, 15, 15);
+
+            String header = "Simulation parameters";
+
+            g.setColor(Color.darkGray);
+            g.setFont(mHeaderFont);
+
+            FontMetrics fm = g.getFontMetrics();
+            int x = 40 + (mUIWidth - 2 * 40 - fm.stringWidth(header)) / 2;
+            int y = 150 + (35 - fm.getHeight()) + fm.getAscent();
+            g.drawString(header, x, y);
+        }
+
+        /* Draw simulation speed slider */
+        {
+            g.setColor(Color.lightGray);
+            g.fillRoundRect(40, 440, mUIWidth - 2 * 40, 90, 15, 15);
+
+            String header = "Simulation speed";
+
+            g.setColor(Color.darkGray);
+            g.setFont(mHeaderFont);
+
+            FontMetrics fm = g.getFontMetrics();
+            int x = 40 + (mUIWidth - 2 * 40 - fm.stringWidth(header)) / 2;
+            int y = 440 + (35 - fm.getHeight()) + fm.getAscent();
+            g.drawString(header, x, y);
+        }
+
+        /* Draw rectangle width slider */
+        {
+            g.setColor(Color.lightGray);
+            g.fillRoundRect(40, 550, mUIWidth - 2 * 40, 90, 15, 15);
+
+            String header = "Rectangle width";
+
+            g.setColor(Color.darkGray);
+            g.setFont(mHeaderFont);
+
+            FontMetrics fm = g.getFontMetrics();
+            int x = 40 + (mUIWidth - 2 * 40 - fm.stringWidth(header)) / 2;
+            int y = 550 + (35 - fm.getHeight()) + fm.getAscent();
+            g.drawString(header, x, y);
+        }
+
+        /* Draw rectangle height slider */
+        {
+            g.setColor(Color.lightGray);
+            g.fillRoundRect(40, 660, mUIWidth - 2 * 40, 90, 15, 15);
+
+            String header = "Rectangle height";
+
+            g.setColor(Color.darkGray);
+            g.setFont(mHeaderFont);
+
+            FontMetrics fm = g.getFontMetrics();
+            int x = 40 + (mUIWidth - 2 * 40 - fm.stringWidth(header)) / 2;
+            int y = 660 + (35 - fm.getHeight()) + fm.getAscent();
+            g.drawString(header, x, y);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package ballsimulation;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ *  Runs the physics on its own thread at a fixed tick rate.
+ *
+ *  Completed state is published through a SnapshotBuffer, so rendering never
+ *  waits for the physics and never sees a half-updated tick. Every change of the
+ *  simulation made from other threads must be posted as a command, commands are
+ *  executed on this thread between ticks.
+ *
+ *  In warp mode the tick rate is not fixed: every frame period ticks run for
+ *  the warp budget, as many as fit, and only the state reached at the end of
+ *  it is published. The rest of the period is left to rendering.
+ */
+public class SimulationThread extends Thread {
+
+    /* Upper bound of ticks executed in one batch, protects against spiralling when ticks are too slow */
+    private final int mMaxTicksPerBatch = 1000;
+
+    /* Minimal interval between publications, no need to copy state faster than it can be shown */
+    private final long mPublishIntervalNanos = 4000000;
+
+    /* How long to sleep while paused before checking for commands again */
+    private final long mPausedParkNanos = 10000000;
+
+    /* Warp mode spends the budget of every frame period on ticks */
+    private final long mWarpPeriodNanos = 16666667;
+    private final long mWarpBudgetNanos = 12000000;
+
+    /* Warp batches between two clock readings take about this long */
+    private final long mWarpBatchNanos = 1000000;
+
+    /* Interval over which the achieved tick rate is averaged */
+    private final long mRateIntervalNanos = 500000000;
+
+    private final SimulationEngine mEngine;
+    private final SnapshotBuffer mSnapshots = new SnapshotBuffer();
+
+    /* Buffers of further readers, such as a StateServer, published to together with mSnapshots */
+    private SnapshotBuffer[] mExtraSnapshots = new SnapshotBuffer[0];
+    private final ConcurrentLinkedQueue<Runnable> mCommands = new ConcurrentLinkedQueue<Runnable>();
+
+    private volatile boolean mRunning = true;
+    private volatile boolean mPaused = true;
+    private volatile double mTicksPerSecond = 60.0;
+    private volatile boolean mWarp = false;
+    private volatile double mAchievedTicksPerSecond = 0;
+
+    /* Measured cost of a tick per ball, sizes warp batches as the ball count changes */
+    private double mWarpBallTickNanos = 100;
+
+    private long mRateStartTime = System.nanoTime();
+    private long mRateTicks = 0;
+
+
+    public SimulationThread(SimulationEngine engine) {
+        super("Simulation");
+        setDaemon(true);
+        mEngine = engine;
+
+        /* Readers must see a valid state even before the thread is started */
+        publish();
+    }
+
+    public SnapshotBuffer getSnapshots() {
+        return mSnapshots;
+    }
+
+    /*
+     *  Schedules command for execution on simulation thread before the next tick
+     */
+    public void post(Runnable command) {
+        mCommands.add(command);
+        LockSupport.unpark(this);
+    }
+
+    /*
+     *  Publishes state into buffer as well from the next publication on,
+     *  which comes right away even while paused
+     */
+    public void addSnapshotBuffer(final SnapshotBuffer buffer) {
+        post(new Runnable() {
+            public void run() {
+                SnapshotBuffer[] buffers = Arrays.copyOf(mExtraSnapshots, mExtraSnapshots.length + 1);
+                buffers[buffers.length - 1] = buffer;
+                mExtraSnapshots = buffers;
+            }
+        });
+    }
+
+    public void setPaused(boolean paused) {
+        mPaused = paused;
+        LockSupport.unpark(this);
+    }
+
+    public boolean isPaused() {
+        return mPaused;
+    }
+
+    public void setTicksPerSecond(double ticksPerSecond) {
+        mTicksPerSecond = ticksPerSecond;
+        LockSupport.unpark(this);
+    }
+
+    public double getTicksPerSecond() {
+        return mTicksPerSecond;
+    }
+
+    public void setWarp(boolean warp) {
+        mWarp = warp;
+        LockSupport.unpark(this);
+    }
+
+    public boolean isWarp() {
+        return mWarp;
+    }
+
+    /*
+     *  Ticks per second actually executed, averaged over the last half second
+     */
+    public double getAchievedTicksPerSecond() {
+        return mAchievedTicksPerSecond;
+    }
+
+    public void shutdown() {
+        mRunning = false;
+        LockSupport.unpark(this);
+    }
+
+    @Override
+    public void run() {
+        long nextTickTime = System.nanoTime();
+        long lastPublishTime = nextTickTime;
+        long warpFrameStart = nextTickTime;
+        boolean dirty = false;
+
+        while (mRunning) {
+            dirty |= executeCommands();
+
+            long now = System.nanoTime();
+            if (mPaused) {
+                if (dirty) {
+                    publish();
+                    dirty = false;
+                }
+                mAchievedTicksPerSecond = 0;
+                LockSupport.parkNanos(mPausedParkNanos);
+                nextTickTime = System.nanoTime();
+                continue;
+            }
+
+            if (mWarp) {
+                if (now - warpFrameStart >= mWarpPeriodNanos) {
+                    warpFrameStart = now;
+                }
+                if (warpFrameStart + mWarpBudgetNanos - now > 0) {
+                    long ticks = runWarpTicks(warpFrameStart + mWarpBudgetNanos);
+                    countTicks(ticks);
+                    dirty |= ticks > 0;
+                }
+                if (dirty) {
+                    /* Renderer sees only the end of the budget, trails sample it once per frame */
+                    publish();
+                    lastPublishTime = System.nanoTime();
+                    dirty = false;
+                }
+                long wait = warpFrameStart + mWarpPeriodNanos - System.nanoTime();
+                if (wait > 0 && mCommands.isEmpty()) {
+                    LockSupport.parkNanos(wait);
+                }
+                /* Fixed rate resumes from now instead of catching up */
+                nextTickTime = System.nanoTime();
+                continue;
+            }
+
+            /* Fixed timestep: run every tick whose scheduled time has already come */
+            long tickPeriod = (long)(1e9 / mTicksPerSecond);
+            int ticks = 0;
+            if (now - nextTickTime >= 0) {
+                ticks = (int)Math.min((now - nextTickTime) / tickPeriod + 1, mMaxTicksPerBatch);
+                mEngine.makeTicks(ticks);
+                nextTickTime += ticks * tickPeriod;
+            }
+            countTicks(ticks);
+            if (ticks == mMaxTicksPerBatch) {
+                /* Physics can not keep up with requested rate, drop the backlog instead of accumulating it */
+                nextTickTime = System.nanoTime();
+            }
+            dirty |= ticks > 0;
+
+            now = System.nanoTime();
+            if (dirty && now - lastPublishTime >= mPublishIntervalNanos) {
+                publish();
+                lastPublishTime = now;
+                dirty = false;
+            }
+
+            long wakeTime = dirty ? Math.min(nextTickTime, lastPublishTime + mPublishIntervalNanos) : nextTickTime;
+            long wait = wakeTime - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+    /*
+     *  Runs ticks in batches until deadline or until a command arrives. Batch
+     *  size follows the measured cost per ball and tick, so a batch takes about
+     *  mWarpBatchNanos right after the ball count changes too, and the last one
+     *  ends near the deadline.
+     */
+    private long runWarpTicks(long deadline) {
+        long ticks = 0;
+        while (mRunning && mWarp && !mPaused && mCommands.isEmpty()) {
+            long start = System.nanoTime();
+            long remaining = deadline - start;
+            if (remaining <= 0) {
+                break;
+            }
+            int balls = Math.max(mEngine.getBalls().size(), 1);
+            long batch = Math.max(1, (long)(Math.min(mWarpBatchNanos, remaining) / (mWarpBallTickNanos * balls)));
+            mEngine.makeTicks(batch);
+            ticks += batch;
+
+            double cost = (double)(System.nanoTime() - start) / ((double)batch * balls);
+            mWarpBallTickNanos = 0.5 * (mWarpBallTickNanos + Math.max(cost, 0.01));
+        }
+        return ticks;
+    }
+
+    private void countTicks(long ticks) {
+        mRateTicks += ticks;
+        long now = System.nanoTime();
+        if (now - mRateStartTime >= mRateIntervalNanos) {
+            mAchievedTicksPerSecond = mRateTicks * 1e9 / (now - mRateStartTime);
+            mRateStartTime = now;
+            mRateTicks = 0;
+        }
+    }
+
+    private boolean executeCommands() {
+        boolean executed = false;
+        Runnable command;
+        while ((command = mCommands.poll()) != null) {
+            command.run();
+            executed = true;
+        }
+        if (executed) {
+            mEngine.notifyStateChanged();
+        }
+        return executed;
+    }
+
+    private void publish() {
+        mSnapshots.getBack().copyFrom(mEngine);
+        mSnapshots.publish();
+        for (SnapshotBuffer buffer : mExtraSnapshots) {
+            buffer.getBack().copyFrom(mEngine);
+            buffer.publish();
+        }
+    }
+}
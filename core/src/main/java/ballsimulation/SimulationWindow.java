@@ -0,0 +1,46 @@
+package ballsimulation;
+
+import java.awt.Frame;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+
+/*
+ *  Standalone window hosting BallSimulation, in place of the applet viewers
+ *  which current JDKs no longer have.
+ *
+ *  Drives the same life cycle an applet viewer did: init() before the window
+ *  is shown, start() once it is visible, since the buffer strategy of the
+ *  canvas needs a displayable component, and stop() and destroy() when it
+ *  is closed.
+ */
+public class SimulationWindow extends Frame {
+
+    private final BallSimulation mSimulation;
+
+
+    public SimulationWindow(BallSimulation simulation) {
+        super("Ball Simulation");
+        mSimulation = simulation;
+        add(simulation);
+
+        addWindowListener(new WindowAdapter() {
+            public void windowClosing(WindowEvent event) {
+                close();
+            }
+        });
+    }
+
+    public void open() {
+        mSimulation.init();
+        pack();
+        setResizable(false);
+        setVisible(true);
+        mSimulation.start();
+    }
+
+    public void close() {
+        mSimulation.stop();
+        mSimulation.destroy();
+        dispose();
+    }
+}
@@ -0,0 +1,131 @@
+package ballsimulation;
+
+/*
+ *  Autocorrelation of a signal over its last window samples for lags
+ *  0..max lag.
+ *
+ *  Adding a sample only stores it, sums of lagged products are computed from
+ *  the window when a correlation is read after samples were added, so the
+ *  O(window * max lag) work is paid per query instead of O(max lag) per
+ *  sample. Samples are added far more often than correlations are read.
+ *  Samples are stored twice, window apart, so the window is always one
+ *  contiguous run of the array.
+ */
+public class SlidingAutocorrelation {
+
+    /* Sample i of the window is at mHead + i, both copies of a sample are kept equal */
+    private final double[] mSamples;
+    private final int mWindow;
+    private final int mMaxLag;
+
+    /* Sum of s[i] * s[i + lag] over all pairs inside the window, indexed by lag, valid unless mStale */
+    private final double[] mLagSums;
+    private double mSum = 0;
+    private boolean mStale = false;
+
+    /* Index of the oldest sample and number of samples in the window */
+    private int mHead = 0;
+    private int mSize = 0;
+
+
+    public SlidingAutocorrelation(int window, int maxLag) {
+        if (window < 2 || maxLag < 0 || maxLag >= window) {
+            throw new IllegalArgumentException("Window must hold at least 2 samples and more than max lag");
+        }
+        mSamples = new double[2 * window];
+        mWindow = window;
+        mMaxLag = maxLag;
+        mLagSums = new double[maxLag + 1];
+    }
+
+    public int getWindow() {
+        return mWindow;
+    }
+
+    public int getMaxLag() {
+        return mMaxLag;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        mHead = 0;
+        mSize = 0;
+        mSum = 0;
+        mStale = false;
+        for (int k = 0; k <= mMaxLag; k++) {
+            mLagSums[k] = 0;
+        }
+    }
+
+    public void add(double value) {
+        if (mSize == mWindow) {
+            /* Oldest sample leaves, the new one takes both of its places */
+            int head = mHead;
+            mSamples[head] = value;
+            mSamples[head + mWindow] = value;
+            mHead = head + 1 < mWindow ? head + 1 : 0;
+        }
+        else {
+            int tail = mHead + mSize;
+            mSamples[tail] = value;
+            mSamples[tail < mWindow ? tail + mWindow : tail - mWindow] = value;
+            mSize++;
+        }
+        mStale = true;
+    }
+
+    private void recompute() {
+        double[] samples = mSamples;
+        int head = mHead;
+        mStale = false;
+        mSum = 0;
+        for (int i = 0; i < mSize; i++) {
+            mSum += samples[head + i];
+        }
+        for (int k = 0; k <= mMaxLag; k++) {
+            double sum = 0;
+            for (int i = 0; i + k < mSize; i++) {
+                sum += samples[head + i] * samples[head + i + k];
+            }
+            mLagSums[k] = sum;
+        }
+    }
+
+    /*
+     *  Correlation of the window with itself shifted by lag, 1 at lag 0. NaN
+     *  while there are too few samples or the signal is constant.
+     */
+    public double get(int lag) {
+        if (lag < 0 || lag > mMaxLag) {
+            throw new IllegalArgumentException("Lag must be in [0, " + mMaxLag + "]");
+        }
+        if (mSize - lag < 2) {
+            return Double.NaN;
+        }
+        if (mStale) {
+            recompute();
+        }
+
+        double mean = mSum / mSize;
+        double variance = mLagSums[0] / mSize - mean * mean;
+        if (!(variance > 0)) {
+            return Double.NaN;
+        }
+        return (mLagSums[lag] / (mSize - lag) - mean * mean) / variance;
+    }
+
+    /*
+     *  Smallest lag at which correlation drops below threshold, -1 if it stays above
+     */
+    public int getDecorrelationLag(double threshold) {
+        for (int k = 1; k <= mMaxLag; k++) {
+            if (get(k) < threshold) {
+                return k;
+            }
+        }
+        return -1;
+    }
+}
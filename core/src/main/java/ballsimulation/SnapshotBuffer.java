@@ -0,0 +1,52 @@
+package ballsimulation;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ *  Lock-free triple buffer for passing snapshots from a single writer
+ *  (simulation thread) to a single reader (rendering thread).
+ *
+ *  Writer owns the back snapshot, reader owns the front one and the third one is
+ *  exchanged through an atomic index. Neither side ever waits for the other and
+ *  reader always sees a completely written snapshot, so there is no tearing.
+ */
+public class SnapshotBuffer {
+
+    /* Set in the shared index when it holds a snapshot reader has not taken yet */
+    private static final int mFreshBit = 4;
+    private static final int mIndexMask = 3;
+
+    private final StateSnapshot[] mSnapshots = {
+        new StateSnapshot(), new StateSnapshot(), new StateSnapshot()
+    };
+
+    private final AtomicInteger mMiddle = new AtomicInteger(1);
+    private int mBack = 0;
+    private int mFront = 2;
+
+
+    /*
+     *  Snapshot to be filled by writer before calling publish()
+     */
+    public StateSnapshot getBack() {
+        return mSnapshots[mBack];
+    }
+
+    /*
+     *  Makes back snapshot visible to reader and takes over a free one
+     */
+    public void publish() {
+        mBack = mMiddle.getAndSet(mBack | mFreshBit) & mIndexMask;
+    }
+
+    /*
+     *  Latest published snapshot. It stays valid and unchanged until the next
+     *  call of this method from the same reader thread.
+     */
+    public StateSnapshot getFront() {
+        if ((mMiddle.get() & mFreshBit) != 0) {
+            mFront = mMiddle.getAndSet(mFront) & mIndexMask;
+        }
+        return mSnapshots[mFront];
+    }
+}
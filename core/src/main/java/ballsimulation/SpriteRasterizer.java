@@ -0,0 +1,244 @@
+package ballsimulation;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ *  Draws balls by stamping pre-rasterized antialiased sprites straight into
+ *  the pixel array of an opaque TYPE_INT_ARGB or TYPE_INT_RGB image.
+ *
+ *  Sprite of every diameter is rasterized once with 4x4 supersampling and
+ *  holds coverage only, color is applied while blending. In parallel mode the
+ *  image is split into bands of rows and every band stamps only its own rows
+ *  of each sprite, so no two bands write the same pixel and balls are blended
+ *  in the same order as in sequential mode, giving identical pixels.
+ */
+public class SpriteRasterizer {
+
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 20000;
+
+    private static final int mSupersampling = 4;
+
+    /* Bands per worker, more than one so a band crowded with balls does not stall the frame */
+    private static final int mBandsPerWorker = 4;
+
+    private final ForkJoinPool mPool;
+    private final int mParallelThreshold;
+
+    /* Coverage 0..255 of every pixel of d x d box, indexed by diameter d */
+    private int[][] mSprites = new int[0][];
+
+    private int mColor = 0xff404040;
+    private int mSelectedColor = 0xff000000;
+
+
+    /*
+     *  Frame being drawn, set before rows are stamped
+     */
+    private int[] mPixels;
+    private int mImageWidth;
+    private int mImageHeight;
+    private BallStore mBalls;
+    private int mSelectedBall;
+
+    private int mRectangleXStart;
+    private int mRectangleYStart;
+    private int mRectangleWidth;
+    private int mRectangleHeight;
+
+
+    public SpriteRasterizer() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    public SpriteRasterizer(int workerCount, int parallelThreshold) {
+        if (workerCount < 1 || parallelThreshold < 0) {
+            throw new IllegalArgumentException("Worker count must be positive, threshold non-negative");
+        }
+        mPool = new ForkJoinPool(workerCount);
+        mParallelThreshold = parallelThreshold;
+    }
+
+    public int getWorkerCount() {
+        return mPool.getParallelism();
+    }
+
+    /*
+     *  Whether frames with given number of balls are stamped in parallel
+     */
+    public boolean isParallel(int count) {
+        return count >= mParallelThreshold && mPool.getParallelism() > 1;
+    }
+
+    /*
+     *  Colors as ARGB, balls are drawn with the first and selected ball with the second
+     */
+    public void setColors(int color, int selectedColor) {
+        mColor = color;
+        mSelectedColor = selectedColor;
+    }
+
+    public void setRectangle(int xStart, int yStart, int width, int height) {
+        mRectangleXStart = xStart;
+        mRectangleYStart = yStart;
+        mRectangleWidth = width;
+        mRectangleHeight = height;
+    }
+
+    /*
+     *  Stamps all balls into pixels of an image of given size, selected ball on top
+     */
+    public void draw(int[] pixels, int imageWidth, int imageHeight, BallStore balls, int selectedBall) {
+        mPixels = pixels;
+        mImageWidth = imageWidth;
+        mImageHeight = imageHeight;
+        mBalls = balls;
+        mSelectedBall = selectedBall;
+
+        /* Sprites are created here so that bands only read them */
+        prepareSprites(balls);
+
+        if (isParallel(balls.size())) {
+            int bands = mPool.getParallelism() * mBandsPerWorker;
+            int bandHeight = (imageHeight + bands - 1) / bands;
+            mPool.invoke(new BandTask(0, imageHeight, bandHeight));
+        }
+        else {
+            drawRows(0, imageHeight);
+        }
+
+        mPixels = null;
+        mBalls = null;
+    }
+
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    private void prepareSprites(BallStore balls) {
+        float[] diameter = balls.diameter;
+        for (int i = 0; i < balls.size(); i++) {
+            int d = (int)diameter[i];
+            if (d > 0 && (d >= mSprites.length || mSprites[d] == null)) {
+                createSprite(d);
+            }
+        }
+    }
+
+    private void createSprite(int d) {
+        if (d >= mSprites.length) {
+            int[][] sprites = new int[Math.max(d + 1, 2 * mSprites.length)][];
+            System.arraycopy(mSprites, 0, sprites, 0, mSprites.length);
+            mSprites = sprites;
+        }
+
+        /* Fraction of subsamples of each pixel inside the circle inscribed into the box */
+        int[] sprite = new int[d * d];
+        double radius = d / 2.0;
+        double radiusSquared = radius * radius;
+        int samples = mSupersampling * mSupersampling;
+        for (int y = 0; y < d; y++) {
+            for (int x = 0; x < d; x++) {
+                int inside = 0;
+                for (int sy = 0; sy < mSupersampling; sy++) {
+                    double dy = y + (sy + 0.5) / mSupersampling - radius;
+                    for (int sx = 0; sx < mSupersampling; sx++) {
+                        double dx = x + (sx + 0.5) / mSupersampling - radius;
+                        if (dx * dx + dy * dy <= radiusSquared) {
+                            inside++;
+                        }
+                    }
+                }
+                sprite[y * d + x] = (inside * 255 + samples / 2) / samples;
+            }
+        }
+        mSprites[d] = sprite;
+    }
+
+    /*
+     *  Stamps rows [fromRow, toRow) of every ball
+     */
+    private void drawRows(int fromRow, int toRow) {
+        int count = mBalls.size();
+        for (int i = 0; i < count; i++) {
+            if (i != mSelectedBall) {
+                stamp(i, mColor, fromRow, toRow);
+            }
+        }
+        if (mSelectedBall >= 0 && mSelectedBall < count) {
+            stamp(mSelectedBall, mSelectedColor, fromRow, toRow);
+        }
+    }
+
+    private void stamp(int ball, int color, int fromRow, int toRow) {
+        int d = (int)mBalls.diameter[ball];
+        if (d <= 0) {
+            return;
+        }
+
+        /* Same box as fillOval() of the quality renderer */
+        int x0 = mRectangleXStart + Math.round(mBalls.positionX[ball] * mRectangleWidth) - d / 2;
+        int y0 = mRectangleYStart + Math.round(mBalls.positionY[ball] * mRectangleHeight) - d / 2;
+
+        int rowFrom = Math.max(y0, fromRow);
+        int rowTo = Math.min(y0 + d, toRow);
+        int colFrom = Math.max(x0, 0);
+        int colTo = Math.min(x0 + d, mImageWidth);
+        if (rowFrom >= rowTo || colFrom >= colTo) {
+            return;
+        }
+
+        int[] sprite = mSprites[d];
+        int[] pixels = mPixels;
+        int red = (color >> 16) & 0xff;
+        int green = (color >> 8) & 0xff;
+        int blue = color & 0xff;
+
+        for (int y = rowFrom; y < rowTo; y++) {
+            int spriteOffset = (y - y0) * d - x0;
+            int pixelOffset = y * mImageWidth;
+            for (int x = colFrom; x < colTo; x++) {
+                int coverage = sprite[spriteOffset + x];
+                if (coverage == 0) {
+                    continue;
+                }
+                if (coverage == 255) {
+                    pixels[pixelOffset + x] = color | 0xff000000;
+                    continue;
+                }
+
+                /* Source over opaque destination */
+                int dst = pixels[pixelOffset + x];
+                int rest = 255 - coverage;
+                int r = (red * coverage + ((dst >> 16) & 0xff) * rest + 127) / 255;
+                int g = (green * coverage + ((dst >> 8) & 0xff) * rest + 127) / 255;
+                int b = (blue * coverage + (dst & 0xff) * rest + 127) / 255;
+                pixels[pixelOffset + x] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+
+    private class BandTask extends RecursiveAction {
+        private final int mFromRow;
+        private final int mToRow;
+        private final int mBandHeight;
+
+        BandTask(int fromRow, int toRow, int bandHeight) {
+            mFromRow = fromRow;
+            mToRow = toRow;
+            mBandHeight = bandHeight;
+        }
+
+        @Override
+        protected void compute() {
+            if (mToRow - mFromRow <= mBandHeight) {
+                drawRows(mFromRow, mToRow);
+                return;
+            }
+
+            int middle = (mFromRow + mToRow) >>> 1;
+            invokeAll(new BandTask(mFromRow, middle, mBandHeight), new BandTask(middle, mToRow, mBandHeight));
+        }
+    }
+}
@@ -0,0 +1,635 @@
+package ballsimulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Locale;
+
+/*
+ *  Streams simulation state to viewers in other processes over a local
+ *  socket and takes parameter commands from them.
+ *
+ *  The server listens on a loopback TCP port or a Unix domain socket and
+ *  serves any number of viewers from a single non-blocking selector thread.
+ *  The simulation thread only publishes snapshots into the SnapshotBuffer of
+ *  the server, it never waits for a viewer. Every viewer gets frames at its
+ *  own rate, each one encoded from the latest snapshot once the previous
+ *  frame is completely written, so a slow viewer skips snapshots instead of
+ *  queueing them.
+ *
+ *  Ball state is quantized to 16 bits: positions in steps of 1/65535 of the
+ *  rectangle, velocities in steps of 1/4096 up to 8 and diameters in 1/16
+ *  pixels. The first frame of a viewer and every frame after the ball count
+ *  changed is a keyframe with these values, other frames hold the difference
+ *  to the values the viewer got last as zigzag varints, about one byte per
+ *  value for balls which moved less than 1/512 of the rectangle.
+ *
+ *  Messages to viewers, big endian:
+ *
+ *    length    int, bytes of the message after it
+ *    type      byte, 1 keyframe, 2 delta frame, 3 reply
+ *    frame     tick (long), simulated time (double), alpha (float),
+ *              rectangle width and height, ball count (ints), then
+ *              x, y, vx, vy, diameter of every ball as shorts or varints
+ *    reply     UTF-8 text, "ok ..." or "error ..."
+ *
+ *  Viewers send text lines: "alpha A", "diameter BALL D", "speed S" are
+ *  handed to RemoteControl, "rate FPS" sets frames per second of the
+ *  viewer and "stats" replies with bandwidth and lag of all viewers.
+ */
+public class StateServer implements Closeable {
+
+    public static final int DEFAULT_FRAME_RATE = 30;
+    public static final int MAX_FRAME_RATE = 240;
+
+    static final byte MESSAGE_KEYFRAME = 1;
+    static final byte MESSAGE_DELTA = 2;
+    static final byte MESSAGE_REPLY = 3;
+
+    /* Length and type, then tick, time, alpha, width, height and count */
+    static final int FRAME_HEADER_SIZE = 4 + 1 + 8 + 8 + 4 + 4 + 4 + 4;
+
+    static final float POSITION_SCALE = 65535.0f;
+    static final float VELOCITY_SCALE = 4096.0f;
+    static final float DIAMETER_SCALE = 16.0f;
+
+    /* Longest encoding of a ball: five values of up to 17 bits */
+    private static final int mMaxBallBytes = 5 * 3;
+
+    /* Socket send buffer of a viewer, so a stalled one does not queue many frames in the kernel instead of dropping them */
+    private static final int mSendBufferSize = 64 << 10;
+
+    /* Longest command line, longer ones are answered with an error */
+    private static final int mMaxLineLength = 256;
+
+    /* How often the selector looks for a new snapshot when nothing else wakes it */
+    private static final long mPollMillis = 4;
+
+    /* Interval of the bandwidth and lag report */
+    private static final long mReportIntervalNanos = 1000000000L;
+
+    private final SnapshotBuffer mSnapshots = new SnapshotBuffer();
+    private final RemoteControl mControl;
+    private final SocketAddress mAddress;
+    private final ServerSocketChannel mServerChannel;
+    private final Selector mSelector;
+    private final Thread mThread;
+    private final ArrayList<Client> mClients = new ArrayList<Client>();
+
+    private volatile boolean mRunning = true;
+
+    /* Snapshot the frames are encoded from, a new one bumps the version */
+    private StateSnapshot mSnapshot;
+    private long mVersion = 0;
+    private long mSnapshotTime = 0;
+
+    private int mNextClientId = 1;
+
+    /* Totals over all viewers, written by the server thread only */
+    private volatile long mBytesSent = 0;
+    private volatile long mFramesSent = 0;
+    private volatile long mFramesDropped = 0;
+    private volatile long mBallsSent = 0;
+    private volatile int mClientCount = 0;
+
+    private long mReportTime = System.nanoTime();
+    private long mReportBytes = 0;
+    private volatile double mBytesPerSecond = 0;
+    private volatile String[] mClientReport = new String[0];
+
+
+    /*
+     *  Binds to address, commands of viewers go to control. Serving starts
+     *  with start().
+     */
+    public StateServer(SocketAddress address, RemoteControl control) throws IOException {
+        mControl = control;
+        mAddress = address;
+        if (address instanceof UnixDomainSocketAddress) {
+            mServerChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        }
+        else {
+            mServerChannel = ServerSocketChannel.open();
+        }
+        try {
+            mServerChannel.bind(address);
+            mServerChannel.configureBlocking(false);
+            mSelector = Selector.open();
+            mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+        }
+        catch (IOException e) {
+            mServerChannel.close();
+            throw e;
+        }
+
+        mThread = new Thread("State server") {
+            @Override
+            public void run() {
+                serve();
+            }
+        };
+        mThread.setDaemon(true);
+    }
+
+    /*
+     *  A port number binds to the loopback interface, anything else is the
+     *  path of a Unix domain socket
+     */
+    public static SocketAddress parseAddress(String address) {
+        if (address.matches("[0-9]+")) {
+            int port = Integer.parseInt(address);
+            if (port > 65535) {
+                throw new IllegalArgumentException("Port must be at most 65535");
+            }
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        }
+        return UnixDomainSocketAddress.of(address);
+    }
+
+    /*
+     *  Snapshots published here are streamed to viewers
+     */
+    public SnapshotBuffer getSnapshots() {
+        return mSnapshots;
+    }
+
+    /*
+     *  Address actually bound, with the port chosen by the system for port 0
+     */
+    public SocketAddress getAddress() {
+        try {
+            return mServerChannel.getLocalAddress();
+        }
+        catch (IOException e) {
+            return mAddress;
+        }
+    }
+
+    public void start() {
+        mThread.start();
+    }
+
+    public int getClientCount() {
+        return mClientCount;
+    }
+
+    public long getBytesSent() {
+        return mBytesSent;
+    }
+
+    public long getFramesSent() {
+        return mFramesSent;
+    }
+
+    public long getFramesDropped() {
+        return mFramesDropped;
+    }
+
+    /*
+     *  Summary of the server and one line per connected viewer
+     */
+    public String[] getReport() {
+        String[] clients = mClientReport;
+        String[] report = new String[clients.length + 1];
+        long frames = mFramesSent;
+        report[0] = String.format(Locale.ROOT, "server: %s, %d viewers, %d frames sent, %d dropped, %.2f MB, %.1f kB/s, %.2f bytes/ball",
+                                  getAddress(), mClientCount, frames, mFramesDropped, mBytesSent / 1e6, mBytesPerSecond / 1e3,
+                                  mBallsSent > 0 ? (double)mBytesSent / mBallsSent : 0.0);
+        System.arraycopy(clients, 0, report, 1, clients.length);
+        return report;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mRunning = false;
+        mSelector.wakeup();
+        if (mThread.isAlive()) {
+            try {
+                mThread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        else {
+            closeChannels();
+        }
+    }
+
+    private void serve() {
+        try {
+            while (mRunning) {
+                mSelector.select(mPollMillis);
+                Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Client client = (Client)key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(client);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush(client);
+                        }
+                    }
+                    catch (IOException e) {
+                        disconnect(client);
+                    }
+                }
+
+                long now = System.nanoTime();
+                StateSnapshot snapshot = mSnapshots.getFront();
+                if (snapshot != mSnapshot) {
+                    mSnapshot = snapshot;
+                    mVersion++;
+                    mSnapshotTime = now;
+                }
+                sendFrames(now);
+                report(now, false);
+            }
+        }
+        catch (IOException e) {
+            System.err.println("State server stopped: " + e.getMessage());
+        }
+        finally {
+            closeChannels();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = mServerChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.SO_SNDBUF, mSendBufferSize);
+        Client client = new Client(mNextClientId++, channel);
+        client.key = channel.register(mSelector, SelectionKey.OP_READ, client);
+        mClients.add(client);
+        mClientCount = mClients.size();
+    }
+
+    private void disconnect(Client client) {
+        client.key.cancel();
+        try {
+            client.channel.close();
+        }
+        catch (IOException e) {
+            /* Nothing left to do with a viewer that is gone */
+        }
+        mClients.remove(client);
+        mClientCount = mClients.size();
+        report(System.nanoTime(), true);
+    }
+
+    /*
+     *  Encodes the current snapshot for every viewer which is due and has
+     *  written its previous frame completely
+     */
+    private void sendFrames(long now) throws IOException {
+        if (mSnapshot == null) {
+            return;
+        }
+        for (int c = mClients.size() - 1; c >= 0; c--) {
+            Client client = mClients.get(c);
+            if (client.version == mVersion) {
+                continue;
+            }
+            if (client.out.hasRemaining()) {
+                /* Still writing an older frame, this snapshot is skipped for good */
+                if (client.droppedVersion != mVersion) {
+                    client.droppedVersion = mVersion;
+                    client.framesDropped++;
+                    mFramesDropped++;
+                }
+                continue;
+            }
+            if (now - client.nextFrameTime < 0) {
+                continue;
+            }
+
+            encode(client, mSnapshot);
+            client.version = mVersion;
+            client.frameTime = mSnapshotTime;
+            client.framePending = true;
+            client.nextFrameTime = Math.max(client.nextFrameTime + client.frameIntervalNanos, now);
+            mFramesSent++;
+            mBallsSent += mSnapshot.balls.size();
+            try {
+                flush(client);
+            }
+            catch (IOException e) {
+                disconnect(client);
+            }
+        }
+    }
+
+    private void encode(Client client, StateSnapshot snapshot) {
+        BallStore balls = snapshot.balls;
+        int count = balls.size();
+        boolean keyframe = count != client.count;
+
+        ByteBuffer out = client.append(FRAME_HEADER_SIZE + count * mMaxBallBytes);
+        int start = out.position();
+        out.putInt(0);
+        out.put(keyframe ? MESSAGE_KEYFRAME : MESSAGE_DELTA);
+        out.putLong(snapshot.tickCount);
+        out.putDouble(snapshot.simulatedTime);
+        out.putFloat(snapshot.alpha);
+        out.putInt(snapshot.rectangleWidth);
+        out.putInt(snapshot.rectangleHeight);
+        out.putInt(count);
+
+        if (keyframe) {
+            client.ensureCapacity(count);
+            client.count = count;
+        }
+        int[] state = client.state;
+        for (int i = 0; i < count; i++) {
+            int base = 5 * i;
+            int x = quantize(balls.positionX[i] * POSITION_SCALE, 0, 65535);
+            int y = quantize(balls.positionY[i] * POSITION_SCALE, 0, 65535);
+            int vx = quantize(balls.velocityX[i] * VELOCITY_SCALE, Short.MIN_VALUE, Short.MAX_VALUE);
+            int vy = quantize(balls.velocityY[i] * VELOCITY_SCALE, Short.MIN_VALUE, Short.MAX_VALUE);
+            int d = quantize(balls.diameter[i] * DIAMETER_SCALE, 0, 65535);
+            if (keyframe) {
+                out.putShort((short)x);
+                out.putShort((short)y);
+                out.putShort((short)vx);
+                out.putShort((short)vy);
+                out.putShort((short)d);
+            }
+            else {
+                putVarint(out, x - state[base]);
+                putVarint(out, y - state[base + 1]);
+                putVarint(out, vx - state[base + 2]);
+                putVarint(out, vy - state[base + 3]);
+                putVarint(out, d - state[base + 4]);
+            }
+            state[base] = x;
+            state[base + 1] = y;
+            state[base + 2] = vx;
+            state[base + 3] = vy;
+            state[base + 4] = d;
+        }
+
+        out.putInt(start, out.position() - start - 4);
+        client.finishAppend();
+    }
+
+    private static int quantize(float value, int min, int max) {
+        return Math.max(min, Math.min(max, Math.round(value)));
+    }
+
+    /*
+     *  Zigzag varint, small differences of either sign take one byte
+     */
+    private static void putVarint(ByteBuffer out, int value) {
+        int bits = (value << 1) ^ (value >> 31);
+        while ((bits & ~0x7F) != 0) {
+            out.put((byte)((bits & 0x7F) | 0x80));
+            bits >>>= 7;
+        }
+        out.put((byte)bits);
+    }
+
+    private void flush(Client client) throws IOException {
+        ByteBuffer out = client.out;
+        if (out.hasRemaining()) {
+            int written = client.channel.write(out);
+            client.bytesSent += written;
+            mBytesSent += written;
+        }
+        if (out.hasRemaining()) {
+            client.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            return;
+        }
+        client.key.interestOps(SelectionKey.OP_READ);
+        if (client.framePending) {
+            /* Lag is the age of the snapshot when its frame left completely */
+            long lag = System.nanoTime() - client.frameTime;
+            client.framePending = false;
+            client.framesSent++;
+            client.lagSum += lag;
+            client.lagMax = Math.max(client.lagMax, lag);
+        }
+    }
+
+    private void read(Client client) throws IOException {
+        ByteBuffer in = client.in;
+        int read = client.channel.read(in);
+        if (read < 0) {
+            disconnect(client);
+            return;
+        }
+        in.flip();
+        while (in.hasRemaining()) {
+            char c = (char)(in.get() & 0xFF);
+            if (c == '\n') {
+                if (client.line.length() > mMaxLineLength) {
+                    reply(client, "error command longer than " + mMaxLineLength + " characters");
+                }
+                else {
+                    reply(client, execute(client, client.line.toString().trim()));
+                }
+                client.line.setLength(0);
+            }
+            else if (client.line.length() <= mMaxLineLength) {
+                client.line.append(c);
+            }
+        }
+        in.clear();
+    }
+
+    private void reply(Client client, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer out = client.append(4 + 1 + bytes.length);
+        out.putInt(1 + bytes.length);
+        out.put(MESSAGE_REPLY);
+        out.put(bytes);
+        client.finishAppend();
+        flush(client);
+    }
+
+    private String execute(Client client, String line) {
+        String[] words = line.split("\\s+");
+        try {
+            switch (words[0]) {
+                case "alpha":
+                    if (words.length == 2 && mControl.setAlpha(Float.parseFloat(words[1]))) {
+                        return "ok " + line;
+                    }
+                    break;
+                case "diameter":
+                    if (words.length == 3) {
+                        int ball = Integer.parseInt(words[1]);
+                        float diameter = Float.parseFloat(words[2]);
+                        if (ball < 0 || mSnapshot == null || ball >= mSnapshot.balls.size() || !(diameter > 0)) {
+                            return "error no ball " + ball + " or diameter not positive";
+                        }
+                        if (mControl.setDiameter(ball, diameter)) {
+                            return "ok " + line;
+                        }
+                    }
+                    break;
+                case "speed":
+                    if (words.length == 2 && mControl.setSpeed(Integer.parseInt(words[1]))) {
+                        return "ok " + line;
+                    }
+                    break;
+                case "rate":
+                    if (words.length == 2) {
+                        int rate = Integer.parseInt(words[1]);
+                        if (rate < 1 || rate > MAX_FRAME_RATE) {
+                            return "error rate must be from 1 to " + MAX_FRAME_RATE;
+                        }
+                        client.frameIntervalNanos = 1000000000L / rate;
+                        return "ok " + line;
+                    }
+                    break;
+                case "stats":
+                    return "ok " + String.join("\n", getReport());
+                default:
+                    return "error unknown command " + words[0];
+            }
+        }
+        catch (NumberFormatException e) {
+            return "error invalid number in " + line;
+        }
+        return "error " + line + " not accepted";
+    }
+
+    /*
+     *  Renews the report every report interval, viewer lines also when one leaves
+     */
+    private void report(long now, boolean clientsChanged) {
+        if (now - mReportTime >= mReportIntervalNanos) {
+            mBytesPerSecond = (mBytesSent - mReportBytes) * 1e9 / (now - mReportTime);
+            mReportBytes = mBytesSent;
+            mReportTime = now;
+        }
+        else if (!clientsChanged) {
+            return;
+        }
+
+        String[] lines = new String[mClients.size()];
+        for (int c = 0; c < lines.length; c++) {
+            Client client = mClients.get(c);
+            double seconds = (now - client.connectTime) / 1e9;
+            lines[c] = String.format(Locale.ROOT, "viewer %d %s: %d frames, %d dropped, %.1f fps, %.1f kB/s, lag mean %.2f ms max %.2f ms",
+                                     client.id, client.remoteName, client.framesSent, client.framesDropped,
+                                     client.framesSent / seconds, client.bytesSent / seconds / 1e3,
+                                     client.framesSent > 0 ? client.lagSum / 1e6 / client.framesSent : 0.0, client.lagMax / 1e6);
+        }
+        mClientReport = lines;
+    }
+
+    private void closeChannels() {
+        for (Client client : new ArrayList<Client>(mClients)) {
+            disconnect(client);
+        }
+        try {
+            mSelector.close();
+            mServerChannel.close();
+            if (mAddress instanceof UnixDomainSocketAddress) {
+                Files.deleteIfExists(((UnixDomainSocketAddress)mAddress).getPath());
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Cannot close state server: " + e.getMessage());
+        }
+    }
+
+    /*
+     *  Connection of one viewer with the quantized state it got last
+     */
+    private static class Client {
+        final int id;
+        final SocketChannel channel;
+        final String remoteName;
+        final long connectTime = System.nanoTime();
+        SelectionKey key;
+
+        /* Pending output, kept flipped between appends */
+        ByteBuffer out = ByteBuffer.allocate(4096).flip();
+        final ByteBuffer in = ByteBuffer.allocate(1024);
+        final StringBuilder line = new StringBuilder();
+
+        /* x, y, vx, vy, diameter of every ball as last sent */
+        int[] state = new int[0];
+        int count = -1;
+
+        long frameIntervalNanos = 1000000000L / DEFAULT_FRAME_RATE;
+        long nextFrameTime = System.nanoTime();
+        long version = -1;
+        long droppedVersion = -1;
+        long frameTime;
+        boolean framePending = false;
+
+        long bytesSent = 0;
+        long framesSent = 0;
+        long framesDropped = 0;
+        long lagSum = 0;
+        long lagMax = 0;
+
+        Client(int id, SocketChannel channel) {
+            this.id = id;
+            this.channel = channel;
+            String name;
+            try {
+                SocketAddress remote = channel.getRemoteAddress();
+                name = remote != null ? remote.toString() : "local";
+            }
+            catch (IOException e) {
+                name = "unknown";
+            }
+            remoteName = name.isEmpty() ? "local" : name;
+        }
+
+        void ensureCapacity(int count) {
+            if (state.length < 5 * count) {
+                state = new int[5 * count];
+            }
+        }
+
+        /*
+         *  Opens out for writing at least size more bytes after pending ones
+         */
+        ByteBuffer append(int size) {
+            out.compact();
+            if (out.remaining() < size) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + size));
+                out.flip();
+                larger.put(out);
+                out = larger;
+            }
+            return out;
+        }
+
+        void finishAppend() {
+            out.flip();
+        }
+    }
+}
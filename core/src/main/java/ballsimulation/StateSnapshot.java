@@ -0,0 +1,28 @@
+package ballsimulation;
+
+/*
+ *  Immutable-while-published copy of the simulation state.
+ *
+ *  Snapshots are recycled by SnapshotBuffer, so arrays are reused between
+ *  publications and only grow when the number of balls grows.
+ */
+public class StateSnapshot {
+
+    public final BallStore balls = new BallStore();
+
+    public long tickCount;
+    public double simulatedTime;
+    public float alpha;
+    public int rectangleWidth;
+    public int rectangleHeight;
+
+
+    public void copyFrom(SimulationEngine engine) {
+        balls.copyFrom(engine.getBalls());
+        tickCount = engine.getTickCount();
+        simulatedTime = engine.getSimulatedTime();
+        alpha = engine.getAlpha();
+        rectangleWidth = engine.getRectangleWidth();
+        rectangleHeight = engine.getRectangleHeight();
+    }
+}
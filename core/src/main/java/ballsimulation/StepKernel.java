@@ -0,0 +1,16 @@
+package ballsimulation;
+
+/*
+ *  Alternative implementation of the per-tick integration loop over a range of
+ *  balls, see SimulationEngine.stepRange(). Implementations must produce the
+ *  same results as the scalar loop of SimulationEngine.
+ */
+public interface StepKernel {
+
+    String getName();
+
+    /*
+     *  Advances balls [from, to) of engine by one tick
+     */
+    void stepRange(SimulationEngine engine, int from, int to);
+}
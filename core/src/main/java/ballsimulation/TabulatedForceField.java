@@ -0,0 +1,155 @@
+package ballsimulation;
+
+/*
+ *  Force field sampled once on a grid and interpolated bilinearly, for fields
+ *  which are expensive to evaluate on every tick.
+ *
+ *  Forces grow like 1 / x towards the walls, which no interpolation follows.
+ *  The table holds the x force times x * (1 - x) and the y force times
+ *  y * (1 - y) instead, which stays finite at the walls and is linear for
+ *  the wall potential itself, and lookups divide the weight out again. Grid
+ *  lines are closer together near the walls, refinement times closer than
+ *  in the middle, for fields which change fast there.
+ *
+ *  Cells are found through buckets of uniform width, each holding the first
+ *  cell it overlaps. Buckets are no wider than the narrowest cell, so a lookup
+ *  moves on by at most one cell, without a loop the branch predictor would
+ *  miss on randomly placed balls.
+ */
+public class TabulatedForceField implements ForceField {
+
+    public static final int DEFAULT_SIZE = 256;
+    public static final int DEFAULT_REFINEMENT = 2;
+
+    /* Grid ends this far inside the walls, where the weighted force is still finite */
+    private static final double mMargin = 1e-5;
+
+    private final ForceField mSource;
+    private final int mSize;
+
+    /* Grid line coordinates, the same along both axes, and inverse cell widths */
+    private final float[] mLines;
+    private final float[] mInverseWidths;
+
+    private final int[] mBuckets;
+    private final float mBucketScale;
+
+    /* Weighted forces at grid points, row by row along y */
+    private final float[] mForceX;
+    private final float[] mForceY;
+
+
+    public TabulatedForceField(ForceField source) {
+        this(source, DEFAULT_SIZE, DEFAULT_REFINEMENT);
+    }
+
+    /*
+     *  Samples source on a grid of size x size cells
+     */
+    public TabulatedForceField(ForceField source, int size, int refinement) {
+        if (size < 2 || refinement < 1) {
+            throw new IllegalArgumentException("Table needs at least 2 cells and refinement of at least 1");
+        }
+        mSource = source;
+        mSize = size;
+
+        /* x(u) = u - c * sin(2 pi u) / (2 pi) has slope 1 - c = 1 / refinement at both ends */
+        double c = 1.0 - 1.0 / refinement;
+        mLines = new float[size + 1];
+        for (int k = 0; k <= size; k++) {
+            double u = k / (double)size;
+            double x = u - c * Math.sin(2.0 * Math.PI * u) / (2.0 * Math.PI);
+            mLines[k] = (float)(mMargin + (1.0 - 2.0 * mMargin) * x);
+        }
+        mInverseWidths = new float[size];
+        for (int k = 0; k < size; k++) {
+            mInverseWidths[k] = 1.0f / (mLines[k + 1] - mLines[k]);
+        }
+
+        int bucketCount = size * refinement;
+        mBucketScale = bucketCount / (mLines[size] - mLines[0]);
+        mBuckets = new int[bucketCount];
+        int cell = 0;
+        for (int b = 0; b < bucketCount; b++) {
+            float start = mLines[0] + b / mBucketScale;
+            while (cell < size - 1 && mLines[cell + 1] <= start) {
+                cell++;
+            }
+            mBuckets[b] = cell;
+        }
+
+        mForceX = new float[(size + 1) * (size + 1)];
+        mForceY = new float[(size + 1) * (size + 1)];
+        for (int j = 0; j <= size; j++) {
+            double y = mLines[j];
+            for (int k = 0; k <= size; k++) {
+                double x = mLines[k];
+                mForceX[j * (size + 1) + k] = (float)(source.forceX(x, y) * x * (1.0 - x));
+                mForceY[j * (size + 1) + k] = (float)(source.forceY(x, y) * y * (1.0 - y));
+            }
+        }
+    }
+
+    public ForceField getSource() {
+        return mSource;
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    @Override
+    public String getName() {
+        return mSource.getName() + " table";
+    }
+
+    /*
+     *  Cell containing x, which must lie within the grid
+     */
+    private int cell(float x) {
+        int bucket = (int)((x - mLines[0]) * mBucketScale);
+        int cell = mBuckets[bucket < mBuckets.length ? bucket : mBuckets.length - 1];
+        return x >= mLines[cell + 1] && cell < mSize - 1 ? cell + 1 : cell;
+    }
+
+    private float interpolate(float[] table, float x, float y) {
+        x = x > mLines[0] ? (x < mLines[mSize] ? x : mLines[mSize]) : mLines[0];
+        y = y > mLines[0] ? (y < mLines[mSize] ? y : mLines[mSize]) : mLines[0];
+        int i = cell(x);
+        int j = cell(y);
+        float u = (x - mLines[i]) * mInverseWidths[i];
+        float v = (y - mLines[j]) * mInverseWidths[j];
+        int index = j * (mSize + 1) + i;
+        float bottom = table[index] + (table[index + 1] - table[index]) * u;
+        float top = table[index + mSize + 1] + (table[index + mSize + 2] - table[index + mSize + 1]) * u;
+        return bottom + (top - bottom) * v;
+    }
+
+    @Override
+    public float forceX(float x, float y) {
+        return interpolate(mForceX, x, y) / (x * (1 - x));
+    }
+
+    @Override
+    public float forceY(float x, float y) {
+        return interpolate(mForceY, x, y) / (y * (1 - y));
+    }
+
+    @Override
+    public double forceX(double x, double y) {
+        return interpolate(mForceX, (float)x, (float)y) / (x * (1 - x));
+    }
+
+    @Override
+    public double forceY(double x, double y) {
+        return interpolate(mForceY, (float)x, (float)y) / (y * (1 - y));
+    }
+
+    /*
+     *  Potential of the source, only used for energies and not worth a table
+     */
+    @Override
+    public double potential(double x, double y) {
+        return mSource.potential(x, y);
+    }
+}
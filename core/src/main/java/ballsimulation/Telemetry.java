@@ -0,0 +1,355 @@
+package ballsimulation;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ *  Runtime performance counters of a running simulation: tick rate, simulated
+ *  time per wall time, tick and frame time percentiles, allocation rate and
+ *  time spent in garbage collection.
+ *
+ *  The engine times only every TICK_SAMPLE_INTERVAL-th tick and reports it
+ *  together with the untimed ticks up to the next one, so ticks are counted in
+ *  steps of the interval and the other ticks cost nothing more than a test of
+ *  the tick number. Rates are not updated on a thread of their own, they are
+ *  recomputed when read once the sample interval has passed, which is often
+ *  enough for an overlay or a JMX console.
+ */
+public class Telemetry implements TelemetryMXBean {
+
+    public static final String DEFAULT_OBJECT_NAME = "ballsimulation:type=Telemetry";
+    public static final long DEFAULT_SAMPLE_INTERVAL = 1000000000L;
+
+    /* Ticks whose number is a multiple of it are timed, a power of two */
+    public static final int TICK_SAMPLE_INTERVAL = 64;
+
+    private final long mSampleInterval;
+
+    /* Written only by the thread running ticks */
+    private volatile long mTicks = 0;
+    private volatile double mSimulatedTime = 0;
+
+    /* Durations in nanoseconds since the last reset, guarded by this */
+    private final LatencyHistogram mTickTimes = new LatencyHistogram();
+    private final LatencyHistogram mFrameTimes = new LatencyHistogram();
+    private final LatencyHistogram mRenderTimes = new LatencyHistogram();
+    private long mFrames = 0;
+
+    private final List<GarbageCollectorMXBean> mCollectors = ManagementFactory.getGarbageCollectorMXBeans();
+    /* Null when the JVM can not count allocated bytes per thread */
+    private final com.sun.management.ThreadMXBean mThreads;
+    private Map<Long, Long> mThreadAllocations = new HashMap<Long, Long>();
+    private Map<Long, Long> mPreviousThreadAllocations = new HashMap<Long, Long>();
+
+    /* Counters at the start of the current sample interval */
+    private long mSampleTime;
+    private long mSampleTicks = 0;
+    private double mSampleSimulatedTime = 0;
+    private long mSampleFrames = 0;
+    private long mSampleGcCount;
+    private long mSampleGcTime;
+
+    /* Rates over the last complete sample interval */
+    private double mTicksPerSecond = 0;
+    private double mTimeRatio = 0;
+    private double mFramesPerSecond = 0;
+    private double mAllocationRate = Double.NaN;
+    private double mGcTimeRate = 0;
+    private double mGcMeanPause = 0;
+
+    private ObjectName mObjectName;
+
+
+    public Telemetry() {
+        this(DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    public Telemetry(long sampleInterval) {
+        if (sampleInterval <= 0) {
+            throw new IllegalArgumentException("Sample interval must be positive");
+        }
+        mSampleInterval = sampleInterval;
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean)threads).isThreadAllocatedMemorySupported()) {
+            mThreads = (com.sun.management.ThreadMXBean)threads;
+            mThreads.setThreadAllocatedMemoryEnabled(true);
+            sampleAllocatedBytes();
+        }
+        else {
+            mThreads = null;
+        }
+        mSampleGcCount = getGcCount();
+        mSampleGcTime = getGcTimeMillis();
+        mSampleTime = System.nanoTime();
+    }
+
+    /*
+     *  Called by the engine after every timed tick with its duration in
+     *  nanoseconds, counts it and the untimed ticks following it
+     */
+    public void recordTimedTick(long nanos, float timeTick) {
+        synchronized (this) {
+            mTickTimes.record(nanos);
+        }
+        recordTicks(TICK_SAMPLE_INTERVAL, TICK_SAMPLE_INTERVAL * (double)timeTick);
+    }
+
+    /*
+     *  Counts ticks advanced at once without going through the tick loop
+     */
+    public void recordTicks(long ticks, double simulatedTime) {
+        /* Single writer, so read-modify-write of the volatile fields is safe */
+        mTicks += ticks;
+        mSimulatedTime += simulatedTime;
+    }
+
+    /*
+     *  Called after every frame with the time of the whole frame and of its
+     *  rendering part, in nanoseconds
+     */
+    public synchronized void recordFrame(long frameNanos, long renderNanos) {
+        mFrameTimes.record(frameNanos);
+        mRenderTimes.record(renderNanos);
+        mFrames++;
+    }
+
+    private synchronized void sampleIfDue() {
+        if (System.nanoTime() - mSampleTime >= mSampleInterval) {
+            sample();
+        }
+    }
+
+    /*
+     *  Ends the current sample interval now, rates are averaged over it
+     */
+    public synchronized void sample() {
+        long now = System.nanoTime();
+        double seconds = Math.max(now - mSampleTime, 1) / 1e9;
+
+        long ticks = mTicks;
+        double simulatedTime = mSimulatedTime;
+        mTicksPerSecond = (ticks - mSampleTicks) / seconds;
+        mTimeRatio = (simulatedTime - mSampleSimulatedTime) / seconds;
+        mFramesPerSecond = (mFrames - mSampleFrames) / seconds;
+        mSampleTicks = ticks;
+        mSampleSimulatedTime = simulatedTime;
+        mSampleFrames = mFrames;
+
+        if (mThreads != null) {
+            mAllocationRate = sampleAllocatedBytes() / seconds;
+        }
+
+        long gcCount = getGcCount();
+        long gcTime = getGcTimeMillis();
+        mGcTimeRate = (gcTime - mSampleGcTime) / seconds;
+        mGcMeanPause = gcCount > mSampleGcCount ? (double)(gcTime - mSampleGcTime) / (gcCount - mSampleGcCount) : 0;
+        mSampleGcCount = gcCount;
+        mSampleGcTime = gcTime;
+
+        mSampleTime = now;
+    }
+
+    /*
+     *  Bytes allocated since the previous call by threads alive now. Threads
+     *  which ended in between are missed for that interval, threads started in
+     *  between are counted from their start.
+     */
+    private long sampleAllocatedBytes() {
+        long[] ids = mThreads.getAllThreadIds();
+        long[] bytes = mThreads.getThreadAllocatedBytes(ids);
+
+        Map<Long, Long> previous = mThreadAllocations;
+        Map<Long, Long> current = mPreviousThreadAllocations;
+        current.clear();
+        long allocated = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] < 0) {
+                continue;
+            }
+            Long last = previous.get(ids[i]);
+            allocated += Math.max(0, bytes[i] - (last != null ? last : 0));
+            current.put(ids[i], bytes[i]);
+        }
+        mThreadAllocations = current;
+        mPreviousThreadAllocations = previous;
+        return allocated;
+    }
+
+    /*
+     *  Registers the counters with the platform MBean server, replacing an
+     *  instance registered earlier under the same name
+     */
+    public synchronized void register() throws JMException {
+        register(new ObjectName(DEFAULT_OBJECT_NAME));
+    }
+
+    public synchronized void register(ObjectName name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(this, name);
+        mObjectName = name;
+    }
+
+    public synchronized void unregister() {
+        if (mObjectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mObjectName);
+        }
+        catch (JMException e) {
+            /* Replaced by another instance in the meantime */
+        }
+        mObjectName = null;
+    }
+
+    @Override
+    public long getTotalTicks() {
+        return mTicks;
+    }
+
+    @Override
+    public double getSimulatedTime() {
+        return mSimulatedTime;
+    }
+
+    @Override
+    public synchronized double getTicksPerSecond() {
+        sampleIfDue();
+        return mTicksPerSecond;
+    }
+
+    @Override
+    public synchronized double getSimulatedTimeRatio() {
+        sampleIfDue();
+        return mTimeRatio;
+    }
+
+    @Override
+    public synchronized double getTickTimeMedianMicros() {
+        return mTickTimes.getPercentile(50) / 1e3;
+    }
+
+    @Override
+    public synchronized double getTickTimeP99Micros() {
+        return mTickTimes.getPercentile(99) / 1e3;
+    }
+
+    @Override
+    public synchronized double getTickTimeMaxMicros() {
+        return mTickTimes.getMax() / 1e3;
+    }
+
+    @Override
+    public synchronized long getTotalFrames() {
+        return mFrames;
+    }
+
+    @Override
+    public synchronized double getFramesPerSecond() {
+        sampleIfDue();
+        return mFramesPerSecond;
+    }
+
+    @Override
+    public synchronized double getFrameTimeMedianMillis() {
+        return mFrameTimes.getPercentile(50) / 1e6;
+    }
+
+    @Override
+    public synchronized double getFrameTimeP90Millis() {
+        return mFrameTimes.getPercentile(90) / 1e6;
+    }
+
+    @Override
+    public synchronized double getFrameTimeP99Millis() {
+        return mFrameTimes.getPercentile(99) / 1e6;
+    }
+
+    @Override
+    public synchronized double getFrameTimeMaxMillis() {
+        return mFrameTimes.getMax() / 1e6;
+    }
+
+    @Override
+    public synchronized double getRenderTimeP99Millis() {
+        return mRenderTimes.getPercentile(99) / 1e6;
+    }
+
+    @Override
+    public synchronized double getAllocationRateMegabytes() {
+        sampleIfDue();
+        return mAllocationRate / 1e6;
+    }
+
+    @Override
+    public long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : mCollectors) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    @Override
+    public long getGcTimeMillis() {
+        long time = 0;
+        for (GarbageCollectorMXBean collector : mCollectors) {
+            time += Math.max(0, collector.getCollectionTime());
+        }
+        return time;
+    }
+
+    @Override
+    public synchronized double getGcTimeMillisPerSecond() {
+        sampleIfDue();
+        return mGcTimeRate;
+    }
+
+    @Override
+    public synchronized double getGcMeanPauseMillis() {
+        sampleIfDue();
+        return mGcMeanPause;
+    }
+
+    /*
+     *  Clears time percentiles, counters and rates keep running
+     */
+    @Override
+    public synchronized void reset() {
+        mTickTimes.reset();
+        mFrameTimes.reset();
+        mRenderTimes.reset();
+    }
+
+    public synchronized String[] getSummary() {
+        sampleIfDue();
+        String[] lines = new String[6];
+        lines[0] = String.format(Locale.ROOT, "telemetry: %d ticks, %.0f ticks/s, sim/wall %.3f",
+                                 mTicks, mTicksPerSecond, mTimeRatio);
+        lines[1] = String.format(Locale.ROOT, "tick   p50 %.2f us  p99 %.2f us  max %.1f us",
+                                 getTickTimeMedianMicros(), getTickTimeP99Micros(), getTickTimeMaxMicros());
+        lines[2] = String.format(Locale.ROOT, "frame  %.1f fps  p50 %.1f ms  p90 %.1f  p99 %.1f  max %.1f",
+                                 mFramesPerSecond, getFrameTimeMedianMillis(), getFrameTimeP90Millis(),
+                                 getFrameTimeP99Millis(), getFrameTimeMaxMillis());
+        lines[3] = String.format(Locale.ROOT, "render p50 %.1f ms  p99 %.1f ms",
+                                 mRenderTimes.getPercentile(50) / 1e6, getRenderTimeP99Millis());
+        lines[4] = Double.isNaN(mAllocationRate) ? "alloc  not available"
+                                                 : String.format(Locale.ROOT, "alloc  %.1f MB/s", mAllocationRate / 1e6);
+        lines[5] = String.format(Locale.ROOT, "gc     %d collections  %.1f ms/s  mean pause %.1f ms",
+                                 getGcCount(), mGcTimeRate, mGcMeanPause);
+        return lines;
+    }
+}
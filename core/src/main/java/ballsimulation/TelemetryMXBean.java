@@ -0,0 +1,53 @@
+package ballsimulation;
+
+/*
+ *  Counters of Telemetry published through JMX, readable with jconsole,
+ *  VisualVM or jcmd while the simulation runs. Rates are averaged over the
+ *  last sample interval, times are percentiles since the last reset.
+ */
+public interface TelemetryMXBean {
+
+    long getTotalTicks();
+
+    double getSimulatedTime();
+
+    double getTicksPerSecond();
+
+    /* Simulated time advanced per second of wall time */
+    double getSimulatedTimeRatio();
+
+    double getTickTimeMedianMicros();
+
+    double getTickTimeP99Micros();
+
+    double getTickTimeMaxMicros();
+
+    long getTotalFrames();
+
+    double getFramesPerSecond();
+
+    double getFrameTimeMedianMillis();
+
+    double getFrameTimeP90Millis();
+
+    double getFrameTimeP99Millis();
+
+    double getFrameTimeMaxMillis();
+
+    double getRenderTimeP99Millis();
+
+    /* Bytes allocated per second by all live threads, NaN when the JVM does not count them */
+    double getAllocationRateMegabytes();
+
+    long getGcCount();
+
+    long getGcTimeMillis();
+
+    /* Milliseconds spent in collections per second of wall time */
+    double getGcTimeMillisPerSecond();
+
+    /* Mean duration of the collections of the last sample interval */
+    double getGcMeanPauseMillis();
+
+    void reset();
+}
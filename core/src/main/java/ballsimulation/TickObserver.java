@@ -0,0 +1,19 @@
+package ballsimulation;
+
+/*
+ *  Stage which runs on the simulation thread after every tick of an engine.
+ *
+ *  Observers see the state after the tick is complete, collisions included,
+ *  and must not change it.
+ */
+public interface TickObserver {
+
+    void afterTick(SimulationEngine engine);
+
+    /*
+     *  Called when state was changed outside of ticks, e.g. by a command from
+     *  the UI, so anything derived from previous ticks may no longer hold
+     */
+    default void stateChanged(SimulationEngine engine) {
+    }
+}
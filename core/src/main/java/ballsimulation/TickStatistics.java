@@ -0,0 +1,488 @@
+package ballsimulation;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ *  Statistics of a running simulation, gathered after every tick.
+ *
+ *  Covers the first tracked balls of the engine. Memory does not grow with
+ *  the length of the run: histograms of position and velocity per axis have a
+ *  fixed number of bins, means and variances are merged batch by batch with
+ *  Welford's update, and autocorrelation of the first ball's position is kept
+ *  over a sliding window of samples taken every autocorrelation interval
+ *  ticks. A wall hit is a ball turning around in the wall zone, within its
+ *  radius of a wall plus the distance it moves in a tick, so collisions and
+ *  forces between balls away from the walls do not count as hits.
+ *
+ *  The stage runs on the simulation thread, queries may come from any thread.
+ *  A tick only copies the tracked balls into a pending buffer without taking
+ *  the lock, the buffer is folded into the statistics every mPendingTicks
+ *  ticks and before every query, so queries always see all ticks so far.
+ */
+public class TickStatistics implements TickObserver {
+
+    public static final int DEFAULT_TRACKED_BALLS = 16;
+    public static final int DEFAULT_BIN_COUNT = 50;
+    public static final float DEFAULT_VELOCITY_RANGE = 4.0f;
+    public static final int DEFAULT_WINDOW = 1024;
+    public static final int DEFAULT_MAX_LAG = 128;
+    public static final int DEFAULT_AUTOCORRELATION_INTERVAL = 20;
+
+    public static final int X = 0;
+    public static final int Y = 1;
+    public static final int VX = 2;
+    public static final int VY = 3;
+
+    public static final int WALL_LEFT = 0;
+    public static final int WALL_RIGHT = 1;
+    public static final int WALL_TOP = 2;
+    public static final int WALL_BOTTOM = 3;
+
+    private static final String[] mQuantityNames = {"x", "y", "vx", "vy"};
+    private static final String[] mWallNames = {"left", "right", "top", "bottom"};
+
+    private final int mTrackedBalls;
+    private final int mBinCount;
+    private final float mVelocityRange;
+    private final int mAutocorrelationInterval;
+
+    /* Bins over [0, 1] for positions and [-range, range] for velocities, velocities outside land in edge bins */
+    private final long[][] mHistograms;
+
+    /* Welford state of every quantity over all tracked ball-ticks merged so far */
+    private long mSampleCount = 0;
+    private final double[] mMean = new double[4];
+    private final double[] mSquaredDeviations = new double[4];
+
+    /*
+     *  Batch of ticks not merged yet. Sums are of values minus the shift, which
+     *  is the mean when the batch started, so they stay small and need no
+     *  division per tick.
+     */
+    private static final long mBatchSamples = 1 << 16;
+    private long mBatchCount = 0;
+    private final double[] mBatchShift = new double[4];
+    private final double[] mBatchSum = new double[4];
+    private final double[] mBatchSquares = new double[4];
+
+    private final long[] mWallHits = new long[4];
+    private float[] mPreviousVelocityX = new float[0];
+    private float[] mPreviousVelocityY = new float[0];
+
+    /*
+     *  Ticks copied by afterTick() and not folded yet. Only the simulation
+     *  thread writes, it publishes a tick by raising mPendingCount and empties
+     *  the buffer under the lock, folding takes ticks up to mPendingCount
+     *  under the lock from any thread.
+     */
+    private static final int mPendingTicks = 64;
+    private static final int mBallValues = 5;
+    private static final int mTickValues = 3;
+    private final float[] mPendingBalls;
+    private final float[] mPendingTick = new float[mPendingTicks * mTickValues];
+    private final int[] mPendingBallCount = new int[mPendingTicks];
+    private final AtomicInteger mPendingCount = new AtomicInteger();
+    private int mFoldedCount = 0;
+
+    private final SlidingAutocorrelation mAutocorrelationX;
+    private final SlidingAutocorrelation mAutocorrelationY;
+    private int mTicksUntilSample = 0;
+
+    private long mTicks = 0;
+    private int mBallCount = 0;
+    private double mObservedTime = 0;
+    private double mBallTime = 0;
+
+
+    public TickStatistics() {
+        this(DEFAULT_TRACKED_BALLS, DEFAULT_BIN_COUNT, DEFAULT_VELOCITY_RANGE,
+             DEFAULT_WINDOW, DEFAULT_MAX_LAG, DEFAULT_AUTOCORRELATION_INTERVAL);
+    }
+
+    public TickStatistics(int trackedBalls, int binCount, float velocityRange,
+                          int window, int maxLag, int autocorrelationInterval) {
+        if (trackedBalls < 1 || binCount < 1 || !(velocityRange > 0) || autocorrelationInterval < 1) {
+            throw new IllegalArgumentException("Tracked balls, bin count, velocity range and interval must be positive");
+        }
+        mTrackedBalls = trackedBalls;
+        mBinCount = binCount;
+        mVelocityRange = velocityRange;
+        mAutocorrelationInterval = autocorrelationInterval;
+        mHistograms = new long[4][binCount];
+        mPendingBalls = new float[mPendingTicks * trackedBalls * mBallValues];
+        mAutocorrelationX = new SlidingAutocorrelation(window, maxLag);
+        mAutocorrelationY = new SlidingAutocorrelation(window, maxLag);
+    }
+
+    public int getTrackedBalls() {
+        return mTrackedBalls;
+    }
+
+    public int getBinCount() {
+        return mBinCount;
+    }
+
+    public float getVelocityRange() {
+        return mVelocityRange;
+    }
+
+    public int getAutocorrelationInterval() {
+        return mAutocorrelationInterval;
+    }
+
+    public static String getQuantityName(int quantity) {
+        return mQuantityNames[quantity];
+    }
+
+    public static String getWallName(int wall) {
+        return mWallNames[wall];
+    }
+
+    @Override
+    public void afterTick(SimulationEngine engine) {
+        int tick = mPendingCount.get();
+        if (tick == mPendingTicks) {
+            emptyPending();
+            tick = 0;
+        }
+
+        BallStore balls = engine.getBalls();
+        int count = Math.min(balls.size(), mTrackedBalls);
+        float[] pending = mPendingBalls;
+        int offset = tick * mTrackedBalls * mBallValues;
+        for (int i = 0; i < count; i++) {
+            pending[offset++] = balls.positionX[i];
+            pending[offset++] = balls.positionY[i];
+            pending[offset++] = balls.velocityX[i];
+            pending[offset++] = balls.velocityY[i];
+            pending[offset++] = balls.diameter[i];
+        }
+        mPendingTick[tick * mTickValues] = engine.getTimeTickValue();
+        mPendingTick[tick * mTickValues + 1] = 0.5f / engine.getRectangleWidth();
+        mPendingTick[tick * mTickValues + 2] = 0.5f / engine.getRectangleHeight();
+        mPendingBallCount[tick] = count;
+        mPendingCount.lazySet(tick + 1);
+    }
+
+    /*
+     *  Folds all pending ticks and starts a new buffer, simulation thread only
+     */
+    private synchronized void emptyPending() {
+        foldPending();
+        mFoldedCount = 0;
+        mPendingCount.set(0);
+    }
+
+    /*
+     *  Folds ticks published since the last fold into the statistics, sums
+     *  and counts are kept in locals over all of them
+     */
+    private void foldPending() {
+        int from = mFoldedCount;
+        int end = mPendingCount.get();
+        if (from == end) {
+            return;
+        }
+        mFoldedCount = end;
+
+        float[] pending = mPendingBalls;
+        float[] tickValues = mPendingTick;
+        int[] ballCounts = mPendingBallCount;
+        int stride = mTrackedBalls * mBallValues;
+        if (mTrackedBalls > mPreviousVelocityX.length) {
+            mPreviousVelocityX = Arrays.copyOf(mPreviousVelocityX, mTrackedBalls);
+            mPreviousVelocityY = Arrays.copyOf(mPreviousVelocityY, mTrackedBalls);
+        }
+        float[] previousVX = mPreviousVelocityX;
+        float[] previousVY = mPreviousVelocityY;
+        long[] histogramX = mHistograms[X];
+        long[] histogramY = mHistograms[Y];
+        long[] histogramVX = mHistograms[VX];
+        long[] histogramVY = mHistograms[VY];
+        int lastBin = mBinCount - 1;
+        float positionScale = mBinCount;
+        float velocityScale = mBinCount / (2 * mVelocityRange);
+        float range = mVelocityRange;
+
+        if (mSampleCount == 0 && mBatchCount == 0) {
+            for (int tick = from; tick < end; tick++) {
+                if (ballCounts[tick] > 0) {
+                    int first = tick * stride;
+                    mBatchShift[X] = pending[first];
+                    mBatchShift[Y] = pending[first + 1];
+                    mBatchShift[VX] = pending[first + 2];
+                    mBatchShift[VY] = pending[first + 3];
+                    break;
+                }
+            }
+        }
+        double shiftX = mBatchShift[X];
+        double shiftY = mBatchShift[Y];
+        double shiftVX = mBatchShift[VX];
+        double shiftVY = mBatchShift[VY];
+
+        double sumX = 0;
+        double sumY = 0;
+        double sumVX = 0;
+        double sumVY = 0;
+        double squaresX = 0;
+        double squaresY = 0;
+        double squaresVX = 0;
+        double squaresVY = 0;
+        long hitsLeft = 0;
+        long hitsRight = 0;
+        long hitsTop = 0;
+        long hitsBottom = 0;
+        long samples = 0;
+        double observedTime = 0;
+        double ballTime = 0;
+        int ticksUntilSample = mTicksUntilSample;
+        for (int tick = from; tick < end; tick++) {
+            int count = ballCounts[tick];
+            float dt = tickValues[tick * mTickValues];
+            float radiusScaleX = tickValues[tick * mTickValues + 1];
+            float radiusScaleY = tickValues[tick * mTickValues + 2];
+            int offset = tick * stride;
+
+            for (int i = 0; i < count; i++, offset += mBallValues) {
+                float x = pending[offset];
+                float y = pending[offset + 1];
+                float velX = pending[offset + 2];
+                float velY = pending[offset + 3];
+
+                histogramX[Math.max(0, Math.min((int)(x * positionScale), lastBin))]++;
+                histogramY[Math.max(0, Math.min((int)(y * positionScale), lastBin))]++;
+                histogramVX[Math.max(0, Math.min((int)((velX + range) * velocityScale), lastBin))]++;
+                histogramVY[Math.max(0, Math.min((int)((velY + range) * velocityScale), lastBin))]++;
+
+                /* Previous velocity is 0 for new balls and after state changes, so they do not count */
+                if (velX * previousVX[i] < 0) {
+                    float zone = pending[offset + 4] * radiusScaleX + Math.abs(velX) * dt;
+                    if (x <= zone) {
+                        hitsLeft++;
+                    }
+                    else if (x >= 1 - zone) {
+                        hitsRight++;
+                    }
+                }
+                if (velY * previousVY[i] < 0) {
+                    float zone = pending[offset + 4] * radiusScaleY + Math.abs(velY) * dt;
+                    if (y <= zone) {
+                        hitsTop++;
+                    }
+                    else if (y >= 1 - zone) {
+                        hitsBottom++;
+                    }
+                }
+                previousVX[i] = velX;
+                previousVY[i] = velY;
+
+                double dx = x - shiftX;
+                double dy = y - shiftY;
+                double dvx = velX - shiftVX;
+                double dvy = velY - shiftVY;
+                sumX += dx;
+                sumY += dy;
+                sumVX += dvx;
+                sumVY += dvy;
+                squaresX += dx * dx;
+                squaresY += dy * dy;
+                squaresVX += dvx * dvx;
+                squaresVY += dvy * dvy;
+            }
+
+            if (count > 0 && --ticksUntilSample <= 0) {
+                ticksUntilSample = mAutocorrelationInterval;
+                mAutocorrelationX.add(pending[tick * stride]);
+                mAutocorrelationY.add(pending[tick * stride + 1]);
+            }
+
+            samples += count;
+            observedTime += dt;
+            ballTime += (double)dt * count;
+            mBallCount = count;
+        }
+        mTicksUntilSample = ticksUntilSample;
+
+        mWallHits[WALL_LEFT] += hitsLeft;
+        mWallHits[WALL_RIGHT] += hitsRight;
+        mWallHits[WALL_TOP] += hitsTop;
+        mWallHits[WALL_BOTTOM] += hitsBottom;
+        mBatchSum[X] += sumX;
+        mBatchSum[Y] += sumY;
+        mBatchSum[VX] += sumVX;
+        mBatchSum[VY] += sumVY;
+        mBatchSquares[X] += squaresX;
+        mBatchSquares[Y] += squaresY;
+        mBatchSquares[VX] += squaresVX;
+        mBatchSquares[VY] += squaresVY;
+        mBatchCount += samples;
+        if (mBatchCount >= mBatchSamples) {
+            mergeBatch();
+        }
+        mTicks += end - from;
+        mObservedTime += observedTime;
+        mBallTime += ballTime;
+    }
+
+    /*
+     *  Merges mean and squared deviations of the batch into the running ones
+     *  and starts a new batch shifted by the new mean
+     */
+    private void mergeBatch() {
+        if (mBatchCount == 0) {
+            return;
+        }
+
+        long total = mSampleCount + mBatchCount;
+        for (int q = X; q <= VY; q++) {
+            double batchMean = mBatchShift[q] + mBatchSum[q] / mBatchCount;
+            double batchDeviations = Math.max(mBatchSquares[q] - mBatchSum[q] * mBatchSum[q] / mBatchCount, 0);
+            double delta = batchMean - mMean[q];
+            mMean[q] += delta * mBatchCount / total;
+            mSquaredDeviations[q] += batchDeviations + delta * delta * mSampleCount / total * mBatchCount;
+
+            mBatchShift[q] = mMean[q];
+            mBatchSum[q] = 0;
+            mBatchSquares[q] = 0;
+        }
+        mSampleCount = total;
+        mBatchCount = 0;
+    }
+
+    /*
+     *  Trajectories are not continuous across edits, so turnarounds and
+     *  correlations must not be taken across them
+     */
+    @Override
+    public synchronized void stateChanged(SimulationEngine engine) {
+        foldPending();
+        Arrays.fill(mPreviousVelocityX, 0);
+        Arrays.fill(mPreviousVelocityY, 0);
+        mAutocorrelationX.clear();
+        mAutocorrelationY.clear();
+        mTicksUntilSample = 0;
+    }
+
+    public synchronized void reset() {
+        /* Ticks before the reset are dropped, the buffer may be being written */
+        mFoldedCount = mPendingCount.get();
+        for (long[] histogram : mHistograms) {
+            Arrays.fill(histogram, 0);
+        }
+        mSampleCount = 0;
+        Arrays.fill(mMean, 0);
+        Arrays.fill(mSquaredDeviations, 0);
+        mBatchCount = 0;
+        Arrays.fill(mBatchSum, 0);
+        Arrays.fill(mBatchSquares, 0);
+        Arrays.fill(mWallHits, 0);
+        Arrays.fill(mPreviousVelocityX, 0);
+        Arrays.fill(mPreviousVelocityY, 0);
+        mAutocorrelationX.clear();
+        mAutocorrelationY.clear();
+        mTicksUntilSample = 0;
+        mTicks = 0;
+        mBallCount = 0;
+        mObservedTime = 0;
+        mBallTime = 0;
+    }
+
+    public synchronized long getTicks() {
+        foldPending();
+        return mTicks;
+    }
+
+    public synchronized long getSampleCount() {
+        foldPending();
+        return mSampleCount + mBatchCount;
+    }
+
+    public synchronized double getObservedTime() {
+        foldPending();
+        return mObservedTime;
+    }
+
+    public synchronized double getMean(int quantity) {
+        foldPending();
+        mergeBatch();
+        return mSampleCount > 0 ? mMean[quantity] : Double.NaN;
+    }
+
+    public synchronized double getVariance(int quantity) {
+        foldPending();
+        mergeBatch();
+        return mSampleCount > 1 ? mSquaredDeviations[quantity] / (mSampleCount - 1) : Double.NaN;
+    }
+
+    /*
+     *  Copies bin counts of a quantity into histogram, which must hold bin count values
+     */
+    public synchronized void getHistogram(int quantity, long[] histogram) {
+        foldPending();
+        System.arraycopy(mHistograms[quantity], 0, histogram, 0, mBinCount);
+    }
+
+    /*
+     *  Lower edge of a bin of quantity
+     */
+    public double getBinStart(int quantity, int bin) {
+        if (quantity == X || quantity == Y) {
+            return (double)bin / mBinCount;
+        }
+        return -mVelocityRange + 2.0 * mVelocityRange * bin / mBinCount;
+    }
+
+    public synchronized long getWallHits(int wall) {
+        foldPending();
+        return mWallHits[wall];
+    }
+
+    /*
+     *  Hits of a wall per ball per unit of simulated time
+     */
+    public synchronized double getWallHitRate(int wall) {
+        foldPending();
+        return mBallTime > 0 ? mWallHits[wall] / mBallTime : Double.NaN;
+    }
+
+    /*
+     *  Autocorrelation of the first ball's x or y at lag given in samples, one
+     *  sample per autocorrelation interval ticks
+     */
+    public synchronized double getAutocorrelation(int axis, int lag) {
+        foldPending();
+        return (axis == X ? mAutocorrelationX : mAutocorrelationY).get(lag);
+    }
+
+    /*
+     *  Ticks until the first ball's position has decorrelated to 1/e, -1 while it has not
+     */
+    public synchronized long getCorrelationTicks(int axis) {
+        foldPending();
+        int lag = (axis == X ? mAutocorrelationX : mAutocorrelationY).getDecorrelationLag(Math.exp(-1));
+        return lag < 0 ? -1 : (long)lag * mAutocorrelationInterval;
+    }
+
+    /*
+     *  Short human readable summary, one line per entry
+     */
+    public synchronized String[] getSummary() {
+        foldPending();
+        String[] lines = new String[8];
+        lines[0] = String.format(Locale.ROOT, "statistics: %d ticks, %d balls, %.1f time units",
+                                 mTicks, mBallCount, mObservedTime);
+        for (int q = X; q <= VY; q++) {
+            lines[1 + q] = String.format(Locale.ROOT, "%-2s mean %+.5f  sd %.5f", mQuantityNames[q], getMean(q), Math.sqrt(getVariance(q)));
+        }
+        lines[5] = String.format(Locale.ROOT, "wall hits L %d R %d T %d B %d",
+                                 mWallHits[WALL_LEFT], mWallHits[WALL_RIGHT], mWallHits[WALL_TOP], mWallHits[WALL_BOTTOM]);
+        lines[6] = String.format(Locale.ROOT, "hit rate per ball x %.4f y %.4f",
+                                 getWallHitRate(WALL_LEFT) + getWallHitRate(WALL_RIGHT),
+                                 getWallHitRate(WALL_TOP) + getWallHitRate(WALL_BOTTOM));
+        lines[7] = String.format(Locale.ROOT, "correlation ticks x %d y %d", getCorrelationTicks(X), getCorrelationTicks(Y));
+        return lines;
+    }
+}
@@ -0,0 +1,256 @@
+package ballsimulation;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ *  Integrator which resolves wall collisions at the exact time of impact.
+ *
+ *  Within a tick every ball moves with constant acceleration, which is exact
+ *  for alpha = 0. The time at which it reaches the border of a wall zone is
+ *  found by solving the quadratic equation of motion, ball is moved exactly to
+ *  the border, reflected and the remainder of the tick is integrated from
+ *  there. Force is evaluated at the end of the tick and after every impact,
+ *  velocity is advanced with the average of the forces at both ends of a
+ *  segment like in velocity Verlet.
+ *
+ *  Without force (alpha = 0) motion between impacts is exactly linear, so
+ *  advanceTicks() skips ticking altogether: upcoming impacts of all balls are
+ *  kept in an EventQueue and simulation jumps from one impact to the next.
+ */
+public class TimeOfImpactIntegrator implements Integrator {
+
+    /* Guards against endless reflection loops in degenerate cases */
+    private static final int mMaxImpactsPerTick = 16;
+
+    /* Roots closer than this to the current time are the impact just resolved */
+    private static final double mTimeEpsilon = 1e-12;
+
+    private final LongAdder mForceEvaluations = new LongAdder();
+    private final LongAdder mImpacts = new LongAdder();
+
+    /* State of event-driven ballistic mode, kept to avoid reallocation between calls */
+    private final EventQueue mEvents = new EventQueue();
+    private double[] mEventTime = new double[0];
+    private double[] mTime = new double[0];
+    private double[] mX = new double[0];
+    private double[] mY = new double[0];
+
+
+    @Override
+    public String getName() {
+        return "toi";
+    }
+
+    public long getImpacts() {
+        return mImpacts.sum();
+    }
+
+    @Override
+    public void prepare(SimulationEngine engine) {
+    }
+
+    @Override
+    public void stepRange(SimulationEngine engine, int from, int to) {
+        final BallStore balls = engine.getBalls();
+        final double dt = engine.getTimeTickValue();
+        final double alpha = engine.getAlpha();
+        final ForceField field = engine.getForceField();
+        final double width = engine.getRectangleWidth();
+        final double height = engine.getRectangleHeight();
+
+        long evaluations = 0;
+        long impacts = 0;
+
+        for (int i = from; i < to; i++) {
+            double x = balls.positionX[i];
+            double y = balls.positionY[i];
+            double u = balls.velocityX[i];
+            double w = balls.velocityY[i];
+            double ax = balls.accelerationX[i];
+            double ay = balls.accelerationY[i];
+            double rx = balls.diameter[i] / width / 2.0;
+            double ry = balls.diameter[i] / height / 2.0;
+
+            double remaining = dt;
+            for (int impact = 0; impact <= mMaxImpactsPerTick; impact++) {
+                double tx = timeToWall(x, u, ax, rx);
+                double ty = timeToWall(y, w, ay, ry);
+                double t = Math.min(remaining, Math.min(tx, ty));
+
+                x += (u + 0.5 * ax * t) * t;
+                y += (w + 0.5 * ay * t) * t;
+                remaining -= t;
+
+                boolean hitX = tx <= t;
+                boolean hitY = ty <= t;
+                if (hitX) {
+                    x = x < 0.5 ? rx : 1 - rx;
+                }
+                if (hitY) {
+                    y = y < 0.5 ? ry : 1 - ry;
+                }
+
+                /* Velocity is updated with the average force over the segment, as in velocity Verlet */
+                double newAx = SimulationEngine.forceX(field, alpha, x, y);
+                double newAy = SimulationEngine.forceY(field, alpha, x, y);
+                u += 0.5 * (ax + newAx) * t;
+                w += 0.5 * (ay + newAy) * t;
+                ax = newAx;
+                ay = newAy;
+                evaluations++;
+
+                if (hitX) {
+                    u = -u;
+                }
+                if (hitY) {
+                    w = -w;
+                }
+
+                if (!hitX && !hitY) {
+                    break;
+                }
+                impacts++;
+                if (remaining <= 0) {
+                    break;
+                }
+            }
+
+            balls.positionX[i] = (float)x;
+            balls.positionY[i] = (float)y;
+            balls.velocityX[i] = (float)u;
+            balls.velocityY[i] = (float)w;
+            balls.accelerationX[i] = (float)ax;
+            balls.accelerationY[i] = (float)ay;
+        }
+
+        mForceEvaluations.add(evaluations);
+        mImpacts.add(impacts);
+    }
+
+    /*
+     *  Earliest time at which coordinate x moving with velocity u and constant
+     *  acceleration a enters wall zone [0, r] or [1 - r, 1], 0 if it is already
+     *  in the zone and moving into the wall, infinity if it does not happen
+     */
+    static double timeToWall(double x, double u, double a, double r) {
+        if ((x <= r && u < 0) || (x >= 1 - r && u > 0)) {
+            return 0.0;
+        }
+        return Math.min(timeToReach(x - r, u, a), timeToReach(x - (1 - r), u, a));
+    }
+
+    /*
+     *  Smallest positive root of 0.5 * a * t^2 + u * t + offset = 0
+     */
+    private static double timeToReach(double offset, double u, double a) {
+        if (a == 0.0) {
+            double t = -offset / u;
+            return t > mTimeEpsilon ? t : Double.POSITIVE_INFINITY;
+        }
+
+        double discriminant = u * u - 2.0 * a * offset;
+        if (discriminant < 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        /* Numerically stable form of the quadratic formula */
+        double q = -0.5 * (u + Math.copySign(Math.sqrt(discriminant), u));
+        double t1 = q / (0.5 * a);
+        double t2 = q != 0.0 ? offset / q : Double.POSITIVE_INFINITY;
+
+        double t = Double.POSITIVE_INFINITY;
+        if (t1 > mTimeEpsilon) {
+            t = t1;
+        }
+        if (t2 > mTimeEpsilon && t2 < t) {
+            t = t2;
+        }
+        return t;
+    }
+
+    /*
+     *  Event-driven advance for force-free motion. Returns false when there is
+     *  a force, so the engine has to tick normally.
+     */
+    @Override
+    public boolean advanceTicks(SimulationEngine engine, long ticks) {
+        if (engine.getAlpha() != 0.0f || engine.getForceField() != null) {
+            return false;
+        }
+
+        final BallStore balls = engine.getBalls();
+        final int count = balls.size();
+        final double duration = ticks * (double)engine.getTimeTickValue();
+        final double width = engine.getRectangleWidth();
+        final double height = engine.getRectangleHeight();
+
+        /* Balls may have been changed from outside since the last call, so events are rebuilt */
+        if (mTime.length < count) {
+            mEventTime = new double[count];
+            mTime = new double[count];
+            mX = new double[count];
+            mY = new double[count];
+        }
+        for (int i = 0; i < count; i++) {
+            mTime[i] = 0.0;
+            mX[i] = balls.positionX[i];
+            mY[i] = balls.positionY[i];
+            mEventTime[i] = nextImpact(i, balls, width, height);
+        }
+        mEvents.build(mEventTime, count);
+
+        long impacts = 0;
+        while (mEvents.peekTime() <= duration) {
+            int i = mEvents.peekBall();
+            double time = mEvents.peekTime();
+            double rx = balls.diameter[i] / width / 2.0;
+            double ry = balls.diameter[i] / height / 2.0;
+
+            double tx = timeToWall(mX[i], balls.velocityX[i], 0.0, rx);
+            double ty = timeToWall(mY[i], balls.velocityY[i], 0.0, ry);
+
+            /* Ball is moved lazily, only when one of its impacts is processed */
+            mX[i] += balls.velocityX[i] * (time - mTime[i]);
+            mY[i] += balls.velocityY[i] * (time - mTime[i]);
+            mTime[i] = time;
+
+            double first = Math.min(tx, ty);
+            if (tx <= first) {
+                mX[i] = mX[i] < 0.5 ? rx : 1 - rx;
+                balls.velocityX[i] = -balls.velocityX[i];
+            }
+            if (ty <= first) {
+                mY[i] = mY[i] < 0.5 ? ry : 1 - ry;
+                balls.velocityY[i] = -balls.velocityY[i];
+            }
+            impacts++;
+
+            mEvents.update(i, time + nextImpact(i, balls, width, height));
+        }
+
+        for (int i = 0; i < count; i++) {
+            balls.positionX[i] = (float)(mX[i] + balls.velocityX[i] * (duration - mTime[i]));
+            balls.positionY[i] = (float)(mY[i] + balls.velocityY[i] * (duration - mTime[i]));
+            balls.accelerationX[i] = 0.0f;
+            balls.accelerationY[i] = 0.0f;
+        }
+
+        mImpacts.add(impacts);
+        return true;
+    }
+
+    /*
+     *  Time from now until the next impact of force-free ball i
+     */
+    private double nextImpact(int i, BallStore balls, double width, double height) {
+        double rx = balls.diameter[i] / width / 2.0;
+        double ry = balls.diameter[i] / height / 2.0;
+        return Math.min(timeToWall(mX[i], balls.velocityX[i], 0.0, rx),
+                        timeToWall(mY[i], balls.velocityY[i], 0.0, ry));
+    }
+
+    @Override
+    public long getForceEvaluations() {
+        return mForceEvaluations.sum();
+    }
+}
@@ -0,0 +1,117 @@
+package ballsimulation;
+
+/*
+ *  Position history of all balls in one preallocated float array.
+ *
+ *  Every ball owns a ring of `capacity` points stored at a fixed stride. All
+ *  balls are sampled at the same moment, so the rings share one head and one
+ *  size and recording a sample is a plain strided copy of positions. The array
+ *  is only reallocated when it has to grow.
+ */
+public class TrailBuffer {
+
+    /* Upper bound on stored points of all balls together, 64 MB of floats */
+    private static final int mMaxPoints = 1 << 23;
+
+    private float[] mPoints = new float[0];
+
+    private int mBallCount = 0;
+    private int mCapacity = 0;
+    private int mLength = 0;
+
+    /* Slot of the next sample and number of valid samples */
+    private int mHead = 0;
+    private int mSize = 0;
+
+
+    public TrailBuffer(int length) {
+        setLength(length);
+    }
+
+    /*
+     *  Requested number of points per ball, fewer are kept when all trails
+     *  together would not fit into the point budget
+     */
+    public void setLength(int length) {
+        mLength = Math.max(length, 2);
+        mCapacity = 0;
+        mSize = 0;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    /*
+     *  Points kept per ball for the current number of balls
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        mHead = 0;
+        mSize = 0;
+    }
+
+    /*
+     *  Appends current positions of all balls. Trails restart when the number
+     *  of balls changed, because indices of existing balls may have moved.
+     */
+    public void record(BallStore balls) {
+        int count = balls.size();
+        if (count != mBallCount || mCapacity == 0) {
+            resize(count);
+        }
+        if (mCapacity < 2) {
+            return;
+        }
+
+        float[] positionX = balls.positionX;
+        float[] positionY = balls.positionY;
+        int stride = 2 * mCapacity;
+        for (int i = 0, offset = 2 * mHead; i < count; i++, offset += stride) {
+            mPoints[offset] = positionX[i];
+            mPoints[offset + 1] = positionY[i];
+        }
+
+        mHead = mHead + 1 == mCapacity ? 0 : mHead + 1;
+        if (mSize < mCapacity) {
+            mSize++;
+        }
+    }
+
+    private void resize(int ballCount) {
+        mBallCount = ballCount;
+        mCapacity = ballCount > 0 ? Math.min(mLength, mMaxPoints / ballCount) : mLength;
+        int required = 2 * mCapacity * ballCount;
+        if (required > mPoints.length) {
+            mPoints = new float[required];
+        }
+        clear();
+    }
+
+    /*
+     *  Writes trail of the ball in pixels, oldest point first, and returns the
+     *  number of points written
+     */
+    public int copyPath(int ball, int xStart, int yStart, int width, int height, int[] xs, int[] ys) {
+        if (ball >= mBallCount) {
+            return 0;
+        }
+
+        int base = 2 * mCapacity * ball;
+        int slot = mSize < mCapacity ? 0 : mHead;
+        for (int k = 0; k < mSize; k++) {
+            int offset = base + 2 * slot;
+            xs[k] = xStart + Math.round(mPoints[offset] * width);
+            ys[k] = yStart + Math.round(mPoints[offset + 1] * height);
+            slot = slot + 1 == mCapacity ? 0 : slot + 1;
+        }
+        return mSize;
+    }
+}
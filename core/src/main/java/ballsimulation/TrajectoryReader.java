@@ -0,0 +1,312 @@
+package ballsimulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ *  Reads trajectory files written by TrajectoryRecorder.
+ *
+ *  Only the keyframe index is loaded onto the heap. Frames are read through
+ *  one memory mapped window which moves along the file, so recordings of any
+ *  size can be scrubbed. Seeking finds the last keyframe at or before the tick
+ *  by binary search over the index and re-simulates the remaining ticks, at
+ *  most record interval * keyframe interval of them. Re-simulation repeats the
+ *  recorded ticks exactly when the engine has the same integrator, kernel
+ *  choice aside, and collision setting as the recorded one.
+ */
+public class TrajectoryReader implements Closeable {
+
+    /* Smallest mapped window, a window is larger only when a single frame does not fit */
+    private static final long mWindowSize = 64L << 20;
+
+    private final FileChannel mChannel;
+    private final long mFileSize;
+    private ByteOrder mOrder;
+
+    private int mRecordInterval;
+    private int mKeyframeInterval;
+    private long mFrameCount;
+    private long mFirstTick;
+    private long mLastTick;
+
+    /* End of frames, start of the index */
+    private long mFramesEnd;
+
+    private long[] mIndexTicks;
+    private long[] mIndexOffsets;
+    private int mKeyframeCount;
+
+    private MappedByteBuffer mWindow;
+    private FloatBuffer mWindowFloats;
+    private long mWindowStart;
+
+
+    public TrajectoryReader(Path file) throws IOException {
+        mChannel = FileChannel.open(file, StandardOpenOption.READ);
+        mFileSize = mChannel.size();
+        try {
+            readHeader();
+        }
+        catch (IOException | RuntimeException e) {
+            mChannel.close();
+            throw e;
+        }
+    }
+
+    public int getRecordInterval() {
+        return mRecordInterval;
+    }
+
+    public int getKeyframeInterval() {
+        return mKeyframeInterval;
+    }
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    public int getKeyframeCount() {
+        return mKeyframeCount;
+    }
+
+    public long getFirstTick() {
+        return mFirstTick;
+    }
+
+    public long getLastTick() {
+        return mLastTick;
+    }
+
+    public long getFileSize() {
+        return mFileSize;
+    }
+
+    private void readHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(TrajectoryRecorder.HEADER_SIZE);
+        if (mFileSize < TrajectoryRecorder.HEADER_SIZE || mChannel.read(header, 0) < TrajectoryRecorder.HEADER_SIZE) {
+            throw new IOException("Not a trajectory file, header is incomplete");
+        }
+        header.flip();
+
+        byte[] magic = new byte[TrajectoryRecorder.MAGIC.length];
+        header.get(magic);
+        if (!Arrays.equals(magic, TrajectoryRecorder.MAGIC)) {
+            throw new IOException("Not a trajectory file, magic does not match");
+        }
+        mOrder = header.get() == 1 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        header.order(mOrder);
+        header.position(header.position() + 3);
+
+        int version = header.getInt();
+        if (version != TrajectoryRecorder.VERSION) {
+            throw new IOException("Unsupported trajectory file version " + version);
+        }
+        mRecordInterval = header.getInt();
+        mKeyframeInterval = header.getInt();
+        mFrameCount = header.getLong();
+        mFirstTick = header.getLong();
+        mLastTick = header.getLong();
+        long indexOffset = header.getLong();
+        int keyframeCount = header.getInt();
+
+        if (indexOffset > 0) {
+            readIndex(indexOffset, keyframeCount);
+        }
+        else {
+            rebuildIndex();
+        }
+    }
+
+    private void readIndex(long indexOffset, int keyframeCount) throws IOException {
+        mFramesEnd = indexOffset;
+        mKeyframeCount = keyframeCount;
+        mIndexTicks = new long[keyframeCount];
+        mIndexOffsets = new long[keyframeCount];
+
+        ByteBuffer index = ByteBuffer.allocate(keyframeCount * TrajectoryRecorder.INDEX_ENTRY_SIZE).order(mOrder);
+        while (index.hasRemaining()) {
+            if (mChannel.read(index, indexOffset + index.position()) < 0) {
+                throw new IOException("Keyframe index is truncated");
+            }
+        }
+        index.flip();
+        for (int k = 0; k < keyframeCount; k++) {
+            mIndexTicks[k] = index.getLong();
+            mIndexOffsets[k] = index.getLong();
+        }
+    }
+
+    /*
+     *  Recording was not closed, so walk the frames to find keyframes. Frames
+     *  end where a zero size was never overwritten by the recorder.
+     */
+    private void rebuildIndex() {
+        mIndexTicks = new long[64];
+        mIndexOffsets = new long[64];
+        mKeyframeCount = 0;
+        mFrameCount = 0;
+
+        long offset = TrajectoryRecorder.HEADER_SIZE;
+        while (offset + TrajectoryRecorder.FRAME_HEADER_SIZE <= mFileSize) {
+            int base = map(offset, TrajectoryRecorder.FRAME_HEADER_SIZE);
+            int size = mWindow.getInt(base);
+            if (size < TrajectoryRecorder.FRAME_HEADER_SIZE || offset + size > mFileSize) {
+                break;
+            }
+
+            long tick = mWindow.getLong(base + 8);
+            if (mWindow.getInt(base + 4) == TrajectoryRecorder.FRAME_KEYFRAME) {
+                if (mKeyframeCount == mIndexTicks.length) {
+                    mIndexTicks = Arrays.copyOf(mIndexTicks, 2 * mKeyframeCount);
+                    mIndexOffsets = Arrays.copyOf(mIndexOffsets, 2 * mKeyframeCount);
+                }
+                mIndexTicks[mKeyframeCount] = tick;
+                mIndexOffsets[mKeyframeCount] = offset;
+                mKeyframeCount++;
+            }
+            if (mFrameCount == 0) {
+                mFirstTick = tick;
+            }
+            mLastTick = tick;
+            mFrameCount++;
+            offset += size;
+        }
+        mFramesEnd = offset;
+    }
+
+    /*
+     *  Makes bytes [offset, offset + length) of the file available in the
+     *  window and returns position of offset inside it
+     */
+    private int map(long offset, long length) {
+        if (mWindow == null || offset < mWindowStart || offset + length > mWindowStart + mWindow.capacity()) {
+            long size = Math.min(Math.max(mWindowSize, length), mFileSize - offset);
+            if (size > Integer.MAX_VALUE || size < length) {
+                throw new IllegalStateException("Frame at " + offset + " does not fit into a mapped window");
+            }
+            try {
+                mWindow = mChannel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            mWindow.order(mOrder);
+            mWindowFloats = mWindow.asFloatBuffer();
+            mWindowStart = offset;
+        }
+        return (int)(offset - mWindowStart);
+    }
+
+    /*
+     *  Index of the last keyframe at or before tick, the first one for earlier ticks
+     */
+    private int findKeyframe(long tick) {
+        if (mKeyframeCount == 0) {
+            throw new IllegalStateException("Trajectory has no keyframes");
+        }
+
+        int low = 0;
+        int high = mKeyframeCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (mIndexTicks[middle] <= tick) {
+                low = middle;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /*
+     *  Restores engine to the recorded state at tick. Returns number of ticks
+     *  re-simulated after the keyframe.
+     */
+    public long seek(long tick, SimulationEngine engine) {
+        int keyframe = findKeyframe(tick);
+        long offset = mIndexOffsets[keyframe];
+        int base = map(offset, TrajectoryRecorder.FRAME_HEADER_SIZE);
+        int size = mWindow.getInt(base);
+        base = map(offset, size);
+
+        int count = mWindow.getInt(base + 32);
+        engine.setTimeTickValue(mWindow.getFloat(base + 16));
+        engine.setAlpha(mWindow.getFloat(base + 20));
+        engine.setRectangleSize(mWindow.getInt(base + 24), mWindow.getInt(base + 28));
+        engine.setTickCount(mWindow.getLong(base + 8));
+
+        BallStore balls = engine.getBalls();
+        balls.resize(count);
+        mWindowFloats.position((base + TrajectoryRecorder.FRAME_HEADER_SIZE) / 4);
+        mWindowFloats.get(balls.positionX, 0, count);
+        mWindowFloats.get(balls.positionY, 0, count);
+        mWindowFloats.get(balls.velocityX, 0, count);
+        mWindowFloats.get(balls.velocityY, 0, count);
+        mWindowFloats.get(balls.accelerationX, 0, count);
+        mWindowFloats.get(balls.accelerationY, 0, count);
+        mWindowFloats.get(balls.diameter, 0, count);
+
+        /* Tick by tick, integrators which skip ticks do not reproduce ticked runs exactly */
+        long ticks = Math.max(tick - engine.getTickCount(), 0);
+        for (long i = 0; i < ticks; i++) {
+            engine.makeTick();
+        }
+        return ticks;
+    }
+
+    /*
+     *  Loads positions and diameters of the last recorded frame at or before
+     *  tick without re-simulation, for scrubbing through a recording. Returns
+     *  tick of that frame.
+     */
+    public long readPositions(long tick, BallStore balls) {
+        int keyframe = findKeyframe(tick);
+        long offset = mIndexOffsets[keyframe];
+        int base = map(offset, TrajectoryRecorder.FRAME_HEADER_SIZE);
+        int size = mWindow.getInt(base);
+        base = map(offset, size);
+
+        /* Diameters are stored in keyframes only and stay until the next one */
+        int count = mWindow.getInt(base + 32);
+        balls.resize(count);
+        mWindowFloats.position((base + TrajectoryRecorder.FRAME_HEADER_SIZE) / 4 + TrajectoryRecorder.POSITION_PLANES * count + 4 * count);
+        mWindowFloats.get(balls.diameter, 0, count);
+
+        /* Walk positions frames up to tick, there are less than keyframe interval of them */
+        long frameTick = mWindow.getLong(base + 8);
+        long next = offset + size;
+        while (next + TrajectoryRecorder.FRAME_HEADER_SIZE <= mFramesEnd) {
+            int nextBase = map(next, TrajectoryRecorder.FRAME_HEADER_SIZE);
+            if (mWindow.getInt(nextBase + 4) != TrajectoryRecorder.FRAME_POSITIONS || mWindow.getLong(nextBase + 8) > tick) {
+                break;
+            }
+            offset = next;
+            size = mWindow.getInt(nextBase);
+            frameTick = mWindow.getLong(nextBase + 8);
+            next = offset + size;
+        }
+
+        base = map(offset, size);
+        mWindowFloats.position((base + TrajectoryRecorder.FRAME_HEADER_SIZE) / 4);
+        mWindowFloats.get(balls.positionX, 0, count);
+        mWindowFloats.get(balls.positionY, 0, count);
+        return frameTick;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWindow = null;
+        mWindowFloats = null;
+        mChannel.close();
+    }
+}
@@ -0,0 +1,263 @@
+package ballsimulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ *  Streams simulation state into a binary trajectory file through memory
+ *  mapped regions of the file.
+ *
+ *  Every record interval ticks a frame with positions of all balls is written,
+ *  every keyframe interval frames the frame is a keyframe with the complete
+ *  state instead, so that simulation can be resumed from it. Keyframes are
+ *  also written when the state was changed outside of ticks. The file ends
+ *  with an index of keyframes which TrajectoryReader uses for seeking.
+ *
+ *  File layout, all values in byte order given by the header:
+ *
+ *    header    magic "BSTRAJ01", byte order (0 big, 1 little endian), version,
+ *              record interval, keyframe interval, frame count, first tick,
+ *              last tick, index offset (0 until closed), keyframe count
+ *    frames    size in bytes, type, tick, time tick, alpha, rectangle width
+ *              and height, ball count, reserved, then float planes: x, y for
+ *              every frame and vx, vy, ax, ay, diameter for keyframes
+ *    index     (tick, offset) of every keyframe
+ */
+public class TrajectoryRecorder implements TickObserver, Closeable {
+
+    public static final int DEFAULT_RECORD_INTERVAL = 100;
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 10;
+
+    static final byte[] MAGIC = {'B', 'S', 'T', 'R', 'A', 'J', '0', '1'};
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int FRAME_HEADER_SIZE = 40;
+    static final int INDEX_ENTRY_SIZE = 16;
+
+    static final int FRAME_POSITIONS = 0;
+    static final int FRAME_KEYFRAME = 1;
+
+    /* Float planes of positions frames and keyframes */
+    static final int POSITION_PLANES = 2;
+    static final int KEYFRAME_PLANES = 7;
+
+    /* Size of every mapped region, a region is larger only when a single frame does not fit */
+    private static final long mRegionSize = 64L << 20;
+
+    private final ByteOrder mOrder = ByteOrder.nativeOrder();
+
+    private final FileChannel mChannel;
+    private final int mRecordInterval;
+    private final int mKeyframeInterval;
+
+    private MappedByteBuffer mRegion;
+    private FloatBuffer mRegionFloats;
+    private long mRegionStart;
+    private long mWritePosition = HEADER_SIZE;
+
+    private long mFrameCount = 0;
+    private long mFirstTick = -1;
+    private long mLastTick = -1;
+    private int mFramesSinceKeyframe = 0;
+    private int mLastBallCount = -1;
+    private boolean mKeyframeRequested = true;
+
+    private long[] mIndexTicks = new long[64];
+    private long[] mIndexOffsets = new long[64];
+    private int mKeyframeCount = 0;
+
+    /* Time spent writing frames, to measure recording overhead */
+    private long mRecordingNanos = 0;
+
+
+    public TrajectoryRecorder(Path file, int recordInterval, int keyframeInterval) throws IOException {
+        if (recordInterval < 1 || keyframeInterval < 1) {
+            throw new IllegalArgumentException("Record and keyframe intervals must be positive");
+        }
+        mRecordInterval = recordInterval;
+        mKeyframeInterval = keyframeInterval;
+        mChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                          StandardOpenOption.READ, StandardOpenOption.WRITE);
+        writeHeader(0);
+    }
+
+    public int getRecordInterval() {
+        return mRecordInterval;
+    }
+
+    public int getKeyframeInterval() {
+        return mKeyframeInterval;
+    }
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    public int getKeyframeCount() {
+        return mKeyframeCount;
+    }
+
+    /*
+     *  Bytes of frames written so far
+     */
+    public long getBytesWritten() {
+        return mWritePosition - HEADER_SIZE;
+    }
+
+    public long getRecordingNanos() {
+        return mRecordingNanos;
+    }
+
+    /*
+     *  Writes current state as a keyframe, so a recording attached to an engine
+     *  starts at its current tick rather than at the next record interval
+     */
+    public void start(SimulationEngine engine) {
+        mKeyframeRequested = true;
+        record(engine);
+    }
+
+    @Override
+    public void afterTick(SimulationEngine engine) {
+        if (engine.getTickCount() % mRecordInterval == 0) {
+            record(engine);
+        }
+    }
+
+    @Override
+    public void stateChanged(SimulationEngine engine) {
+        mKeyframeRequested = true;
+    }
+
+    private void record(SimulationEngine engine) {
+        long startTime = System.nanoTime();
+        BallStore balls = engine.getBalls();
+        int count = balls.size();
+
+        boolean keyframe = mKeyframeRequested || count != mLastBallCount || mFramesSinceKeyframe >= mKeyframeInterval;
+        int planes = keyframe ? KEYFRAME_PLANES : POSITION_PLANES;
+        long frameSize = FRAME_HEADER_SIZE + 4L * planes * count;
+        ensureRegion(frameSize);
+
+        int base = (int)(mWritePosition - mRegionStart);
+        mRegion.putInt(base, (int)frameSize);
+        mRegion.putInt(base + 4, keyframe ? FRAME_KEYFRAME : FRAME_POSITIONS);
+        mRegion.putLong(base + 8, engine.getTickCount());
+        mRegion.putFloat(base + 16, engine.getTimeTickValue());
+        mRegion.putFloat(base + 20, engine.getAlpha());
+        mRegion.putInt(base + 24, engine.getRectangleWidth());
+        mRegion.putInt(base + 28, engine.getRectangleHeight());
+        mRegion.putInt(base + 32, count);
+        mRegion.putInt(base + 36, 0);
+
+        /* Planes are bulk copied, frames and regions are 4 byte aligned */
+        mRegionFloats.position((base + FRAME_HEADER_SIZE) / 4);
+        mRegionFloats.put(balls.positionX, 0, count);
+        mRegionFloats.put(balls.positionY, 0, count);
+        if (keyframe) {
+            mRegionFloats.put(balls.velocityX, 0, count);
+            mRegionFloats.put(balls.velocityY, 0, count);
+            mRegionFloats.put(balls.accelerationX, 0, count);
+            mRegionFloats.put(balls.accelerationY, 0, count);
+            mRegionFloats.put(balls.diameter, 0, count);
+
+            addKeyframe(engine.getTickCount(), mWritePosition);
+            mFramesSinceKeyframe = 0;
+            mKeyframeRequested = false;
+        }
+
+        mWritePosition += frameSize;
+        mFramesSinceKeyframe++;
+        mFrameCount++;
+        mLastBallCount = count;
+        if (mFirstTick < 0) {
+            mFirstTick = engine.getTickCount();
+        }
+        mLastTick = engine.getTickCount();
+
+        mRecordingNanos += System.nanoTime() - startTime;
+    }
+
+    /*
+     *  Maps a new region at write position unless the frame fits into current one
+     */
+    private void ensureRegion(long frameSize) {
+        if (mRegion != null && mWritePosition + frameSize <= mRegionStart + mRegion.capacity()) {
+            return;
+        }
+        if (frameSize > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Frame of " + frameSize + " bytes does not fit into a mapped region");
+        }
+
+        try {
+            mRegionStart = mWritePosition;
+            mRegion = mChannel.map(FileChannel.MapMode.READ_WRITE, mRegionStart, Math.max(mRegionSize, frameSize));
+            mRegion.order(mOrder);
+            mRegionFloats = mRegion.asFloatBuffer();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void addKeyframe(long tick, long offset) {
+        if (mKeyframeCount == mIndexTicks.length) {
+            mIndexTicks = Arrays.copyOf(mIndexTicks, 2 * mKeyframeCount);
+            mIndexOffsets = Arrays.copyOf(mIndexOffsets, 2 * mKeyframeCount);
+        }
+        mIndexTicks[mKeyframeCount] = tick;
+        mIndexOffsets[mKeyframeCount] = offset;
+        mKeyframeCount++;
+    }
+
+    private void writeHeader(long indexOffset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(mOrder);
+        header.put(MAGIC);
+        header.put((byte)(mOrder == ByteOrder.LITTLE_ENDIAN ? 1 : 0));
+        header.put(new byte[3]);
+        header.putInt(VERSION);
+        header.putInt(mRecordInterval);
+        header.putInt(mKeyframeInterval);
+        header.putLong(mFrameCount);
+        header.putLong(mFirstTick);
+        header.putLong(mLastTick);
+        header.putLong(indexOffset);
+        header.putInt(mKeyframeCount);
+        header.rewind();
+        mChannel.write(header, 0);
+    }
+
+    /*
+     *  Appends keyframe index, completes header and cuts off unused part of
+     *  the last mapped region
+     */
+    @Override
+    public void close() throws IOException {
+        mRegion = null;
+        mRegionFloats = null;
+
+        long indexOffset = mWritePosition;
+        ByteBuffer index = ByteBuffer.allocate(mKeyframeCount * INDEX_ENTRY_SIZE).order(mOrder);
+        for (int k = 0; k < mKeyframeCount; k++) {
+            index.putLong(mIndexTicks[k]);
+            index.putLong(mIndexOffsets[k]);
+        }
+        index.flip();
+        while (index.hasRemaining()) {
+            mChannel.write(index, indexOffset + index.position());
+        }
+
+        writeHeader(indexOffset);
+        mChannel.truncate(indexOffset + (long)mKeyframeCount * INDEX_ENTRY_SIZE);
+        mChannel.close();
+    }
+}
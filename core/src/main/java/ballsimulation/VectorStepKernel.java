@@ -0,0 +1,88 @@
+package ballsimulation;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ *  Integration step written with the Vector API (jdk.incubator.vector).
+ *
+ *  Processes as many balls per iteration as fit into the preferred vector
+ *  register. Wall reflection is branch-free: velocity is negated with a blend
+ *  under the mask of balls touching a wall. Operations and their order are the
+ *  same as in the scalar loop, so results are bit-identical to it.
+ *
+ *  Requires --add-modules jdk.incubator.vector both at compile and run time,
+ *  SimulationEngine loads this class reflectively and falls back to the scalar
+ *  loop when the module is missing.
+ */
+public class VectorStepKernel implements StepKernel {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+
+    public static int getLaneCount() {
+        return SPECIES.length();
+    }
+
+    @Override
+    public String getName() {
+        return "vector" + SPECIES.length();
+    }
+
+    @Override
+    public void stepRange(SimulationEngine engine, int from, int to) {
+        final BallStore balls = engine.getBalls();
+        final float[] px = balls.positionX;
+        final float[] py = balls.positionY;
+        final float[] vx = balls.velocityX;
+        final float[] vy = balls.velocityY;
+        final float[] ax = balls.accelerationX;
+        final float[] ay = balls.accelerationY;
+        final float[] d = balls.diameter;
+        final float dt = engine.getTimeTickValue();
+        final float alpha = engine.getAlpha();
+        final float width = (float)engine.getRectangleWidth();
+        final float height = (float)engine.getRectangleHeight();
+
+        int i = from;
+        int upper = from + SPECIES.loopBound(to - from);
+        for (; i < upper; i += SPECIES.length()) {
+            FloatVector x = FloatVector.fromArray(SPECIES, px, i);
+            FloatVector y = FloatVector.fromArray(SPECIES, py, i);
+            FloatVector velX = FloatVector.fromArray(SPECIES, vx, i);
+            FloatVector velY = FloatVector.fromArray(SPECIES, vy, i);
+            FloatVector accX = FloatVector.fromArray(SPECIES, ax, i);
+            FloatVector accY = FloatVector.fromArray(SPECIES, ay, i);
+            FloatVector diameter = FloatVector.fromArray(SPECIES, d, i);
+
+            x = x.add(velX.mul(dt));
+            y = y.add(velY.mul(dt));
+            velX = velX.add(accX.mul(dt));
+            velY = velY.add(accY.mul(dt));
+
+            accX = x.mul(2.0f).sub(1.0f).mul(alpha).div(x.mul(x.neg().add(1.0f)));
+            accY = y.mul(2.0f).sub(1.0f).mul(alpha).div(y.mul(y.neg().add(1.0f)));
+
+            FloatVector rx = diameter.div(width).div(2.0f);
+            FloatVector ry = diameter.div(height).div(2.0f);
+
+            VectorMask<Float> wallX = x.compare(VectorOperators.LE, rx).or(x.compare(VectorOperators.GE, rx.neg().add(1.0f)));
+            VectorMask<Float> wallY = y.compare(VectorOperators.LE, ry).or(y.compare(VectorOperators.GE, ry.neg().add(1.0f)));
+
+            velX = velX.blend(velX.neg(), wallX);
+            velY = velY.blend(velY.neg(), wallY);
+
+            x.intoArray(px, i);
+            y.intoArray(py, i);
+            velX.intoArray(vx, i);
+            velY.intoArray(vy, i);
+            accX.intoArray(ax, i);
+            accY.intoArray(ay, i);
+        }
+
+        /* Remaining balls which do not fill a whole vector */
+        engine.stepRangeScalar(i, to);
+    }
+}
@@ -0,0 +1,229 @@
+package ballsimulation;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ *  Velocity Verlet scheme, symplectic and second order accurate.
+ *
+ *  Needs one force evaluation per tick like Euler, but energy does not drift
+ *  systematically, so much larger time ticks give the same accuracy. Velocity
+ *  is reflected only when ball moves into the wall, so a ball which stays in
+ *  the wall zone for several ticks does not get stuck there.
+ *
+ *  Double and Kahan precision work as for EulerIntegrator.
+ */
+public class VerletIntegrator implements Integrator {
+
+    private final LongAdder mForceEvaluations = new LongAdder();
+    private final PrecisionState mState;
+
+
+    public VerletIntegrator() {
+        this(PrecisionState.FLOAT);
+    }
+
+    public VerletIntegrator(int precision) {
+        mState = new PrecisionState(precision);
+    }
+
+    @Override
+    public String getName() {
+        return "verlet";
+    }
+
+    public int getPrecision() {
+        return mState.getPrecision();
+    }
+
+    @Override
+    public void prepare(SimulationEngine engine) {
+        mState.prepare(engine);
+    }
+
+    @Override
+    public void stepRange(SimulationEngine engine, int from, int to) {
+        switch (mState.getPrecision()) {
+            case PrecisionState.DOUBLE: stepRangeDouble(engine, from, to); break;
+            case PrecisionState.KAHAN:  stepRangeKahan(engine, from, to); break;
+            default:                    stepRangeFloat(engine, from, to); break;
+        }
+        mForceEvaluations.add(to - from);
+    }
+
+    private void stepRangeFloat(SimulationEngine engine, int from, int to) {
+        final BallStore balls = engine.getBalls();
+        final float[] px = balls.positionX;
+        final float[] py = balls.positionY;
+        final float[] vx = balls.velocityX;
+        final float[] vy = balls.velocityY;
+        final float[] ax = balls.accelerationX;
+        final float[] ay = balls.accelerationY;
+        final float[] d = balls.diameter;
+        final float dt = engine.getTimeTickValue();
+        final float halfDt = 0.5f * dt;
+        final float alpha = engine.getAlpha();
+        final ForceField field = engine.getForceField();
+        final float width = (float)engine.getRectangleWidth();
+        final float height = (float)engine.getRectangleHeight();
+
+        for (int i = from; i < to; i++) {
+            float x = px[i] + (vx[i] + ax[i] * halfDt) * dt;
+            float y = py[i] + (vy[i] + ay[i] * halfDt) * dt;
+
+            float newAccX = SimulationEngine.forceX(field, alpha, x, y);
+            float newAccY = SimulationEngine.forceY(field, alpha, x, y);
+
+            float velX = vx[i] + (ax[i] + newAccX) * halfDt;
+            float velY = vy[i] + (ay[i] + newAccY) * halfDt;
+
+            float rx = d[i] / width / 2.0f;
+            float ry = d[i] / height / 2.0f;
+
+            if ((x <= rx && velX < 0) || (x >= 1 - rx && velX > 0)) {
+                velX = -velX;
+            }
+
+            if ((y <= ry && velY < 0) || (y >= 1 - ry && velY > 0)) {
+                velY = -velY;
+            }
+
+            px[i] = x;
+            py[i] = y;
+            vx[i] = velX;
+            vy[i] = velY;
+            ax[i] = newAccX;
+            ay[i] = newAccY;
+        }
+    }
+
+    private void stepRangeDouble(SimulationEngine engine, int from, int to) {
+        final BallStore balls = engine.getBalls();
+        final PrecisionState state = mState;
+        final double[] px = state.positionX;
+        final double[] py = state.positionY;
+        final double[] vx = state.velocityX;
+        final double[] vy = state.velocityY;
+        final double[] ax = state.accelerationX;
+        final double[] ay = state.accelerationY;
+        final float[] d = balls.diameter;
+        final double dt = engine.getTimeTickValue();
+        final double halfDt = 0.5 * dt;
+        final double alpha = engine.getAlpha();
+        final ForceField field = engine.getForceField();
+        final double width = engine.getRectangleWidth();
+        final double height = engine.getRectangleHeight();
+
+        for (int i = from; i < to; i++) {
+            if (!state.isLoaded(balls, i)) {
+                state.load(engine, i);
+            }
+
+            double x = px[i] + (vx[i] + ax[i] * halfDt) * dt;
+            double y = py[i] + (vy[i] + ay[i] * halfDt) * dt;
+
+            double newAccX = SimulationEngine.forceX(field, alpha, x, y);
+            double newAccY = SimulationEngine.forceY(field, alpha, x, y);
+
+            double velX = vx[i] + (ax[i] + newAccX) * halfDt;
+            double velY = vy[i] + (ay[i] + newAccY) * halfDt;
+
+            double rx = d[i] / width / 2.0;
+            double ry = d[i] / height / 2.0;
+
+            if ((x <= rx && velX < 0) || (x >= 1 - rx && velX > 0)) {
+                velX = -velX;
+            }
+
+            if ((y <= ry && velY < 0) || (y >= 1 - ry && velY > 0)) {
+                velY = -velY;
+            }
+
+            px[i] = x;
+            py[i] = y;
+            vx[i] = velX;
+            vy[i] = velY;
+            ax[i] = newAccX;
+            ay[i] = newAccY;
+
+            balls.positionX[i] = (float)x;
+            balls.positionY[i] = (float)y;
+            balls.velocityX[i] = (float)velX;
+            balls.velocityY[i] = (float)velY;
+            balls.accelerationX[i] = (float)newAccX;
+            balls.accelerationY[i] = (float)newAccY;
+        }
+    }
+
+    private void stepRangeKahan(SimulationEngine engine, int from, int to) {
+        final BallStore balls = engine.getBalls();
+        final float[] px = balls.positionX;
+        final float[] py = balls.positionY;
+        final float[] vx = balls.velocityX;
+        final float[] vy = balls.velocityY;
+        final float[] ax = balls.accelerationX;
+        final float[] ay = balls.accelerationY;
+        final float[] d = balls.diameter;
+        final float[] cx = mState.compensationX;
+        final float[] cy = mState.compensationY;
+        final float[] cvx = mState.compensationVX;
+        final float[] cvy = mState.compensationVY;
+        final float dt = engine.getTimeTickValue();
+        final float halfDt = 0.5f * dt;
+        final float alpha = engine.getAlpha();
+        final ForceField field = engine.getForceField();
+        final float width = (float)engine.getRectangleWidth();
+        final float height = (float)engine.getRectangleHeight();
+
+        for (int i = from; i < to; i++) {
+            /* Increment minus what the previous sum lost, then what this sum loses */
+            float incX = (vx[i] + ax[i] * halfDt) * dt - cx[i];
+            float incY = (vy[i] + ay[i] * halfDt) * dt - cy[i];
+            float x = px[i] + incX;
+            float y = py[i] + incY;
+            cx[i] = (x - px[i]) - incX;
+            cy[i] = (y - py[i]) - incY;
+
+            float newAccX = SimulationEngine.forceX(field, alpha, x, y);
+            float newAccY = SimulationEngine.forceY(field, alpha, x, y);
+
+            float incVX = (ax[i] + newAccX) * halfDt - cvx[i];
+            float incVY = (ay[i] + newAccY) * halfDt - cvy[i];
+            float velX = vx[i] + incVX;
+            float velY = vy[i] + incVY;
+            float compVX = (velX - vx[i]) - incVX;
+            float compVY = (velY - vy[i]) - incVY;
+
+            float rx = d[i] / width / 2.0f;
+            float ry = d[i] / height / 2.0f;
+
+            if ((x <= rx && velX < 0) || (x >= 1 - rx && velX > 0)) {
+                velX = -velX;
+                compVX = -compVX;
+            }
+
+            if ((y <= ry && velY < 0) || (y >= 1 - ry && velY > 0)) {
+                velY = -velY;
+                compVY = -compVY;
+            }
+
+            px[i] = x;
+            py[i] = y;
+            vx[i] = velX;
+            vy[i] = velY;
+            ax[i] = newAccX;
+            ay[i] = newAccY;
+            cvx[i] = compVX;
+            cvy[i] = compVY;
+        }
+    }
+
+    @Override
+    public double getEnergy(SimulationEngine engine, int i) {
+        return mState.getEnergy(engine, i);
+    }
+
+    @Override
+    public long getForceEvaluations() {
+        return mForceEvaluations.sum();
+    }
+}
@@ -0,0 +1,49 @@
+package ballsimulation;
+
+/*
+ *  Analytic wall potential alpha * ln(x * (1 - x)) along each axis, the force
+ *  SimulationEngine computes inline when no field is set
+ */
+public class WallForceField implements ForceField {
+
+    private final float mAlpha;
+
+
+    public WallForceField(float alpha) {
+        mAlpha = alpha;
+    }
+
+    public float getAlpha() {
+        return mAlpha;
+    }
+
+    @Override
+    public String getName() {
+        return "wall";
+    }
+
+    @Override
+    public float forceX(float x, float y) {
+        return SimulationEngine.wallForce(mAlpha, x);
+    }
+
+    @Override
+    public float forceY(float x, float y) {
+        return SimulationEngine.wallForce(mAlpha, y);
+    }
+
+    @Override
+    public double forceX(double x, double y) {
+        return SimulationEngine.wallForce((double)mAlpha, x);
+    }
+
+    @Override
+    public double forceY(double x, double y) {
+        return SimulationEngine.wallForce((double)mAlpha, y);
+    }
+
+    @Override
+    public double potential(double x, double y) {
+        return SimulationEngine.wallPotential(mAlpha, x) + SimulationEngine.wallPotential(mAlpha, y);
+    }
+}
@@ -0,0 +1,124 @@
+package ballsimulation;
+
+/*
+ *  Wall potential plus softened gravity wells.
+ *
+ *  Every well adds the potential -strength / sqrt(d^2 + softening^2), with
+ *  distance d from its center measured in rectangle widths, so wells stay
+ *  round when the rectangle is not square. A single well sits in the middle
+ *  of the rectangle, more are spread evenly on a circle of a quarter width
+ *  around it. Every well costs a square root and a division on every
+ *  evaluation, which is what tables of the field save.
+ */
+public class WellForceField implements ForceField {
+
+    public static final float DEFAULT_STRENGTH = 0.04f;
+    public static final float DEFAULT_SOFTENING = 0.1f;
+
+    /* Distance of wells from the middle when there is more than one, in widths */
+    private static final double mRingRadius = 0.25;
+
+    private final float mAlpha;
+    private final double mStrength;
+    private final double mSoftening;
+
+    /* Height over width, converts normalized y into widths */
+    private final double mAspect;
+
+    /* Well centers in widths, relative to the middle of the rectangle */
+    private final double[] mCentersX;
+    private final double[] mCentersY;
+
+
+    public WellForceField(float alpha, int rectangleWidth, int rectangleHeight, int count, float strength, float softening) {
+        if (rectangleWidth <= 0 || rectangleHeight <= 0 || count < 1 || !(softening > 0)) {
+            throw new IllegalArgumentException("Rectangle size, well count and softening must be positive");
+        }
+        mAlpha = alpha;
+        mStrength = strength;
+        mSoftening = softening;
+        mAspect = rectangleHeight / (double)rectangleWidth;
+
+        mCentersX = new double[count];
+        mCentersY = new double[count];
+        if (count > 1) {
+            for (int k = 0; k < count; k++) {
+                mCentersX[k] = mRingRadius * Math.cos(2.0 * Math.PI * k / count);
+                mCentersY[k] = mRingRadius * Math.sin(2.0 * Math.PI * k / count);
+            }
+        }
+    }
+
+    /*
+     *  Source of fields with the given wells for ForceFieldTabulator
+     */
+    public static ForceFieldSource source(final int count, final float strength, final float softening) {
+        return new ForceFieldSource() {
+            @Override
+            public ForceField create(float alpha, int rectangleWidth, int rectangleHeight) {
+                return new WellForceField(alpha, rectangleWidth, rectangleHeight, count, strength, softening);
+            }
+        };
+    }
+
+    public int getCount() {
+        return mCentersX.length;
+    }
+
+    @Override
+    public String getName() {
+        return mCentersX.length > 1 ? mCentersX.length + " wells" : "well";
+    }
+
+    @Override
+    public float forceX(float x, float y) {
+        return (float)forceX((double)x, (double)y);
+    }
+
+    @Override
+    public float forceY(float x, float y) {
+        return (float)forceY((double)x, (double)y);
+    }
+
+    @Override
+    public double forceX(double x, double y) {
+        double px = x - 0.5;
+        double py = (y - 0.5) * mAspect;
+        double force = SimulationEngine.wallForce((double)mAlpha, x);
+        for (int k = 0; k < mCentersX.length; k++) {
+            double dx = px - mCentersX[k];
+            double dy = py - mCentersY[k];
+            double s = dx * dx + dy * dy + mSoftening * mSoftening;
+            force -= mStrength * dx / (s * Math.sqrt(s));
+        }
+        return force;
+    }
+
+    @Override
+    public double forceY(double x, double y) {
+        double px = x - 0.5;
+        double py = (y - 0.5) * mAspect;
+        double force = SimulationEngine.wallForce((double)mAlpha, y);
+        for (int k = 0; k < mCentersX.length; k++) {
+            double dx = px - mCentersX[k];
+            double dy = py - mCentersY[k];
+            double s = dx * dx + dy * dy + mSoftening * mSoftening;
+            /* Derivative by normalized y carries the aspect once more */
+            force -= mStrength * dy * mAspect / (s * Math.sqrt(s));
+        }
+        return force;
+    }
+
+    @Override
+    public double potential(double x, double y) {
+        double px = x - 0.5;
+        double py = (y - 0.5) * mAspect;
+        double potential = SimulationEngine.wallPotential(mAlpha, x) + SimulationEngine.wallPotential(mAlpha, y);
+        for (int k = 0; k < mCentersX.length; k++) {
+            double dx = px - mCentersX[k];
+            double dy = py - mCentersY[k];
+            potential -= mStrength / Math.sqrt(dx * dx + dy * dy + mSoftening * mSoftening);
+        }
+        return potential;
+    }
+}